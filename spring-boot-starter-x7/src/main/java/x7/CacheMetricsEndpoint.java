@@ -0,0 +1,29 @@
+package x7;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+
+import x7.repository.SingleFlight;
+import x7.repository.redis.CacheCompressor;
+import x7.repository.redis.CacheResolver;
+
+/**
+ * /x7cache, 合并加载和租约, 一级缓存, 压缩
+ */
+public class CacheMetricsEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+	public CacheMetricsEndpoint() {
+		super("x7cache");
+	}
+
+	@Override
+	public Map<String, Object> invoke() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("singleFlight", SingleFlight.getInstance().getStats());
+		map.put("nearCache", CacheResolver.getInstance().getNearCache().getStats());
+		map.put("compress", CacheCompressor.getStats());
+		return map;
+	}
+}
@@ -0,0 +1,31 @@
+package x7;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+
+import x7.repository.monitor.JdbcMetrics;
+
+/**
+ * /x7jdbc, x7.db.metrics=true 时有数据
+ */
+public class JdbcMetricsEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+	public JdbcMetricsEndpoint() {
+		super("x7jdbc");
+	}
+
+	@Override
+	public Map<String, Object> invoke() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("enabled", JdbcMetrics.isEnabled());
+		JdbcMetrics metrics = JdbcMetrics.getInstance();
+		map.put("statementCacheHitRatio", metrics.getStatementCacheHitRatio());
+		map.put("pools", Arrays.asList(metrics.getPools()));
+		map.put("replicas", Arrays.asList(metrics.getReplicas()));
+		map.put("shapes", Arrays.asList(metrics.getShapes()));
+		return map;
+	}
+}
@@ -0,0 +1,28 @@
+package x7;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 有spring-boot-actuator时注册JdbcMetricsEndpoint, SlowQueryEndpoint, CacheMetricsEndpoint
+ */
+@Configuration
+@ConditionalOnClass(name = "org.springframework.boot.actuate.endpoint.AbstractEndpoint")
+public class MetricsConfiguration {
+
+	@Bean
+	JdbcMetricsEndpoint x7JdbcMetricsEndpoint() {
+		return new JdbcMetricsEndpoint();
+	}
+
+	@Bean
+	SlowQueryEndpoint x7SlowQueryEndpoint() {
+		return new SlowQueryEndpoint();
+	}
+
+	@Bean
+	CacheMetricsEndpoint x7CacheMetricsEndpoint() {
+		return new CacheMetricsEndpoint();
+	}
+}
@@ -0,0 +1,27 @@
+package x7;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+
+import x7.repository.monitor.SlowQueryLog;
+
+/**
+ * /x7slow, x7.db.slow.ms > 0 时有数据, 新的在前
+ */
+public class SlowQueryEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+	public SlowQueryEndpoint() {
+		super("x7slow");
+	}
+
+	@Override
+	public Map<String, Object> invoke() {
+		SlowQueryLog slowQueryLog = SlowQueryLog.getInstance();
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("enabled", slowQueryLog.isEnabled());
+		map.put("queries", slowQueryLog.getList());
+		return map;
+	}
+}
@@ -0,0 +1,318 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.core.bean;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * getter/setter/构造器, 通过LambdaMetafactory编译一次, 之后不再反射<br>
+ * 类不可见(非public, 或不同ClassLoader)时, 退回到MethodHandle
+ *
+ * @author Sim
+ */
+public class Accessors {
+
+	private final static MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	@SuppressWarnings("unchecked")
+	public static Supplier<Object> constructor(Class clz) {
+		try {
+			Constructor c = clz.getDeclaredConstructor();
+			if (isCompilable(clz, c.getModifiers())) {
+				MethodHandle mh = LOOKUP.unreflectConstructor(c);
+				return (Supplier<Object>) metafactory("get", Supplier.class, mh,
+						MethodType.methodType(Object.class), MethodType.methodType(clz));
+			}
+			c.setAccessible(true);
+			final MethodHandle mh = LOOKUP.unreflectConstructor(c).asType(MethodType.methodType(Object.class));
+			return () -> {
+				try {
+					return mh.invokeExact();
+				} catch (Throwable e) {
+					throw rethrow(e);
+				}
+			};
+		} catch (Exception e) {
+			throw new RuntimeException("NO DEFAULT CONSTRUCTOR: " + clz.getName(), e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public static BiConsumer<Object, Object> setter(Method method) {
+		Class clz = method.getDeclaringClass();
+		Class type = method.getParameterTypes()[0];
+		try {
+			if (isCompilable(clz, method.getModifiers())) {
+				MethodHandle mh = LOOKUP.unreflect(method);
+				return (BiConsumer<Object, Object>) metafactory("accept", BiConsumer.class, mh,
+						MethodType.methodType(void.class, Object.class, Object.class),
+						MethodType.methodType(void.class, clz, wrap(type)));
+			}
+			final MethodHandle mh = unreflect(method)
+					.asType(MethodType.methodType(void.class, Object.class, Object.class));
+			return (obj, value) -> {
+				try {
+					mh.invokeExact(obj, value);
+				} catch (Throwable e) {
+					throw rethrow(e);
+				}
+			};
+		} catch (Exception e) {
+			throw new RuntimeException("SETTER NOT ACCESSIBLE: " + method, e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public static ObjLongConsumer<Object> longSetter(Method method) {
+		Class clz = method.getDeclaringClass();
+		try {
+			if (isCompilable(clz, method.getModifiers())) {
+				MethodHandle mh = LOOKUP.unreflect(method);
+				return (ObjLongConsumer<Object>) metafactory("accept", ObjLongConsumer.class, mh,
+						MethodType.methodType(void.class, Object.class, long.class),
+						MethodType.methodType(void.class, clz, long.class));
+			}
+			final MethodHandle mh = unreflect(method)
+					.asType(MethodType.methodType(void.class, Object.class, long.class));
+			return (obj, value) -> {
+				try {
+					mh.invokeExact(obj, value);
+				} catch (Throwable e) {
+					throw rethrow(e);
+				}
+			};
+		} catch (Exception e) {
+			throw new RuntimeException("SETTER NOT ACCESSIBLE: " + method, e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public static ObjIntConsumer<Object> intSetter(Method method) {
+		Class clz = method.getDeclaringClass();
+		try {
+			if (isCompilable(clz, method.getModifiers())) {
+				MethodHandle mh = LOOKUP.unreflect(method);
+				return (ObjIntConsumer<Object>) metafactory("accept", ObjIntConsumer.class, mh,
+						MethodType.methodType(void.class, Object.class, int.class),
+						MethodType.methodType(void.class, clz, int.class));
+			}
+			final MethodHandle mh = unreflect(method)
+					.asType(MethodType.methodType(void.class, Object.class, int.class));
+			return (obj, value) -> {
+				try {
+					mh.invokeExact(obj, value);
+				} catch (Throwable e) {
+					throw rethrow(e);
+				}
+			};
+		} catch (Exception e) {
+			throw new RuntimeException("SETTER NOT ACCESSIBLE: " + method, e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public static ObjDoubleConsumer<Object> doubleSetter(Method method) {
+		Class clz = method.getDeclaringClass();
+		try {
+			if (isCompilable(clz, method.getModifiers())) {
+				MethodHandle mh = LOOKUP.unreflect(method);
+				return (ObjDoubleConsumer<Object>) metafactory("accept", ObjDoubleConsumer.class, mh,
+						MethodType.methodType(void.class, Object.class, double.class),
+						MethodType.methodType(void.class, clz, double.class));
+			}
+			final MethodHandle mh = unreflect(method)
+					.asType(MethodType.methodType(void.class, Object.class, double.class));
+			return (obj, value) -> {
+				try {
+					mh.invokeExact(obj, value);
+				} catch (Throwable e) {
+					throw rethrow(e);
+				}
+			};
+		} catch (Exception e) {
+			throw new RuntimeException("SETTER NOT ACCESSIBLE: " + method, e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public static Function<Object, Object> getter(Method method) {
+		Class clz = method.getDeclaringClass();
+		try {
+			if (isCompilable(clz, method.getModifiers())) {
+				MethodHandle mh = LOOKUP.unreflect(method);
+				return (Function<Object, Object>) metafactory("apply", Function.class, mh,
+						MethodType.methodType(Object.class, Object.class),
+						MethodType.methodType(wrap(method.getReturnType()), clz));
+			}
+			final MethodHandle mh = unreflect(method).asType(MethodType.methodType(Object.class, Object.class));
+			return (obj) -> {
+				try {
+					return mh.invokeExact(obj);
+				} catch (Throwable e) {
+					throw rethrow(e);
+				}
+			};
+		} catch (Exception e) {
+			throw new RuntimeException("GETTER NOT ACCESSIBLE: " + method, e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public static ToLongFunction<Object> longGetter(Method method) {
+		Class clz = method.getDeclaringClass();
+		try {
+			if (isCompilable(clz, method.getModifiers())) {
+				MethodHandle mh = LOOKUP.unreflect(method);
+				return (ToLongFunction<Object>) metafactory("applyAsLong", ToLongFunction.class, mh,
+						MethodType.methodType(long.class, Object.class), MethodType.methodType(long.class, clz));
+			}
+			final MethodHandle mh = unreflect(method).asType(MethodType.methodType(long.class, Object.class));
+			return (obj) -> {
+				try {
+					return (long) mh.invokeExact(obj);
+				} catch (Throwable e) {
+					throw rethrow(e);
+				}
+			};
+		} catch (Exception e) {
+			throw new RuntimeException("GETTER NOT ACCESSIBLE: " + method, e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public static ToIntFunction<Object> intGetter(Method method) {
+		Class clz = method.getDeclaringClass();
+		try {
+			if (isCompilable(clz, method.getModifiers())) {
+				MethodHandle mh = LOOKUP.unreflect(method);
+				return (ToIntFunction<Object>) metafactory("applyAsInt", ToIntFunction.class, mh,
+						MethodType.methodType(int.class, Object.class), MethodType.methodType(int.class, clz));
+			}
+			final MethodHandle mh = unreflect(method).asType(MethodType.methodType(int.class, Object.class));
+			return (obj) -> {
+				try {
+					return (int) mh.invokeExact(obj);
+				} catch (Throwable e) {
+					throw rethrow(e);
+				}
+			};
+		} catch (Exception e) {
+			throw new RuntimeException("GETTER NOT ACCESSIBLE: " + method, e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public static ToDoubleFunction<Object> doubleGetter(Method method) {
+		Class clz = method.getDeclaringClass();
+		try {
+			if (isCompilable(clz, method.getModifiers())) {
+				MethodHandle mh = LOOKUP.unreflect(method);
+				return (ToDoubleFunction<Object>) metafactory("applyAsDouble", ToDoubleFunction.class, mh,
+						MethodType.methodType(double.class, Object.class), MethodType.methodType(double.class, clz));
+			}
+			final MethodHandle mh = unreflect(method).asType(MethodType.methodType(double.class, Object.class));
+			return (obj) -> {
+				try {
+					return (double) mh.invokeExact(obj);
+				} catch (Throwable e) {
+					throw rethrow(e);
+				}
+			};
+		} catch (Exception e) {
+			throw new RuntimeException("GETTER NOT ACCESSIBLE: " + method, e);
+		}
+	}
+
+	private static Object metafactory(String name, Class sam, MethodHandle impl, MethodType samType,
+			MethodType instantiatedType) throws Exception {
+		try {
+			CallSite site = LambdaMetafactory.metafactory(LOOKUP, name, MethodType.methodType(sam), samType, impl,
+					instantiatedType);
+			return site.getTarget().invoke();
+		} catch (Exception e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new Exception(t);
+		}
+	}
+
+	private static MethodHandle unreflect(Method method) throws IllegalAccessException {
+		method.setAccessible(true);
+		return LOOKUP.unreflect(method);
+	}
+
+	/**
+	 * 生成的lambda类挂在Accessors下, 目标类必须public, 且对Accessors的ClassLoader可见
+	 */
+	private static boolean isCompilable(Class clz, int modifiers) {
+		if (!Modifier.isPublic(modifiers) || !Modifier.isPublic(clz.getModifiers()))
+			return false;
+		if (clz.getEnclosingClass() != null && !Modifier.isStatic(clz.getModifiers()))
+			return false;
+		try {
+			return Class.forName(clz.getName(), false, Accessors.class.getClassLoader()) == clz;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	private static Class wrap(Class type) {
+		if (!type.isPrimitive())
+			return type;
+		if (type == long.class)
+			return Long.class;
+		if (type == int.class)
+			return Integer.class;
+		if (type == boolean.class)
+			return Boolean.class;
+		if (type == double.class)
+			return Double.class;
+		if (type == float.class)
+			return Float.class;
+		if (type == short.class)
+			return Short.class;
+		if (type == byte.class)
+			return Byte.class;
+		if (type == char.class)
+			return Character.class;
+		return Void.class;
+	}
+
+	private static RuntimeException rethrow(Throwable e) {
+		if (e instanceof RuntimeException)
+			return (RuntimeException) e;
+		if (e instanceof Error)
+			throw (Error) e;
+		return new RuntimeException(e);
+	}
+}
@@ -16,21 +16,37 @@
  */
 package x7.core.bean;
 
-import java.util.HashMap;
+import java.nio.ByteBuffer;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import x7.core.repository.ISerialWR;
 
 public class BeanSerial {
 
-	private static Map<String, ISerialWR> map = new HashMap<String, ISerialWR>();
+	/**
+	 * 没有手写WR的类, 缓存这个, 不再每次Class.forName
+	 */
+	private final static ISerialWR NONE = new ISerialWR() {
+		@Override
+		public <T> T read(ByteBuffer buffer) throws Exception {
+			return null;
+		}
+
+		@Override
+		public <T> ByteBuffer write(Object t) throws Exception {
+			return null;
+		}
+	};
+
+	private static Map<String, ISerialWR> map = new ConcurrentHashMap<String, ISerialWR>();
 
 	public static Map<String, ISerialWR> getMap() {
 		return map;
 	}
 
 	public static void setMap(Map<String, ISerialWR> mapx) {
-		map = mapx;
+		map = new ConcurrentHashMap<String, ISerialWR>(mapx);
 	}
 	
 	public static ISerialWR get(String clzName){
@@ -39,13 +55,12 @@ public class BeanSerial {
 		if (wr == null) {
 			try{
 				wr = (ISerialWR) Class.forName(clzName + "WR").newInstance();
-				System.out.println("wr = " + wr);
-				map.put(clzName, wr);
 			}catch (Exception e) {
-				map.put(clzName, null);
+				wr = NONE;
 			}
+			map.put(clzName, wr);
 		}
 		
-		return wr;
+		return wr == NONE ? null : wr;
 	}
 }
@@ -22,6 +22,7 @@ import java.util.List;
 
 import x7.core.bean.CriteriaBuilder.FetchMapper;
 import x7.core.util.BeanUtil;
+import x7.core.web.CountStrategy;
 import x7.core.web.Direction;
 import x7.core.web.Paged;
 
@@ -42,6 +43,9 @@ public class Criteria implements Paged, Serializable {
 	private int rows;
 	private String orderBy;
 	private Direction direction = Direction.DESC;
+	private boolean isKeyset;
+	private String continuation;
+	private CountStrategy countStrategy = CountStrategy.EXACT;
 
 	private List<Object> valueList = new ArrayList<Object>();
 	
@@ -120,6 +124,33 @@ public class Criteria implements Paged, Serializable {
 		return page;
 	}
 
+	/**
+	 * 游标分页, 忽略page, 见Keyset
+	 */
+	public boolean isKeyset() {
+		return isKeyset;
+	}
+
+	public void setKeyset(boolean isKeyset) {
+		this.isKeyset = isKeyset;
+	}
+
+	public String getContinuation() {
+		return continuation;
+	}
+
+	public void setContinuation(String continuation) {
+		this.continuation = continuation;
+	}
+
+	public CountStrategy getCountStrategy() {
+		return countStrategy;
+	}
+
+	public void setCountStrategy(CountStrategy countStrategy) {
+		this.countStrategy = countStrategy;
+	}
+
 	public void setPage(int page) {
 		this.page = page;
 	}
@@ -152,7 +183,8 @@ public class Criteria implements Paged, Serializable {
 	public String toString() {
 		return "Criteria [clz=" + clz + ", isScroll=" + isScroll 
 				+ ", page=" + page + ", rows=" + rows + ", orderBy="
-				+ orderBy + ", direction=" + direction + ", valueList="
+				+ orderBy + ", direction=" + direction + ", isKeyset=" + isKeyset
+				+ ", continuation=" + continuation + ", countStrategy=" + countStrategy + ", valueList="
 				+ valueList + ", listX=" + listX + ", fetchMapper=" + fetchMapper + "]";
 	}
 
@@ -312,4 +344,4 @@ public class Criteria implements Paged, Serializable {
 		}
 	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
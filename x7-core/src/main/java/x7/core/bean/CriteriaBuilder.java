@@ -20,9 +20,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Objects;
-import java.util.Set;
 
 import x7.core.bean.Criteria.Fetch;
 import x7.core.bean.Criteria.X;
@@ -30,8 +28,11 @@ import x7.core.repository.Mapped;
 import x7.core.util.BeanMapUtil;
 import x7.core.util.BeanUtil;
 import x7.core.util.BeanUtilX;
+import x7.core.util.InUtil;
 import x7.core.util.NumberUtil;
+import x7.core.util.SqlTokenizer;
 import x7.core.util.StringUtil;
+import x7.core.web.CountStrategy;
 import x7.core.web.Fetched;
 import x7.core.web.Paged;
 
@@ -384,11 +385,63 @@ public class CriteriaBuilder {
 		criteria.paged(paged);
 	}
 
+	/**
+	 * totalRows的计算方式, 默认EXACT
+	 */
+	public CriteriaBuilder countStrategy(CountStrategy countStrategy) {
+		criteria.setCountStrategy(countStrategy);
+		return instance;
+	}
+
+	/**
+	 * 游标分页, 首页continuation传null, 之后传上一页Pagination.getContinuation()<br>
+	 * 按orderBy和主键排序, 不再OFFSET; 不支持GROUP BY
+	 */
+	public CriteriaBuilder keyset(String continuation) {
+		criteria.setKeyset(true);
+		criteria.setContinuation(continuation);
+		return instance;
+	}
+
 	public Class<?> getClz() {
 		return this.criteria.getClz();
 	}
 
+	/**
+	 * 绑定的值重新填进criteria.getValueList(); 同一个Criteria不能在多个线程里同时调用, DAO用parse(criteria, valueList)
+	 */
 	public static String[] parse(Criteria criteria) {
+		List<Object> valueList = criteria.getValueList();
+		valueList.clear();
+		return parse(criteria, valueList);
+	}
+
+	/**
+	 * 只有绑定的值不同的Criteria, SQL相同; 按CriteriaShape缓存SQL, 每次只重新取值<br>
+	 * 绑定的值按占位符的顺序加到调用方给的valueList, 不动criteria里的: 分片时同一个Criteria在多个线程里并发查询
+	 */
+	public static String[] parse(Criteria criteria, List<Object> valueList) {
+
+		String shape = CriteriaShape.of(criteria);
+		CriteriaShape.Compiled compiled = CriteriaShape.get(shape);
+		if (compiled == null) {
+			FetchMapper fetchMapper = criteria.getFetchMapper();
+			String[] sqlArr = compile(criteria);
+			/*
+			 * 连表时compile生成新的FetchMapper
+			 */
+			fetchMapper = criteria.getFetchMapper() == fetchMapper ? null : criteria.getFetchMapper();
+			compiled = CriteriaShape.put(shape, sqlArr, fetchMapper);
+		} else if (compiled.getFetchMapper() != null) {
+			criteria.setFetchMapper(compiled.getFetchMapper());
+		}
+
+		values(criteria, valueList);
+
+		return compiled.getSqlArr();
+	}
+
+	private static String[] compile(Criteria criteria) {
 
 		StringBuilder sb = new StringBuilder();
 
@@ -405,8 +458,20 @@ public class CriteriaBuilder {
 		/*
 		 * StringList
 		 */
+		int whereStart = sb.length();
 		X groupBy = x(sb, criteria);
 
+		/*
+		 * keyset, count不带seek条件
+		 */
+		String base = null;
+		if (criteria.isKeyset()) {
+			if (groupBy != null)
+				throw new RuntimeException("KEYSET UNSUPPORT GROUP BY, criteria: " + criteria);
+			base = sb.toString();
+			keyset(sb, criteria, sb.indexOf(" WHERE ", whereStart) > -1);
+		}
+
 		/*
 		 * sort
 		 */
@@ -416,12 +481,13 @@ public class CriteriaBuilder {
 		
 		String repair = "and (  )";
 		sql = sql.replace(repair, "");
+		base = base == null ? sql : base.replace(repair, "");
 
 		String column = criteria.resultAllScript();
 
 		String[] sqlArr = new String[3];
-		String str = sql.replace(Mapped.TAG, column);
-		sqlArr[1] = str;
+		sqlArr[1] = sql.replace(Mapped.TAG, column);
+		String str = base.replace(Mapped.TAG, column);
 		if (groupBy != null) {
 			str = str.replaceAll(" +", " ");
 			str = str.replace(") count", ") _count").replace(")count", ") _count");
@@ -429,62 +495,38 @@ public class CriteriaBuilder {
 			str = str.replace(" count ", " _count ");
 			sqlArr[0] = "select count(tc." + groupBy.getKey() + ") count from (" + str + ") tc";
 		} else {
-			sqlArr[0] = sql.replace(Mapped.TAG, "COUNT(*) count");
+			sqlArr[0] = base.replace(Mapped.TAG, "COUNT(*) count");
 		}
-		sqlArr[2] = sql;
+		sqlArr[2] = base;
 
 		if (hasSourceScript) {
-			// sqlArr[1]: core sql
-			Map<String, List<String>> map = new HashMap<>();
-			{
-				String[] arr = sqlArr[1].split(SPACE);
-				for (String ele : arr) {
-					if (ele.contains(".")) {
-						ele = ele.replace(",", "");
-						ele = ele.trim();
-						String[] tc = ele.split("\\.");
-						List<String> list = map.get(tc[0]);
-						if (list == null) {
-							list = new ArrayList<>();
-							map.put(tc[0], list);
-						}
-						list.add(tc[1]);
-					}
-				}
-			}
+			/*
+			 * sqlArr[1]里的 类名.属性, 找出连表的类
+			 */
 			FetchMapper fetchMapper = new FetchMapper();
 			criteria.setFetchMapper(fetchMapper);
 			Map<String, String> clzTableMapper = new HashMap<String, String>();
-			{
-				Set<Entry<String, List<String>>> set = map.entrySet();
-				for (Entry<String, List<String>> entry : set) {
-					String key = entry.getKey();
-					List<String> list = entry.getValue();
-					Parsed parsed = Parser.get(key);
-					if (Objects.isNull(parsed))
-						throw new RuntimeException("Entity Bean Not Exist: " + BeanUtil.getByFirstUpper(key));
-					String tableName = parsed.getTableName();
-					clzTableMapper.put(key, tableName);// clzName, tableName
-					for (String property : list) {
-						String mapper = parsed.getMapper(property);
-						if (StringUtil.isNullOrEmpty(mapper)) {
-							mapper = property;// dynamic
-						}
-						fetchMapper.put(key + "." + property, tableName + "." + mapper);
-					}
+			SqlTokenizer.identifiers(sqlArr[1], (token) -> {
+				int dot = token.indexOf('.');
+				if (dot < 0 || fetchMapper.getPropertyMapperMap().containsKey(token))
+					return;
+				String key = token.substring(0, dot);
+				String property = token.substring(dot + 1);
+				Parsed parsed = Parser.get(key);
+				if (Objects.isNull(parsed))
+					throw new RuntimeException("Entity Bean Not Exist: " + BeanUtil.getByFirstUpper(key));
+				String tableName = parsed.getTableName();
+				clzTableMapper.put(key, tableName);// clzName, tableName
+				String mapper = parsed.getMapper(property);
+				if (StringUtil.isNullOrEmpty(mapper)) {
+					mapper = property;// dynamic
 				}
-			}
+				fetchMapper.put(token, tableName + "." + mapper);
+			});
 
 			for (int i = 0; i < 3; i++) {
-				String temp = sqlArr[i];
-				for (String property : fetchMapper.getPropertyMapperMap().keySet()) {
-					temp = temp.replace(property, fetchMapper.mapper(property));
-				}
-				for (String clzName : clzTableMapper.keySet()) {
-					String tableName = clzTableMapper.get(clzName);
-					temp = BeanUtilX.mapperName(temp, clzName, tableName);
-				}
-				sqlArr[i] = temp;
+				sqlArr[i] = SqlTokenizer.rewrite(sqlArr[i], (token) -> token.indexOf('.') > -1
+						? fetchMapper.getPropertyMapperMap().get(token) : clzTableMapper.get(token));
 			}
 
 		} else {
@@ -494,17 +536,61 @@ public class CriteriaBuilder {
 			}
 		}
 
-		System.out.println(sqlArr[1]);
-
 		return sqlArr;
 	}
 
+	/**
+	 * 按占位符的顺序取值, 与x(sb, criteria)的顺序一致
+	 */
+	@SuppressWarnings("unchecked")
+	private static void values(Criteria criteria, List<Object> valueList) {
+		for (X x : criteria.getListX()) {
+
+			Predicate p = x.getPredicate();
+			if (Predicate.SUB_BEGIN == p || Predicate.SUB_END == p)
+				continue;
+
+			Object v = x.getValue();
+			if (Objects.isNull(v) || x.getConjunction() == Conjunction.GROUP_BY)
+				continue;
+
+			if (p == Predicate.IN || p == Predicate.NOT_IN) {
+				for (List<Object> chunk : InUtil.chunk(InUtil.distinct((List<Object>) v))) {
+					valueList.addAll(chunk);
+				}
+			} else if (p == Predicate.BETWEEN) {
+				MinMax minMax = (MinMax) v;
+				valueList.add(minMax.getMin());
+				valueList.add(minMax.getMax());
+			} else if (p != Predicate.IS_NOT_NULL) {
+				if (StringUtil.isNullOrEmpty(x.getKey()) || CriteriaShape.isLiteral(v))
+					continue;
+				Class<?> clz = v.getClass();
+				if (clz.getSuperclass().isEnum() || clz.isEnum()) {
+					valueList.add(v.toString());
+				} else {
+					valueList.add(v);
+				}
+			}
+		}
+	}
+
 	private static void select(StringBuilder sb, Criteria criteria) {
 		sb.append("SELECT").append(SPACE).append(Mapped.TAG);
 	}
 
 	private static void sort(StringBuilder sb, Criteria criteria) {
 
+		if (criteria.isKeyset()) {
+			String key = Keyset.keyProperty(criteria);
+			sb.append(Conjunction.ORDER_BY.sql());
+			if (!Keyset.isKeyOnly(criteria)) {
+				sb.append(criteria.getOrderBy()).append(SPACE).append(criteria.getDirection()).append(", ");
+			}
+			sb.append(key).append(SPACE).append(criteria.getDirection());
+			return;
+		}
+
 		if (StringUtil.isNotNull(criteria.getOrderBy())) {
 			sb.append(Conjunction.ORDER_BY.sql()).append(criteria.getOrderBy()).append(SPACE)
 					.append(criteria.getDirection());
@@ -512,6 +598,15 @@ public class CriteriaBuilder {
 
 	}
 
+	private static void keyset(StringBuilder sb, Criteria criteria, boolean hasWhere) {
+
+		String seek = Keyset.seek(criteria);
+		if (seek == null)
+			return;
+
+		sb.append(hasWhere ? Conjunction.AND.sql() : " WHERE ").append(seek);
+	}
+
 	private static X x(StringBuilder sb, Criteria criteria) {
 		X xx = null;
 		List<X> xList = criteria.getListX();
@@ -558,44 +653,23 @@ public class CriteriaBuilder {
 		Object v = x.getValue();
 
 		if (p == Predicate.IN || p == Predicate.NOT_IN) {
-			sb.append(x.getKey()).append(p.sql());
-			List<Object> inList = (List<Object>) v;
-			in(sb, inList);
+			in(sb, x, criteria);
 		} else if (p == Predicate.BETWEEN) {
 			sb.append(x.getKey()).append(p.sql());
 			between(sb);
 
-			MinMax minMax = (MinMax) v;
-			List<Object> valueList = criteria.getValueList();
-			valueList.add(minMax.getMin());
-			valueList.add(minMax.getMax());
-
 		} else if (p == Predicate.IS_NOT_NULL) {
 			sb.append(v).append(p.sql());
 
 		} else {
 			if (StringUtil.isNullOrEmpty(x.getKey()))
 					return;
-			Class clz = v.getClass();
 			sb.append(x.getKey()).append(x.getPredicate().sql());
-			if (clz == String.class){
-				String str = v.toString();
-				if (str.startsWith("#")&&str.endsWith("#")){
-					str = str.replace("#", "");
-					sb.append(str);
-					return;
-				}else{
-					sb.append(PLACE_HOLDER);
-				}
+			if (CriteriaShape.isLiteral(v)){
+				sb.append(v.toString().replace("#", ""));
 			}else{
 				sb.append(PLACE_HOLDER);
 			}
-
-			if (clz.getSuperclass().isEnum() || clz.isEnum()) {
-				criteria.getValueList().add(v.toString());
-			} else {
-				criteria.getValueList().add(v);
-			}
 		}
 	}
 
@@ -605,44 +679,35 @@ public class CriteriaBuilder {
 
 	}
 
-	private static void in(StringBuilder sb, List<Object> inList) {
-
-		if (inList == null || inList.isEmpty())
-			return;
-
-		Object v = inList.get(0);
-
-		Class<?> vType = v.getClass();
+	/**
+	 * 参数化, 补齐到固定档位; 超过InUtil.MAX时拆成 (k IN (...) OR k IN (...))
+	 */
+	private static void in(StringBuilder sb, X x, Criteria criteria) {
 
-		boolean isNumber = (vType == long.class || vType == int.class || vType == Long.class || vType == Integer.class);
+		Predicate p = x.getPredicate();
+		List<Object> inList = InUtil.distinct((List<Object>) x.getValue());
 
-		sb.append("( ");
+		if (inList.isEmpty()) {
+			sb.append(p == Predicate.IN ? " 1 = 0 " : " 1 = 1 ");
+			return;
+		}
 
-		int length = inList.size();
-		if (isNumber) {
-			for (int j = 0; j < length; j++) {
-				Object id = inList.get(j);
-				if (id == null)
-					continue;
-				sb.append(id);
-				if (j < length - 1) {
-					sb.append(",");
-				}
-			}
-		} else {
-			for (int j = 0; j < length; j++) {
-				Object id = inList.get(j);
-				if (id == null || StringUtil.isNullOrEmpty(id.toString()))
-					continue;
-				sb.append("'").append(id).append("'");
-				if (j < length - 1) {
-					sb.append(",");
-				}
+		List<List<Object>> chunkList = InUtil.chunk(inList);
+		boolean isMulti = chunkList.size() > 1;
+		if (isMulti) {
+			sb.append("( ");
+		}
+		for (int i = 0; i < chunkList.size(); i++) {
+			List<Object> chunk = chunkList.get(i);
+			if (i > 0) {
+				sb.append(p == Predicate.IN ? " OR " : Conjunction.AND.sql());
 			}
+			sb.append(x.getKey()).append(p.sql());
+			InUtil.placeholders(sb, chunk.size());
+		}
+		if (isMulti) {
+			sb.append(" )");
 		}
-
-		sb.append(" )");
-
 	}
 
 	protected static void fetchSql(StringBuilder sb, Criteria criteria) {
@@ -874,4 +939,4 @@ public class CriteriaBuilder {
 		}
 	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
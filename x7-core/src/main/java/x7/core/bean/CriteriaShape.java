@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.core.bean;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import x7.core.bean.Criteria.X;
+import x7.core.bean.CriteriaBuilder.FetchMapper;
+import x7.core.config.Configs;
+import x7.core.util.InUtil;
+
+/**
+ * Criteria的结构: 类, 条件(属性, 谓词, 连接词), 子组, IN的档位, 排序, 分页方式, 不含绑定的值<br>
+ * 结构相同的Criteria, CriteriaBuilder.parse生成的count/page/sum三条SQL相同, 缓存起来<br>
+ * 缓存最多x7.criteria.sql.cache.size(默认2048)条, 满了随机淘汰
+ *
+ * @author Sim
+ */
+public class CriteriaShape {
+
+	private final static int MAX_SIZE = Configs.getIntValue("x7.criteria.sql.cache.size", 2048);
+
+	private final static Map<String, Compiled> cache = new ConcurrentHashMap<String, Compiled>();
+
+	public static class Compiled {
+
+		private final String[] sqlArr;
+		private final FetchMapper fetchMapper;
+
+		private Compiled(String[] sqlArr, FetchMapper fetchMapper) {
+			this.sqlArr = sqlArr;
+			this.fetchMapper = fetchMapper;
+		}
+
+		public String[] getSqlArr() {
+			return sqlArr.clone();
+		}
+
+		/**
+		 * 连表时的属性到列的映射, 不连表为null
+		 */
+		public FetchMapper getFetchMapper() {
+			return fetchMapper;
+		}
+	}
+
+	protected static Compiled get(String shape) {
+		return cache.get(shape);
+	}
+
+	protected static Compiled put(String shape, String[] sqlArr, FetchMapper fetchMapper) {
+		if (cache.size() >= MAX_SIZE) {
+			Iterator<String> it = cache.keySet().iterator();
+			if (it.hasNext()) {
+				it.next();
+				it.remove();
+			}
+		}
+		Compiled compiled = new Compiled(sqlArr.clone(), fetchMapper);
+		cache.put(shape, compiled);
+		return compiled;
+	}
+
+	public static int size() {
+		return cache.size();
+	}
+
+	public static void clear() {
+		cache.clear();
+	}
+
+	/**
+	 * "#...#"的字符串原样拼进SQL, 是结构的一部分
+	 */
+	protected static boolean isLiteral(Object v) {
+		if (!(v instanceof String))
+			return false;
+		String str = (String) v;
+		return str.startsWith("#") && str.endsWith("#");
+	}
+
+	@SuppressWarnings("unchecked")
+	public static String of(Criteria criteria) {
+		StringBuilder sb = new StringBuilder(128);
+		sb.append(criteria.getClass().getName()).append('|').append(criteria.getClz().getName());
+
+		if (criteria instanceof Criteria.Fetch) {
+			Criteria.Fetch fetch = (Criteria.Fetch) criteria;
+			StringBuilder source = new StringBuilder();
+			fetch.sourceScript(source);
+			sb.append('|').append(source).append('|').append(fetch.resultAllScript());
+		}
+
+		sb.append('|').append(criteria.getOrderBy()).append('|').append(criteria.getDirection());
+		if (criteria.isKeyset()) {
+			sb.append("|keyset").append(criteria.getContinuation() == null ? "0" : "1");
+		}
+
+		for (X x : criteria.getListX()) {
+			Predicate p = x.getPredicate();
+			sb.append('|');
+			if (Predicate.SUB_BEGIN == p || Predicate.SUB_END == p) {
+				sb.append(p);
+				continue;
+			}
+
+			Object v = x.getValue();
+			if (Objects.isNull(v)) {
+				sb.append('-');
+				continue;
+			}
+
+			sb.append(x.getConjunction()).append(' ').append(x.getKey()).append(' ').append(p);
+
+			if (p == Predicate.IN || p == Predicate.NOT_IN) {
+				int size = InUtil.distinct((List<Object>) v).size();
+				if (size > 0) {
+					int last = size % InUtil.MAX == 0 ? InUtil.MAX : size % InUtil.MAX;
+					sb.append(' ').append((size - 1) / InUtil.MAX).append(':').append(InUtil.bucket(last));
+				} else {
+					sb.append(" 0");
+				}
+			} else if (p == Predicate.IS_NOT_NULL || isLiteral(v)) {
+				sb.append(' ').append(v);
+			}
+		}
+		return sb.toString();
+	}
+}
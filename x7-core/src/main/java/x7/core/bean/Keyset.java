@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.core.bean;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import x7.core.config.Configs;
+import x7.core.repository.X;
+import x7.core.util.BeanUtil;
+import x7.core.util.StringUtil;
+import x7.core.web.Direction;
+
+/**
+ * 游标分页(keyset/seek)<br>
+ * 以上一页最后一行的orderBy值和主键为起点: WHERE (orderBy, id) > (?, ?) ORDER BY orderBy, id<br>
+ * 不再OFFSET, 第10000页和第1页代价相同; orderBy对应的列必须NOT NULL<br>
+ * continuation对调用方不透明, 由Pagination返回, 再原样交给CriteriaBuilder.keyset(continuation)
+ *
+ * @author Sim
+ */
+public class Keyset {
+
+	private final static String SEPARATOR = "\u0000";
+
+	/**
+	 * 主键的属性名, 连表(orderBy带表名前缀)时也带前缀
+	 */
+	public static String keyProperty(Criteria criteria) {
+		Parsed parsed = Parser.get(criteria.getClz());
+		String key = parsed.getKey(X.KEY_ONE);
+		String orderBy = criteria.getOrderBy();
+		if (StringUtil.isNotNull(orderBy) && orderBy.contains(".")) {
+			return BeanUtil.getByFirstLower(criteria.getClz().getSimpleName()) + "." + key;
+		}
+		return key;
+	}
+
+	/**
+	 * 只按主键seek
+	 */
+	public static boolean isKeyOnly(Criteria criteria) {
+		String orderBy = criteria.getOrderBy();
+		return StringUtil.isNullOrEmpty(orderBy) || orderBy.trim().equals(keyProperty(criteria));
+	}
+
+	/**
+	 * seek条件, 首页(没有continuation)返回null<br>
+	 * MySQL用行构造器; Oracle不支持行比较, 展开为 (col > ? OR (col = ? AND id > ?))
+	 */
+	public static String seek(Criteria criteria) {
+		if (StringUtil.isNullOrEmpty(criteria.getContinuation()))
+			return null;
+
+		String op = criteria.getDirection() == Direction.ASC ? " > " : " < ";
+		String key = keyProperty(criteria);
+
+		if (isKeyOnly(criteria))
+			return " " + key + op + "? ";
+
+		String orderBy = criteria.getOrderBy().trim();
+		if (isOracle()) {
+			return "( " + orderBy + op + "? OR ( " + orderBy + " = ? AND " + key + op + "? ) ) ";
+		}
+		return "( " + orderBy + " , " + key + " )" + op + "( ? , ? ) ";
+	}
+
+	/**
+	 * seek条件的参数, 跟在Criteria.getValueList()之后绑定, count不绑定
+	 */
+	public static List<Object> valueList(Criteria criteria) {
+		List<Object> list = new ArrayList<Object>();
+		String continuation = criteria.getContinuation();
+		if (StringUtil.isNullOrEmpty(continuation))
+			return list;
+
+		String[] arr = decode(continuation);
+		Object lastKey = convert(element(criteria, keyProperty(criteria)), arr[1]);
+		if (isKeyOnly(criteria)) {
+			list.add(lastKey);
+			return list;
+		}
+
+		Object lastValue = convert(element(criteria, criteria.getOrderBy().trim()), arr[0]);
+		list.add(lastValue);
+		if (isOracle()) {
+			list.add(lastValue);
+		}
+		list.add(lastKey);
+		return list;
+	}
+
+	/**
+	 * 以本页最后一行生成continuation; row可以是实体或者Fetch的Map
+	 */
+	public static String continuation(Criteria criteria, Object row) {
+		String key = keyProperty(criteria);
+		Object lastKey = value(criteria, key, row);
+		Object lastValue = isKeyOnly(criteria) ? lastKey : value(criteria, criteria.getOrderBy().trim(), row);
+		if (lastKey == null)
+			return null;
+		return encode(lastValue, lastKey);
+	}
+
+	/**
+	 * 分片合并时的排序, orderBy相同时按主键
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public static <T> Comparator<T> comparator(Criteria criteria) {
+		final String key = keyProperty(criteria);
+		final String orderBy = isKeyOnly(criteria) ? key : criteria.getOrderBy().trim();
+		final int sc = criteria.getDirection() == Direction.ASC ? 1 : -1;
+		return (a, b) -> {
+			Comparable va = (Comparable) value(criteria, orderBy, a);
+			Comparable vb = (Comparable) value(criteria, orderBy, b);
+			int c = compare(va, vb);
+			if (c == 0) {
+				c = compare((Comparable) value(criteria, key, a), (Comparable) value(criteria, key, b));
+			}
+			return c * sc;
+		};
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static int compare(Comparable a, Comparable b) {
+		if (a == null)
+			return b == null ? 0 : -1;
+		if (b == null)
+			return 1;
+		return a.compareTo(b);
+	}
+
+	private static boolean isOracle() {
+		return "oracle".equalsIgnoreCase(Configs.getString("x7.repository.db", "mysql"));
+	}
+
+	private static String encode(Object lastValue, Object lastKey) {
+		String str = toString(lastValue) + SEPARATOR + toString(lastKey);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(str.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String[] decode(String continuation) {
+		try {
+			String str = new String(Base64.getUrlDecoder().decode(continuation), StandardCharsets.UTF_8);
+			String[] arr = str.split(SEPARATOR, -1);
+			if (arr.length == 2)
+				return arr;
+		} catch (IllegalArgumentException e) {
+		}
+		throw new RuntimeException("INVALID CONTINUATION: " + continuation);
+	}
+
+	private static String toString(Object v) {
+		if (v == null)
+			return "";
+		if (v instanceof Date)
+			return String.valueOf(((Date) v).getTime());
+		if (v instanceof Enum)
+			return ((Enum<?>) v).name();
+		if (v instanceof Boolean)
+			return ((Boolean) v) ? "1" : "0";
+		return v.toString();
+	}
+
+	private static BeanElement element(Criteria criteria, String property) {
+		Parsed parsed = criteria.getParsed();
+		if (parsed == null) {
+			parsed = Parser.get(criteria.getClz());
+		}
+		if (property.contains(".")) {
+			String[] arr = property.split("\\.");
+			Parsed p = Parser.get(arr[0]);
+			if (p != null) {
+				parsed = p;
+			}
+			property = arr[1];
+		}
+		BeanElement be = parsed.getElement(property);
+		if (be == null)
+			throw new RuntimeException("KEYSET UNSUPPORT PROPERTY: " + property);
+		return be;
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static Object value(Criteria criteria, String property, Object row) {
+		if (row instanceof Map) {
+			Map map = (Map) row;
+			Object v = map.get(property);
+			if (v == null && property.contains(".")) {
+				v = map.get(property.substring(property.indexOf(".") + 1));
+			}
+			return v;
+		}
+		try {
+			return element(criteria, property).getMethod.invoke(row);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException("KEYSET UNSUPPORT PROPERTY: " + property, e);
+		}
+	}
+
+	private static Object convert(BeanElement be, String str) {
+		if (str.isEmpty())
+			return null;
+		Class<?> clz = be.clz;
+		if (clz == long.class || clz == Long.class)
+			return Long.valueOf(str);
+		if (clz == int.class || clz == Integer.class)
+			return Integer.valueOf(str);
+		if (clz == double.class || clz == Double.class)
+			return Double.valueOf(str);
+		if (clz == float.class || clz == Float.class)
+			return Float.valueOf(str);
+		if (clz == short.class || clz == Short.class)
+			return Short.valueOf(str);
+		if (clz == byte.class || clz == Byte.class)
+			return Byte.valueOf(str);
+		if (clz == boolean.class || clz == Boolean.class)
+			return Integer.valueOf(str);
+		if (clz == BigDecimal.class)
+			return new BigDecimal(str);
+		if (Date.class.isAssignableFrom(clz))
+			return new Timestamp(Long.valueOf(str));
+		return str;
+	}
+}
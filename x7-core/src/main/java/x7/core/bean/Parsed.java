@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.Map;
 
 import x7.core.repository.X;
+import x7.core.util.BeanUtil;
 import x7.core.search.TagParsed;
 
 
@@ -46,12 +47,16 @@ public class Parsed {
 	private boolean isNotAutoIncreament;
 	
 	private boolean isNoCache;
+	private int nearCacheSecond;
+	private boolean isCompress;
 	
 	private List<String> keywordsList = new ArrayList<String>();
 	
 	private boolean isSearchable;
 	
 	private Map<String, TagParsed> tagMap = new HashMap();
+
+	private volatile Map<String, String> identifierMap;
 	
 	
 	public Class getClz() {
@@ -134,6 +139,7 @@ public class Parsed {
 
 	public void setTableName(String tableName) {
 		this.tableName = tableName;
+		this.identifierMap = null;
 	}
 	
 	public String getClzName() {
@@ -148,6 +154,25 @@ public class Parsed {
 		this.isNoCache = isNoCache;
 	}
 
+	/**
+	 * 一级缓存存活秒数, 没有@X.NearCache时为0, 不走一级缓存
+	 */
+	public int getNearCacheSecond() {
+		return nearCacheSecond;
+	}
+
+	public void setNearCacheSecond(int nearCacheSecond) {
+		this.nearCacheSecond = nearCacheSecond;
+	}
+
+	public boolean isCompress() {
+		return isCompress;
+	}
+
+	public void setCompress(boolean isCompress) {
+		this.isCompress = isCompress;
+	}
+
 	public List<String> getKeywordsList() {
 		return keywordsList;
 	}
@@ -197,6 +222,21 @@ public class Parsed {
 		return mapperPropertyMap;
 	}
 	
+	/**
+	 * SQL里的标识符: 属性到列名, 首字母小写的类名到表名; 给SqlTokenizer用, 解析完成后第一次调用时生成
+	 */
+	public Map<String, String> getIdentifierMap() {
+		Map<String, String> map = identifierMap;
+		if (map == null) {
+			map = new HashMap<String, String>(propertyMapperMap);
+			if (tableName != null) {
+				map.put(BeanUtil.getByFirstLower(getClzName()), tableName);
+			}
+			identifierMap = map;
+		}
+		return map;
+	}
+
 	public boolean isNoSpec() {
 		return isNoSpec;
 	}
@@ -85,6 +85,56 @@ public class Configs {
 		return value;
 	}
 
+	/**
+	 * 可选配置, 缺少key时返回默认值, 不打印错误
+	 */
+	public static int getIntValue(String key, int defaultValue) {
+		Object obj = get(key);
+		if (obj == null || obj instanceof Map)
+			return defaultValue;
+		try {
+			return Integer.valueOf(obj.toString().trim());
+		} catch (Exception e) {
+			System.err.println("请检查配置文件config/*.txt, 发现了:" + key + "=" + obj);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * 可选配置, 缺少key时返回默认值, 不打印错误
+	 */
+	public static long getLongValue(String key, long defaultValue) {
+		Object obj = get(key);
+		if (obj == null || obj instanceof Map)
+			return defaultValue;
+		try {
+			return Long.valueOf(obj.toString().trim());
+		} catch (Exception e) {
+			System.err.println("请检查配置文件config/*.txt, 发现了:" + key + "=" + obj);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * 可选配置, 缺少key时返回默认值, 不打印错误
+	 */
+	public static String getString(String key, String defaultValue) {
+		Object obj = get(key);
+		if (obj == null || obj instanceof Map)
+			return defaultValue;
+		return obj.toString().trim();
+	}
+
+	/**
+	 * 可选配置, 缺少key时返回默认值, 不打印错误
+	 */
+	public static boolean isTrue(String key, boolean defaultValue) {
+		Object obj = get(key);
+		if (obj == null || obj instanceof Map)
+			return defaultValue;
+		return Boolean.parseBoolean(obj.toString().trim());
+	}
+
 	public static Map<String, Object> getMap(String key) {
 
 		Object obj = get(key);
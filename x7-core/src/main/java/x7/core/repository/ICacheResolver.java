@@ -38,6 +38,14 @@ public interface ICacheResolver {
 	String markForRefresh(Class clz);
 	
 	void remove(Class clz, String key);
+	
+	/**
+	 * 批量删除并标记缓存要更新, 一次往返
+	 * @param clz
+	 * @param keyList
+	 */
+	@SuppressWarnings("rawtypes")
+	void remove(Class clz, List<String> keyList);
 
 	
 	/**
@@ -49,6 +57,23 @@ public interface ICacheResolver {
 	@SuppressWarnings("rawtypes")
 	void set(Class clz, String key, Object obj);
 	
+	/**
+	 * 批量缓存单个对象, 一次往返<br>
+	 * @param clz
+	 * @param objMap key -> obj
+	 */
+	@SuppressWarnings("rawtypes")
+	void set(Class clz, Map<String, Object> objMap);
+	
+	/**
+	 * 批量缓存单个对象, isMarkForRefresh时同时标记缓存要更新, 一次往返<br>
+	 * @param clz
+	 * @param objMap key -> obj
+	 * @param isMarkForRefresh
+	 */
+	@SuppressWarnings("rawtypes")
+	void set(Class clz, Map<String, Object> objMap, boolean isMarkForRefresh);
+	
 	/**
 	 * 获取高效的缓存单个对象<br>
 	 * @param clz
@@ -107,6 +132,24 @@ public interface ICacheResolver {
 	@SuppressWarnings("rawtypes")
 	<T> List<T> list(Class<T> clz, List<String> keyList);
 	
+	/**
+	 * 缓存分页的totalRows, 只按过期时间失效, markForRefresh不影响
+	 * @param clz
+	 * @param condition
+	 * @param count
+	 * @param second
+	 */
+	@SuppressWarnings("rawtypes")
+	void setCount(Class clz, String condition, long count, int second);
+	
+	/**
+	 * 没有缓存返回null
+	 * @param clz
+	 * @param condition
+	 */
+	@SuppressWarnings("rawtypes")
+	Long getCount(Class clz, String condition);
+	
 	void setMapList(Class clz, String key, List<Map<String,Object>> mapList);
 	
 	List<Map<String,Object>> getMapList(Class clz, String key);
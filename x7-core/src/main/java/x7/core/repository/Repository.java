@@ -18,6 +18,7 @@ package x7.core.repository;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import x7.core.bean.Criteria;
 import x7.core.web.Direction;
@@ -64,6 +65,25 @@ public interface Repository {
 	 * @param obj
 	 */
 	boolean remove(Object obj);
+	
+	/**
+	 * 批量更新, 一个事务
+	 * @param objList
+	 */
+	boolean refreshBatch(List<? extends Object> objList);
+	
+	/**
+	 * 批量删除, 一个事务
+	 * @param objList
+	 */
+	boolean removeBatch(List<? extends Object> objList);
+	
+	/**
+	 * 按主键值批量删除, 一个事务
+	 * @param clz
+	 * @param idList
+	 */
+	<T> boolean removeByIds(Class<T> clz, List<? extends Object> idList);
 
 	
 	/**
@@ -174,4 +194,24 @@ public interface Repository {
 	List<Map<String,Object>> list(Criteria.Fetch fetch);
 
 	boolean createBatch(List<? extends Object> objList);
-}
\ No newline at end of file
+	
+	/**
+	 * 主键存在则更新全部列, 否则插入
+	 * @param obj
+	 */
+	boolean upsert(Object obj);
+	
+	/**
+	 * 批量upsert, 与createBatch同样分块
+	 * @param objList
+	 */
+	boolean upsertBatch(List<? extends Object> objList);
+	
+	/**
+	 * 流式查询, 不分页, 不支持缓存<br>
+	 * 逐行回调consumer, 适合后台任务遍历大表
+	 * @param criteria
+	 * @param consumer
+	 */
+	<T> void stream(Criteria criteria, Consumer<T> consumer);
+}
\ No newline at end of file
@@ -78,6 +78,28 @@ public @interface X {
 	@interface NoCache{
 	}
 	
+	/**
+	 * 
+	 * 进程内一级缓存(L1), 在Redis之前, 只有加了这个注解的类才走<br>
+	 * second: 本地存活秒数, 0则取x7.cache.near.second(默认5)<br>
+	 * 返回的是同一个对象, 不要修改
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target({ElementType.TYPE})
+	@interface NearCache{
+		int second() default 0;
+	}
+	
+	/**
+	 * 
+	 * 缓存值超过x7.cache.compress.bytes时LZF压缩<br>
+	 * 适合带大isJson属性的实体, 以及结果列表, 分页
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target({ElementType.TYPE})
+	@interface Compress{
+	}
+	
 	/**
 	 * 
 	 * only effect on property<br>
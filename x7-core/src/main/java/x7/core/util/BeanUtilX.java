@@ -33,6 +33,7 @@ import java.util.Set;
 
 import x7.core.bean.BeanElement;
 import x7.core.bean.Parsed;
+import x7.core.config.Configs;
 import x7.core.repository.X;
 import x7.core.repository.SqlFieldType;
 import x7.core.search.Search;
@@ -230,6 +231,17 @@ public class BeanUtilX extends BeanUtil {
 		if (p != null) {
 			parsed.setNoCache(true);
 		}
+		X.NearCache n = (X.NearCache) clz.getAnnotation(X.NearCache.class);
+		if (n != null) {
+			int second = n.second();
+			if (second <= 0) {
+				second = Configs.getIntValue("x7.cache.near.second", 5);
+			}
+			parsed.setNearCacheSecond(second);
+		}
+		if (clz.getAnnotation(X.Compress.class) != null) {
+			parsed.setCompress(true);
+		}
 	}
 
 	@SuppressWarnings({ "rawtypes", "unchecked" })
@@ -660,14 +672,7 @@ public class BeanUtilX extends BeanUtil {
 		if (parsed.isNoSpec())
 			return sql;
 		
-		sql = mapperName(sql, parsed);
-		
-		for (String property : parsed.getPropertyMapperMap().keySet()){
-			String key = " "+property+" ";
-			String value = " "+parsed.getMapper(property)+" ";
-			sql = sql.replaceAll(key, value);
-		}
-		return sql;
+		return SqlTokenizer.mapper(sql, parsed);
 	}
 	
 	public static String mapperName(String sql, Parsed parsed) {
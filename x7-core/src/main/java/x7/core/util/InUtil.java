@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.core.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * IN (?, ?, ...) 参数化<br>
+ * 参数个数补齐到固定的几档(8/32/128/512), 用最后一个值填充, 同一形状的SQL可以复用预编译语句<br>
+ * 超过512个值时分块
+ *
+ * @author Sim
+ */
+public class InUtil {
+
+	private final static int[] BUCKETS = { 8, 32, 128, 512 };
+
+	public final static int MAX = BUCKETS[BUCKETS.length - 1];
+
+	/**
+	 * 去掉null, 空字符串和重复值; 枚举转为name
+	 */
+	public static List<Object> distinct(List<? extends Object> inList) {
+		Set<Object> set = new LinkedHashSet<Object>();
+		if (inList == null)
+			return new ArrayList<Object>();
+		for (Object obj : inList) {
+			if (Objects.isNull(obj))
+				continue;
+			if (obj instanceof Enum) {
+				obj = ((Enum<?>) obj).name();
+			} else if (obj instanceof String && StringUtil.isNullOrEmpty(obj.toString())) {
+				continue;
+			}
+			set.add(obj);
+		}
+		return new ArrayList<Object>(set);
+	}
+
+	public static int bucket(int size) {
+		for (int bucket : BUCKETS) {
+			if (size <= bucket)
+				return bucket;
+		}
+		return MAX;
+	}
+
+	/**
+	 * 每块不超过MAX, 每块已补齐
+	 */
+	public static List<List<Object>> chunk(List<Object> list) {
+		List<List<Object>> chunkList = new ArrayList<List<Object>>();
+		int size = list.size();
+		for (int i = 0; i < size; i += MAX) {
+			chunkList.add(pad(list.subList(i, Math.min(size, i + MAX))));
+		}
+		return chunkList;
+	}
+
+	public static List<Object> pad(List<Object> list) {
+		List<Object> padded = new ArrayList<Object>(list);
+		if (list.isEmpty())
+			return padded;
+		int bucket = bucket(list.size());
+		Object last = list.get(list.size() - 1);
+		while (padded.size() < bucket) {
+			padded.add(last);
+		}
+		return padded;
+	}
+
+	/**
+	 * ( ?,?,? )
+	 */
+	public static void placeholders(StringBuilder sb, int size) {
+		sb.append("( ");
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				sb.append(",");
+			}
+			sb.append("?");
+		}
+		sb.append(" )");
+	}
+}
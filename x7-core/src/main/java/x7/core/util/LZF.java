@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.core.util;
+
+/**
+ * LZF压缩, 格式兼容liblzf<br>
+ * 控制字节 &lt; 32: 后面跟(控制字节+1)个字面量; 否则是回溯引用, 高3位为长度(7时再读一个字节), 低5位加下一个字节为偏移<br>
+ * 不带长度头, 解压时由调用方给出原长度
+ * 
+ * @author Sim
+ */
+public class LZF {
+
+	private final static int HASH_SIZE = 1 << 14;
+	private final static int MAX_LITERAL = 1 << 5;
+	private final static int MAX_OFF = 1 << 13;
+	private final static int MAX_REF = (1 << 8) + (1 << 3);
+
+	private final static ThreadLocal<int[]> HASH_TAB = ThreadLocal.withInitial(() -> new int[HASH_SIZE]);
+
+	/**
+	 * 压缩后最大长度
+	 */
+	public static int maxCompressedLength(int len) {
+		return len + (len >>> 5) + 16;
+	}
+
+	/**
+	 * hashTab不清零: 旧位置只在字节真正相同时才引用
+	 * 
+	 * @return 写到out的长度
+	 */
+	public static int compress(byte[] in, int inLen, byte[] out, int outPos) {
+		if (inLen == 0)
+			return 0;
+		if (inLen < 4) {
+			out[outPos] = (byte) (inLen - 1);
+			System.arraycopy(in, 0, out, outPos + 1, inLen);
+			return inLen + 1;
+		}
+		int[] hashTab = HASH_TAB.get();
+		int start = outPos;
+		int inPos = 0;
+		int literals = 0;
+		outPos++;
+		int future = first(in, 0);
+		while (inPos < inLen - 4) {
+			byte p2 = in[inPos + 2];
+			future = (future << 8) + (p2 & 255);
+			int off = hash(future);
+			int ref = hashTab[off];
+			hashTab[off] = inPos;
+			if (ref < inPos && ref > 0 && (off = inPos - ref - 1) < MAX_OFF && in[ref + 2] == p2
+					&& in[ref + 1] == (byte) (future >> 8) && in[ref] == (byte) (future >> 16)) {
+				int maxLen = inLen - inPos - 2;
+				if (maxLen > MAX_REF) {
+					maxLen = MAX_REF;
+				}
+				if (literals == 0) {
+					outPos--;
+				} else {
+					out[outPos - literals - 1] = (byte) (literals - 1);
+					literals = 0;
+				}
+				int len = 3;
+				while (len < maxLen && in[ref + len] == in[inPos + len]) {
+					len++;
+				}
+				len -= 2;
+				if (len < 7) {
+					out[outPos++] = (byte) ((off >> 8) + (len << 5));
+				} else {
+					out[outPos++] = (byte) ((off >> 8) + (7 << 5));
+					out[outPos++] = (byte) (len - 7);
+				}
+				out[outPos++] = (byte) off;
+				outPos++;
+				inPos += len;
+				future = first(in, inPos);
+				future = next(future, in, inPos);
+				hashTab[hash(future)] = inPos++;
+				future = next(future, in, inPos);
+				hashTab[hash(future)] = inPos++;
+			} else {
+				out[outPos++] = in[inPos++];
+				literals++;
+				if (literals == MAX_LITERAL) {
+					out[outPos - literals - 1] = (byte) (literals - 1);
+					literals = 0;
+					outPos++;
+				}
+			}
+		}
+		while (inPos < inLen) {
+			out[outPos++] = in[inPos++];
+			literals++;
+			if (literals == MAX_LITERAL) {
+				out[outPos - literals - 1] = (byte) (literals - 1);
+				literals = 0;
+				outPos++;
+			}
+		}
+		out[outPos - literals - 1] = (byte) (literals - 1);
+		if (literals == 0) {
+			outPos--;
+		}
+		return outPos - start;
+	}
+
+	/**
+	 * 数据不对时抛ArrayIndexOutOfBoundsException或IllegalArgumentException
+	 */
+	public static void decompress(byte[] in, int inPos, int inLen, byte[] out, int outLen) {
+		int inEnd = inPos + inLen;
+		int outPos = 0;
+		while (outPos < outLen) {
+			int ctrl = in[inPos++] & 255;
+			if (ctrl < MAX_LITERAL) {
+				ctrl++;
+				System.arraycopy(in, inPos, out, outPos, ctrl);
+				outPos += ctrl;
+				inPos += ctrl;
+			} else {
+				int len = ctrl >> 5;
+				if (len == 7) {
+					len += in[inPos++] & 255;
+				}
+				len += 2;
+				int ref = outPos - ((ctrl & 0x1f) << 8) - 1 - (in[inPos++] & 255);
+				if (ref < 0)
+					throw new IllegalArgumentException("LZF: bad reference");
+				for (int i = 0; i < len; i++) {
+					out[outPos++] = out[ref++];
+				}
+			}
+		}
+		if (inPos != inEnd || outPos != outLen)
+			throw new IllegalArgumentException("LZF: bad length");
+	}
+
+	private static int first(byte[] in, int inPos) {
+		return (in[inPos] << 8) | (in[inPos + 1] & 255);
+	}
+
+	private static int next(int v, byte[] in, int inPos) {
+		return (v << 8) | (in[inPos + 2] & 255);
+	}
+
+	private static int hash(int h) {
+		return ((h * 2777) >> 9) & (HASH_SIZE - 1);
+	}
+}
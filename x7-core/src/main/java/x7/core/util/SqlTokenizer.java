@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.core.util;
+
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import x7.core.bean.Parsed;
+
+/**
+ * 单遍扫描SQL, 按标识符改写, 代替逐个属性的replaceAll<br>
+ * 标识符: 字母, 数字, _, $, 带点的(order.id)作为一个; 字符串常量, 反引号和双引号里的原样保留
+ *
+ * @author Sim
+ */
+public class SqlTokenizer {
+
+	/**
+	 * 属性改为列名, 类名改为表名; 带点的标识符不改
+	 */
+	public static String mapper(String sql, Parsed parsed) {
+		final Map<String, String> map = parsed.getIdentifierMap();
+		return rewrite(sql, (token) -> token.indexOf('.') > -1 ? null : map.get(token));
+	}
+
+	/**
+	 * function返回null时保留原样
+	 */
+	public static String rewrite(String sql, Function<String, String> function) {
+		int length = sql.length();
+		StringBuilder sb = null;
+		int copied = 0;
+		int i = 0;
+		while (i < length) {
+			char c = sql.charAt(i);
+			if (c == '\'' || c == '`' || c == '"') {
+				i = skipQuoted(sql, i, c);
+				continue;
+			}
+			if (!isIdentifierPart(c)) {
+				i++;
+				continue;
+			}
+			int start = i;
+			while (i < length && (isIdentifierPart(sql.charAt(i)) || sql.charAt(i) == '.')) {
+				i++;
+			}
+			if (Character.isDigit(c))
+				continue;
+			String token = sql.substring(start, i);
+			String replacement = function.apply(token);
+			if (replacement == null || replacement.equals(token))
+				continue;
+			if (sb == null) {
+				sb = new StringBuilder(length + 16);
+			}
+			sb.append(sql, copied, start).append(replacement);
+			copied = i;
+		}
+		if (sb == null)
+			return sql;
+		sb.append(sql, copied, length);
+		return sb.toString();
+	}
+
+	/**
+	 * 依次访问每个标识符
+	 */
+	public static void identifiers(String sql, Consumer<String> consumer) {
+		rewrite(sql, (token) -> {
+			consumer.accept(token);
+			return null;
+		});
+	}
+
+	private static int skipQuoted(String sql, int i, char quote) {
+		int length = sql.length();
+		i++;
+		while (i < length) {
+			char c = sql.charAt(i++);
+			if (c == quote) {
+				if (i < length && sql.charAt(i) == quote) {
+					i++;
+					continue;
+				}
+				break;
+			}
+		}
+		return i;
+	}
+
+	private static boolean isIdentifierPart(char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.core.web;
+
+/**
+ * 分页查询totalRows的计算方式, isScroll()时不计算<br>
+ * 条件不满足时退回EXACT, Pagination.getCountStrategy()返回实际使用的方式
+ *
+ * @author Sim
+ */
+public enum CountStrategy {
+
+	/**
+	 * 先COUNT(*), 再查当前页
+	 */
+	EXACT,
+	/**
+	 * COUNT(*)和当前页并发执行
+	 */
+	EXACT_PARALLEL,
+	/**
+	 * COUNT(*) OVER() 和当前页一次查询; 需要数据库支持窗口函数, 不支持keyset
+	 */
+	SINGLE_ROUND_TRIP,
+	/**
+	 * 按查询条件缓存COUNT(*), 过期时间x7.db.count.cache.second, 写入不会刷新
+	 */
+	CACHED,
+	/**
+	 * EXPLAIN(MySQL)或表统计(Oracle)估算, 低于x7.db.count.estimate.threshold时精确计算
+	 */
+	ESTIMATED
+}
@@ -42,6 +42,8 @@ public class Pagination<T> implements Paged, Serializable{
 	private boolean isScroll;
 	private String orderBy;
 	private Direction direction = Direction.DESC;
+	private String continuation;
+	private CountStrategy countStrategy;
 	
 	private Tag tag;
 	
@@ -135,6 +137,28 @@ public class Pagination<T> implements Paged, Serializable{
 		this.isScroll = isScroll;
 	}
 
+	/**
+	 * 游标分页时, 下一页的起点; 最后一页为null
+	 */
+	public String getContinuation() {
+		return continuation;
+	}
+
+	public void setContinuation(String continuation) {
+		this.continuation = continuation;
+	}
+
+	/**
+	 * totalRows的计算方式, isScroll()时为null
+	 */
+	public CountStrategy getCountStrategy() {
+		return countStrategy;
+	}
+
+	public void setCountStrategy(CountStrategy countStrategy) {
+		this.countStrategy = countStrategy;
+	}
+
 	public Tag getTag() {
 		return tag;
 	}
@@ -171,7 +195,7 @@ public class Pagination<T> implements Paged, Serializable{
 	@Override
 	public String toString() {
 		return "Pagination [rows=" + rows + ", page=" + page + ", totalRows=" + totalRows + ", list=" + list
-				+ ", keyList=" + keyList + ", isScroll=" + isScroll + ", orderBy=" + orderBy + ", sc=" + direction + ", tag="
+				+ ", keyList=" + keyList + ", isScroll=" + isScroll + ", orderBy=" + orderBy + ", sc=" + direction + ", continuation=" + continuation + ", countStrategy=" + countStrategy + ", tag="
 				+ tag + "]";
 	}
 
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.core.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * LZF往返, 以及按liblzf格式手工构造的数据
+ */
+public class LZFTest {
+
+	private static byte[] compress(byte[] in) {
+		byte[] out = new byte[LZF.maxCompressedLength(in.length)];
+		int len = LZF.compress(in, in.length, out, 0);
+		return Arrays.copyOf(out, len);
+	}
+
+	private static byte[] decompress(byte[] in, int outLen) {
+		byte[] out = new byte[outLen];
+		LZF.decompress(in, 0, in.length, out, outLen);
+		return out;
+	}
+
+	private static byte[] roundTrip(byte[] in) {
+		byte[] compressed = compress(in);
+		assertTrue(compressed.length <= LZF.maxCompressedLength(in.length));
+		assertArrayEquals(in, decompress(compressed, in.length));
+		return compressed;
+	}
+
+	@Test
+	public void empty() {
+		assertEquals(0, roundTrip(new byte[0]).length);
+	}
+
+	@Test
+	public void shorterThanFour() {
+		for (int n = 1; n < 4; n++) {
+			byte[] in = new byte[n];
+			Arrays.fill(in, (byte) 'x');
+			byte[] compressed = roundTrip(in);
+			assertEquals(n + 1, compressed.length);
+			assertEquals(n - 1, compressed[0]);
+		}
+	}
+
+	@Test
+	public void incompressible() {
+		byte[] in = new byte[64 * 1024];
+		new Random(7).nextBytes(in);
+		roundTrip(in);
+	}
+
+	@Test
+	public void highlyRepetitive() {
+		byte[] in = new byte[100000];
+		Arrays.fill(in, (byte) 'a');
+		byte[] compressed = roundTrip(in);
+		assertTrue(compressed.length < in.length / 50);
+
+		byte[] json = "{\"id\":1,\"name\":\"tom\",\"age\":3},{\"id\":2,\"name\":\"tom\",\"age\":3},{\"id\":3,\"name\":\"tom\",\"age\":3}"
+				.getBytes(StandardCharsets.UTF_8);
+		assertTrue(roundTrip(json).length < json.length);
+	}
+
+	/**
+	 * 超过32个字面量分成多段, 每段的控制字节最大31
+	 */
+	@Test
+	public void literalRunOver32() {
+		byte[] in = new byte[40];
+		for (int i = 0; i < in.length; i++) {
+			in[i] = (byte) i;
+		}
+		byte[] compressed = roundTrip(in);
+		assertEquals(42, compressed.length);
+		assertEquals(31, compressed[0]);
+		assertEquals(7, compressed[33]);
+
+		for (int n = 29; n <= 100; n++) {
+			byte[] run = new byte[n];
+			for (int i = 0; i < n; i++) {
+				run[i] = (byte) (i * 7);
+			}
+			roundTrip(run);
+		}
+	}
+
+	/**
+	 * hashTab不清零, 上一次压缩留下的位置不能引用错
+	 */
+	@Test
+	public void staleHashTable() {
+		Random random = new Random(11);
+		for (int i = 0; i < 200; i++) {
+			byte[] in = new byte[random.nextInt(4096) + 4];
+			for (int j = 0; j < in.length; j++) {
+				in[j] = (byte) ('a' + random.nextInt(i % 3 == 0 ? 2 : 26));
+			}
+			roundTrip(in);
+		}
+	}
+
+	/**
+	 * liblzf格式: 字面量"abc", 再回溯引用距离3; 压缩时和liblzf一样不引用位置0
+	 */
+	@Test
+	public void liblzfFormat() {
+		byte[] shortRef = { 2, 'a', 'b', 'c', 0x20, 2 };
+		assertArrayEquals("abcabc".getBytes(StandardCharsets.UTF_8), decompress(shortRef, 6));
+
+		byte[] longRef = { 2, 'a', 'b', 'c', (byte) 0xE0, 0, 2 };
+		assertArrayEquals("abcabcabcabc".getBytes(StandardCharsets.UTF_8), decompress(longRef, 12));
+
+		byte[] expected = { 3, 'a', 'b', 'c', 'a', (byte) 0x80, 2, 1, 'b', 'c' };
+		assertArrayEquals(expected, compress("abcabcabcabc".getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void badReference() {
+		decompress(new byte[] { 0x20, 5 }, 3);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void trailingBytes() {
+		decompress(new byte[] { 0, 'a', 'b' }, 1);
+	}
+}
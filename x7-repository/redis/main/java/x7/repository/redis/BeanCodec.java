@@ -0,0 +1,414 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.redis;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import x7.core.bean.Accessors;
+import x7.core.bean.BeanElement;
+import x7.core.bean.Parsed;
+import x7.core.bean.Parser;
+import x7.core.config.Configs;
+import x7.core.repository.X;
+import x7.core.util.JsonX;
+
+/**
+ * 缓存值的二进制编码, 按Parsed的属性列表生成, 每个类一个, 线程安全<br>
+ * [0xB7][schema][null位图][非null的属性...]<br>
+ * long/int/short: zigzag varint; String/BigDecimal/enum name: 长度 + UTF-8; Date: 毫秒; 其它: JSON<br>
+ * schema是属性名和类型的hash, 实体改了之后旧值解码返回null, 当作缓存未命中<br>
+ * 有@X.Ignore属性的类不用: Ignore属性不在Parsed里, 只存在缓存里<br>
+ * x7.cache.codec.binary=true才用来写; 读按首字节判断, 和JSON可以共存<br>
+ * 构造器和getter/setter用Accessors编译, 编解码时不反射
+ * 
+ * @author Sim
+ */
+public class BeanCodec {
+
+	public final static byte MAGIC = (byte) 0xB7;
+
+	@SuppressWarnings("rawtypes")
+	private final static Map<Class, BeanCodec> map = new ConcurrentHashMap<Class, BeanCodec>();
+	private final static BeanCodec NONE = new BeanCodec(null, new BeanElement[0], new Kind[0]);
+	private final static ThreadLocal<Writer> WRITER = ThreadLocal.withInitial(Writer::new);
+
+	private enum Kind {
+		LONG, INT, SHORT, BYTE, BOOLEAN, DOUBLE, FLOAT, STRING, BIG_DECIMAL, DATE, TIMESTAMP, SQL_DATE, ENUM, JSON
+	}
+
+	@SuppressWarnings("rawtypes")
+	private final Class clz;
+	private final BeanElement[] elements;
+	private final Kind[] kinds;
+	private final int schema;
+	private final Supplier<Object> constructor;
+	private final Function<Object, Object>[] getters;
+	private final BiConsumer<Object, Object>[] setters;
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private BeanCodec(Class clz, BeanElement[] elements, Kind[] kinds) {
+		this.clz = clz;
+		this.elements = elements;
+		this.kinds = kinds;
+		this.constructor = clz == null ? null : Accessors.constructor(clz);
+		this.getters = new Function[elements.length];
+		this.setters = new BiConsumer[elements.length];
+		for (int i = 0; i < elements.length; i++) {
+			getters[i] = Accessors.getter(elements[i].getMethod);
+			setters[i] = Accessors.setter(elements[i].setMethod);
+		}
+		StringBuilder sb = new StringBuilder();
+		for (BeanElement be : elements) {
+			sb.append(be.property).append(':').append(be.clz.getName()).append(';');
+		}
+		this.schema = sb.toString().hashCode();
+	}
+
+	public static boolean isEnabled() {
+		return Configs.isTrue("x7.cache.codec.binary", false);
+	}
+
+	public static boolean isBinary(byte[] bytes) {
+		return bytes != null && bytes.length > 0 && bytes[0] == MAGIC;
+	}
+
+	/**
+	 * 不支持的类返回null
+	 */
+	@SuppressWarnings("rawtypes")
+	public static BeanCodec get(Class clz) {
+		BeanCodec codec = map.get(clz);
+		if (codec == null) {
+			codec = map.computeIfAbsent(clz, BeanCodec::create);
+		}
+		return codec == NONE ? null : codec;
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static BeanCodec create(Class clz) {
+		if (clz.isArray() || clz.isEnum() || clz.isPrimitive() || Collection.class.isAssignableFrom(clz)
+				|| Map.class.isAssignableFrom(clz) || clz.getName().startsWith("java."))
+			return NONE;
+		for (Class c = clz; c != null && c != Object.class; c = c.getSuperclass()) {
+			for (Field f : c.getDeclaredFields()) {
+				if (f.getAnnotation(X.Ignore.class) != null)
+					return NONE;
+			}
+		}
+		Parsed parsed;
+		try {
+			parsed = Parser.get(clz);
+		} catch (Exception e) {
+			return NONE;
+		}
+		if (parsed == null)
+			return NONE;
+
+		List<BeanElement> list = parsed.getBeanElementList();
+		BeanElement[] elements = new BeanElement[list.size()];
+		Kind[] kinds = new Kind[list.size()];
+		for (int i = 0; i < elements.length; i++) {
+			BeanElement be = list.get(i);
+			if (be.getMethod == null || be.setMethod == null)
+				return NONE;
+			elements[i] = be;
+			kinds[i] = kind(be);
+		}
+		try {
+			return new BeanCodec(clz, elements, kinds);
+		} catch (Exception e) {
+			return NONE;
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static Kind kind(BeanElement be) {
+		Class c = be.clz;
+		if (be.isJson)
+			return Kind.JSON;
+		if (c == long.class || c == Long.class)
+			return Kind.LONG;
+		if (c == int.class || c == Integer.class)
+			return Kind.INT;
+		if (c == short.class || c == Short.class)
+			return Kind.SHORT;
+		if (c == byte.class || c == Byte.class)
+			return Kind.BYTE;
+		if (c == boolean.class || c == Boolean.class)
+			return Kind.BOOLEAN;
+		if (c == double.class || c == Double.class)
+			return Kind.DOUBLE;
+		if (c == float.class || c == Float.class)
+			return Kind.FLOAT;
+		if (c == String.class)
+			return Kind.STRING;
+		if (c == BigDecimal.class)
+			return Kind.BIG_DECIMAL;
+		if (c == Timestamp.class)
+			return Kind.TIMESTAMP;
+		if (c == java.sql.Date.class)
+			return Kind.SQL_DATE;
+		if (c == Date.class)
+			return Kind.DATE;
+		if (c.isEnum())
+			return Kind.ENUM;
+		return Kind.JSON;
+	}
+
+	public byte[] encode(Object obj) throws Exception {
+		Writer w = WRITER.get();
+		w.pos = 0;
+		w.writeByte(MAGIC);
+		w.writeVarLong(schema & 0xFFFFFFFFL);
+
+		int bitmapPos = w.pos;
+		int bitmapLen = (elements.length + 7) >>> 3;
+		w.ensure(bitmapLen);
+		Arrays.fill(w.buf, bitmapPos, bitmapPos + bitmapLen, (byte) 0);
+		w.pos += bitmapLen;
+
+		for (int i = 0; i < elements.length; i++) {
+			Object v = getters[i].apply(obj);
+			if (v == null) {
+				w.buf[bitmapPos + (i >>> 3)] |= (byte) (1 << (i & 7));
+				continue;
+			}
+			write(w, kinds[i], v);
+		}
+		return w.toByteArray();
+	}
+
+	/**
+	 * schema不一致返回null
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T decode(byte[] bytes) throws Exception {
+		Reader r = new Reader(bytes);
+		if (r.readByte() != MAGIC)
+			return null;
+		if ((int) r.readVarLong() != schema)
+			return null;
+
+		int bitmapPos = r.pos;
+		r.pos += (elements.length + 7) >>> 3;
+
+		T t = (T) constructor.get();
+		for (int i = 0; i < elements.length; i++) {
+			if ((bytes[bitmapPos + (i >>> 3)] & (1 << (i & 7))) != 0)
+				continue;
+			setters[i].accept(t, read(r, kinds[i], elements[i]));
+		}
+		return t;
+	}
+
+	private static void write(Writer w, Kind kind, Object v) {
+		switch (kind) {
+		case LONG:
+			w.writeVarLong(zigzag((Long) v));
+			break;
+		case INT:
+			w.writeVarLong(zigzag((Integer) v));
+			break;
+		case SHORT:
+			w.writeVarLong(zigzag((Short) v));
+			break;
+		case BYTE:
+			w.writeByte((Byte) v);
+			break;
+		case BOOLEAN:
+			w.writeByte((Boolean) v ? (byte) 1 : (byte) 0);
+			break;
+		case DOUBLE:
+			w.writeLong(Double.doubleToLongBits((Double) v));
+			break;
+		case FLOAT:
+			w.writeInt(Float.floatToIntBits((Float) v));
+			break;
+		case STRING:
+			w.writeString((String) v);
+			break;
+		case BIG_DECIMAL:
+			w.writeString(((BigDecimal) v).toString());
+			break;
+		case DATE:
+		case TIMESTAMP:
+		case SQL_DATE:
+			w.writeVarLong(zigzag(((Date) v).getTime()));
+			break;
+		case ENUM:
+			w.writeString(((Enum<?>) v).name());
+			break;
+		default:
+			w.writeString(JsonX.toJson(v));
+		}
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static Object read(Reader r, Kind kind, BeanElement be) {
+		switch (kind) {
+		case LONG:
+			return unzigzag(r.readVarLong());
+		case INT:
+			return (int) unzigzag(r.readVarLong());
+		case SHORT:
+			return (short) unzigzag(r.readVarLong());
+		case BYTE:
+			return r.readByte();
+		case BOOLEAN:
+			return r.readByte() != 0;
+		case DOUBLE:
+			return Double.longBitsToDouble(r.readLong());
+		case FLOAT:
+			return Float.intBitsToFloat(r.readInt());
+		case STRING:
+			return r.readString();
+		case BIG_DECIMAL:
+			return new BigDecimal(r.readString());
+		case DATE:
+			return new Date(unzigzag(r.readVarLong()));
+		case TIMESTAMP:
+			return new Timestamp(unzigzag(r.readVarLong()));
+		case SQL_DATE:
+			return new java.sql.Date(unzigzag(r.readVarLong()));
+		case ENUM:
+			return Enum.valueOf(be.clz, r.readString());
+		default:
+			String json = r.readString();
+			if (List.class.isAssignableFrom(be.clz) && be.geneType != null)
+				return JsonX.toList(json, be.geneType);
+			return JsonX.toObject(json, be.clz);
+		}
+	}
+
+	private static long zigzag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	private static long unzigzag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	/**
+	 * 每个线程一个, 用完不释放; 超过64K的缓冲区不留
+	 */
+	private static final class Writer {
+		private byte[] buf = new byte[256];
+		private int pos;
+
+		private void ensure(int n) {
+			if (pos + n > buf.length) {
+				buf = Arrays.copyOf(buf, Math.max(buf.length << 1, pos + n));
+			}
+		}
+
+		private void writeByte(byte b) {
+			ensure(1);
+			buf[pos++] = b;
+		}
+
+		private void writeVarLong(long v) {
+			ensure(10);
+			while ((v & ~0x7FL) != 0) {
+				buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			buf[pos++] = (byte) v;
+		}
+
+		private void writeInt(int v) {
+			ensure(4);
+			buf[pos++] = (byte) (v >>> 24);
+			buf[pos++] = (byte) (v >>> 16);
+			buf[pos++] = (byte) (v >>> 8);
+			buf[pos++] = (byte) v;
+		}
+
+		private void writeLong(long v) {
+			writeInt((int) (v >>> 32));
+			writeInt((int) v);
+		}
+
+		private void writeString(String str) {
+			byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+			writeVarLong(bytes.length);
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, buf, pos, bytes.length);
+			pos += bytes.length;
+		}
+
+		private byte[] toByteArray() {
+			byte[] bytes = Arrays.copyOf(buf, pos);
+			if (buf.length > 65536) {
+				buf = new byte[256];
+			}
+			return bytes;
+		}
+	}
+
+	private static final class Reader {
+		private final byte[] buf;
+		private int pos;
+
+		private Reader(byte[] buf) {
+			this.buf = buf;
+		}
+
+		private byte readByte() {
+			return buf[pos++];
+		}
+
+		private long readVarLong() {
+			long v = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = buf[pos++];
+				v |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return v;
+		}
+
+		private int readInt() {
+			return ((buf[pos++] & 0xFF) << 24) | ((buf[pos++] & 0xFF) << 16) | ((buf[pos++] & 0xFF) << 8)
+					| (buf[pos++] & 0xFF);
+		}
+
+		private long readLong() {
+			return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+		}
+
+		private String readString() {
+			int len = (int) readVarLong();
+			String str = new String(buf, pos, len, StandardCharsets.UTF_8);
+			pos += len;
+			return str;
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.redis;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import x7.core.bean.Parsed;
+import x7.core.bean.Parser;
+import x7.core.config.Configs;
+import x7.core.util.LZF;
+
+/**
+ * 缓存值压缩, 只对加了@X.Compress的实体, 超过x7.cache.compress.bytes(默认1024)才压<br>
+ * [0xFE][原长度varint][LZF], 压不小就存原值; 读时没有头的按原值返回, 开关前后的值可以共存<br>
+ * JSON和BeanCodec的首字节不会是0xFE; 手写ISerialWR的实体不要加@X.Compress
+ * 
+ * @author Sim
+ */
+public class CacheCompressor {
+
+	public final static byte MAGIC = (byte) 0xFE;
+
+	private final static int MAX_LENGTH = 1 << 28;
+
+	private final static Map<String, Stats> statsMap = new ConcurrentHashMap<String, Stats>();
+
+	@SuppressWarnings("rawtypes")
+	public static byte[] compress(Class clz, byte[] bytes) {
+		if (bytes == null || !isCompress(clz))
+			return bytes;
+		int len = bytes.length;
+		if (len < Configs.getIntValue("x7.cache.compress.bytes", 1024))
+			return bytes;
+
+		long startTime = System.nanoTime();
+		byte[] out = new byte[6 + LZF.maxCompressedLength(len)];
+		out[0] = MAGIC;
+		int pos = 1;
+		for (int v = len; ; v >>>= 7) {
+			if ((v & ~0x7F) == 0) {
+				out[pos++] = (byte) v;
+				break;
+			}
+			out[pos++] = (byte) ((v & 0x7F) | 0x80);
+		}
+		int size = pos + LZF.compress(bytes, len, out, pos);
+
+		Stats stats = getStats(clz);
+		stats.compressNanos.add(System.nanoTime() - startTime);
+		if (size >= len) {
+			stats.skipped.increment();
+			return bytes;
+		}
+		stats.compressed.increment();
+		stats.rawBytes.add(len);
+		stats.compressedBytes.add(size);
+		return Arrays.copyOf(out, size);
+	}
+
+	/**
+	 * 头不对或数据不对, 原样返回
+	 */
+	@SuppressWarnings("rawtypes")
+	public static byte[] decompress(Class clz, byte[] bytes) {
+		if (bytes == null || bytes.length < 2 || bytes[0] != MAGIC)
+			return bytes;
+
+		long startTime = System.nanoTime();
+		try {
+			int pos = 1;
+			int len = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte b = bytes[pos++];
+				len |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					break;
+				if (shift > 21)
+					return bytes;
+			}
+			if (len <= 0 || len > MAX_LENGTH)
+				return bytes;
+			byte[] out = new byte[len];
+			LZF.decompress(bytes, pos, bytes.length - pos, out, len);
+
+			Stats stats = getStats(clz);
+			stats.decompressed.increment();
+			stats.decompressNanos.add(System.nanoTime() - startTime);
+			return out;
+		} catch (RuntimeException e) {
+			return bytes;
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static boolean isCompress(Class clz) {
+		Parsed parsed = Parser.get(clz);
+		return parsed != null && parsed.isCompress();
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static Stats getStats(Class clz) {
+		Stats stats = statsMap.get(clz.getName());
+		if (stats == null) {
+			stats = statsMap.computeIfAbsent(clz.getName(), k -> new Stats());
+		}
+		return stats;
+	}
+
+	/**
+	 * 按实体: 压缩率(压缩后/原始), 压缩和解压耗时
+	 */
+	public static Map<String, Map<String, Object>> getStats() {
+		Map<String, Map<String, Object>> map = new LinkedHashMap<String, Map<String, Object>>();
+		for (Map.Entry<String, Stats> entry : statsMap.entrySet()) {
+			Stats stats = entry.getValue();
+			long raw = stats.rawBytes.sum();
+			Map<String, Object> m = new LinkedHashMap<String, Object>();
+			m.put("compressed", stats.compressed.sum());
+			m.put("skipped", stats.skipped.sum());
+			m.put("decompressed", stats.decompressed.sum());
+			m.put("rawBytes", raw);
+			m.put("compressedBytes", stats.compressedBytes.sum());
+			m.put("ratio", raw == 0 ? 1.0 : (double) stats.compressedBytes.sum() / raw);
+			m.put("compressMs", stats.compressNanos.sum() / 1000000);
+			m.put("decompressMs", stats.decompressNanos.sum() / 1000000);
+			map.put(entry.getKey(), m);
+		}
+		return map;
+	}
+
+	private static class Stats {
+		private final LongAdder compressed = new LongAdder();
+		private final LongAdder skipped = new LongAdder();
+		private final LongAdder decompressed = new LongAdder();
+		private final LongAdder rawBytes = new LongAdder();
+		private final LongAdder compressedBytes = new LongAdder();
+		private final LongAdder compressNanos = new LongAdder();
+		private final LongAdder decompressNanos = new LongAdder();
+	}
+}
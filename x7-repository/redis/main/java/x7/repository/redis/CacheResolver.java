@@ -20,6 +20,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import redis.clients.jedis.JedisPubSub;
+import x7.core.bean.Parsed;
+import x7.core.bean.Parser;
 import x7.core.config.Configs;
 import x7.core.repository.CacheException;
 import x7.core.repository.ICacheResolver;
@@ -31,7 +34,10 @@ import x7.repository.exception.PersistenceException;
 
 /**
  * 
- * Level two Cache
+ * Level two Cache<br>
+ * 只有加了@X.NearCache的实体, 前面再加一级进程内缓存(NearCache), 返回的是共享对象; x7.cache.near.second只是注解的默认秒数<br>
+ * 一级缓存存实体, 按ID查到的结果列表, 以及NS前缀; remove/markForRefresh时本地先失效, 再发布到x7.cache.near频道, 其他节点订阅后失效<br>
+ * 订阅断开重连时清空一级缓存, 断开期间的失效消息收不到
  * @author sim
  *
  */
@@ -39,6 +45,8 @@ public class CacheResolver implements ICacheResolver{
 
 	public final static String NANO_SECOND = ".N_S";
 	
+	private final static String NEAR_CHANNEL = "x7.cache.near";
+	
 	private static CacheResolver instance = null;
 	public static CacheResolver getInstance(){
 		if (instance == null){
@@ -47,6 +55,13 @@ public class CacheResolver implements ICacheResolver{
 		return instance;
 	}
 	
+	private final NearCache near = new NearCache(Configs.getIntValue("x7.cache.near.size", 10000));
+	private volatile boolean subscribed;
+	
+	public NearCache getNearCache(){
+		return near;
+	}
+	
 	/**
 	 * 标记缓存要更新
 	 * @param clz
@@ -59,6 +74,7 @@ public class CacheResolver implements ICacheResolver{
 		boolean flag = JedisConnector_Cache.getInstance().set(key.getBytes(), time.getBytes());
 		if (!flag)
 			throw new CacheException("markForRefresh failed");
+		invalidate(clz, key);
 		return time;
 	}
 	
@@ -72,6 +88,93 @@ public class CacheResolver implements ICacheResolver{
 		boolean flag = JedisConnector_Cache.getInstance().delete(key.getBytes());
 		if (!flag)
 			throw new CacheException("remove failed");
+		invalidate(clz, key);
+	}
+	
+	/**
+	 * 批量删除, 同时标记缓存要更新, 一次往返
+	 */
+	@SuppressWarnings("rawtypes")
+	@Override
+	public void remove(Class clz, List<String> keyList){
+		byte[][] keyArr = getKeyList(clz, keyList);
+		String time = String.valueOf(System.nanoTime());
+		boolean flag = JedisConnector_Cache.getInstance().delete(keyArr, getNSKey(clz).getBytes(), time.getBytes());
+		if (!flag)
+			throw new CacheException("remove failed");
+		if (getNearSecond(clz) > 0){
+			StringBuilder sb = new StringBuilder(getNSKey(clz));
+			if (keyList != null){
+				for (String key : keyList){
+					sb.append('\n').append(getSimpleKey(clz, key));
+				}
+			}
+			invalidate(clz, sb.toString());
+		}
+	}
+	
+	/**
+	 * 一级缓存存活秒数, 没有@X.NearCache为0, 不走一级缓存
+	 */
+	@SuppressWarnings("rawtypes")
+	private int getNearSecond(Class clz){
+		Parsed parsed = Parser.get(clz);
+		int second = parsed == null ? 0 : parsed.getNearCacheSecond();
+		if (second > 0 && !subscribed)
+			subscribe();
+		return second;
+	}
+	
+	/**
+	 * 本地失效, 再通知其他节点; 多个key以换行分隔
+	 */
+	@SuppressWarnings("rawtypes")
+	private void invalidate(Class clz, String keys){
+		if (getNearSecond(clz) <= 0)
+			return;
+		evict(keys);
+		JedisConnector_Cache.getInstance().publish(NEAR_CHANNEL, keys);
+	}
+	
+	private void evict(String keys){
+		for (String key : keys.split("\n")){
+			near.remove(key);
+		}
+	}
+	
+	private synchronized void subscribe(){
+		if (subscribed)
+			return;
+		subscribed = true;
+		
+		JedisPubSub pubSub = new JedisPubSub(){
+			@Override
+			public void onMessage(String channel, String message) {
+				evict(message);
+			}
+			@Override
+			public void onSubscribe(String channel, int subscribedChannels) {
+				near.clear();
+			}
+		};
+		
+		Thread thread = new Thread(() -> {
+			while (true){
+				try{
+					JedisConnector_Cache.getInstance().subscribe(pubSub, NEAR_CHANNEL);
+				}catch (Exception e){
+					near.clear();
+					e.printStackTrace();
+				}
+				try {
+					Thread.sleep(1000);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}, "x7-near-cache");
+		thread.setDaemon(true);
+		thread.start();
 	}
 	
 	@SuppressWarnings("rawtypes")
@@ -118,11 +221,7 @@ public class CacheResolver implements ICacheResolver{
 	
 	@SuppressWarnings("rawtypes")
 	private String getKey(Class clz, String condition){
-		long startTime = System.currentTimeMillis();
-		String key =  VerifyUtil.toMD5(getPrefix(clz) + condition);
-		long endTime = System.currentTimeMillis();
-		System.out.println("time_getKey = "+(endTime - startTime));
-		return key;
+		return VerifyUtil.toMD5(getPrefix(clz) + condition);
 	}
 
 	
@@ -134,12 +233,22 @@ public class CacheResolver implements ICacheResolver{
 	@SuppressWarnings("rawtypes")
 	private String getPrefix(Class clz){
 		String key = getNSKey(clz);
+		int second = getNearSecond(clz);
+		long stamp = near.stamp(key);
+		if (second > 0){
+			String prefix = (String) near.get(key);
+			if (prefix != null)
+				return prefix;
+		}
 		byte[] nsArr = JedisConnector_Cache.getInstance().get(key.getBytes());
 		if (nsArr == null){
 			String str = markForRefresh(clz);
 			return clz.getName() + str;
 		}
-		return clz.getName() + new String(nsArr);
+		String prefix = clz.getName() + new String(nsArr);
+		if (second > 0)
+			near.put(key, prefix, second, stamp);
+		return prefix;
 	}
 
 	/**
@@ -150,10 +259,43 @@ public class CacheResolver implements ICacheResolver{
 	public void set(Class clz, String key, Object obj) {
 		key = getSimpleKey(clz, key);
 		int validSecond =  getValidSecondAdjusted();
-		JedisConnector_Cache.getInstance().set(key.getBytes(), PersistenceUtil.toBytes(obj), validSecond);
+		JedisConnector_Cache.getInstance().set(key.getBytes(), CacheCompressor.compress(clz, PersistenceUtil.toBytes(obj)), validSecond);
 	}
 
 	
+	@SuppressWarnings("rawtypes")
+	@Override
+	public void set(Class clz, Map<String, Object> objMap) {
+		set(clz, objMap, false);
+	}
+	
+	@SuppressWarnings("rawtypes")
+	@Override
+	public void set(Class clz, Map<String, Object> objMap, boolean isMarkForRefresh) {
+		if (!isMarkForRefresh && (objMap == null || objMap.isEmpty()))
+			return;
+		int size = objMap == null ? 0 : objMap.size();
+		byte[][] keyArr = new byte[size][];
+		byte[][] valueArr = new byte[size][];
+		if (objMap != null){
+			int i = 0;
+			for (Map.Entry<String, Object> entry : objMap.entrySet()){
+				keyArr[i] = getSimpleKey(clz, entry.getKey()).getBytes();
+				valueArr[i++] = CacheCompressor.compress(clz, PersistenceUtil.toBytes(entry.getValue()));
+			}
+		}
+		if (!isMarkForRefresh){
+			JedisConnector_Cache.getInstance().set(keyArr, valueArr, getValidSecondAdjusted());
+			return;
+		}
+		String nsKey = getNSKey(clz);
+		String time = String.valueOf(System.nanoTime());
+		boolean flag = JedisConnector_Cache.getInstance().set(keyArr, valueArr, getValidSecondAdjusted(), nsKey.getBytes(), time.getBytes());
+		if (!flag)
+			throw new CacheException("markForRefresh failed");
+		invalidate(clz, nsKey);
+	}
+	
 	private int getValidSecondAdjusted(){
 		return  Configs.getIntValue("x7.cache.second") * 700;
 	}
@@ -164,7 +306,7 @@ public class CacheResolver implements ICacheResolver{
 		String key = getKey(clz, condition);
 		int validSecond = Configs.getIntValue("x7.cache.second");
 		try{
-			JedisConnector_Cache.getInstance().set(key.getBytes(), ObjectUtil.toBytes(keyList), validSecond);
+			JedisConnector_Cache.getInstance().set(key.getBytes(), CacheCompressor.compress(clz, ObjectUtil.toBytes(keyList)), validSecond);
 		}catch (Exception e) {
 			throw new PersistenceException(e.getMessage());
 		}
@@ -183,7 +325,7 @@ public class CacheResolver implements ICacheResolver{
 		
 		String key = getKey(clz, condition);
 		try{
-			JedisConnector_Cache.getInstance().set(key.getBytes(), ObjectUtil.toBytes(pagination), second);
+			JedisConnector_Cache.getInstance().set(key.getBytes(), CacheCompressor.compress(clz, ObjectUtil.toBytes(pagination)), second);
 		}catch (Exception e) {
 			throw new PersistenceException(e.getMessage());
 		}
@@ -192,24 +334,29 @@ public class CacheResolver implements ICacheResolver{
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	@Override
 	public List<String> getResultKeyList(Class clz, String condition) {
+		int second = getNearSecond(clz);
 		String key = getKey(clz, condition);
-		System.out.println("get key: " + key);
-		long startTime = System.currentTimeMillis();
-		byte[] bytes = JedisConnector_Cache.getInstance().get(key.getBytes());
-		long endTime = System.currentTimeMillis();
-		System.out.println("time_getResultKeyList = "+(endTime - startTime));
+		long stamp = near.stamp(key);
+		if (second > 0){
+			List<String> keyList = (List<String>) near.get(key);
+			if (keyList != null)
+				return new ArrayList<String>(keyList);
+		}
+		byte[] bytes = CacheCompressor.decompress(clz, JedisConnector_Cache.getInstance().get(key.getBytes()));
 		if (bytes == null)
 			return new ArrayList<String>();
 		
-		return ObjectUtil.toList(bytes, String.class);
+		List<String> keyList = ObjectUtil.toList(bytes, String.class);
+		if (second > 0 && keyList != null)
+			near.put(key, new ArrayList<String>(keyList), second, stamp);
+		return keyList;
 	}
 	
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	@Override
 	public Pagination<String> getResultKeyListPaginated(Class clz, String condition) {
 		String key = getKey(clz, condition);
-		System.out.println("get key: " + key);
-		byte[] bytes = JedisConnector_Cache.getInstance().get(key.getBytes());
+		byte[] bytes = CacheCompressor.decompress(clz, JedisConnector_Cache.getInstance().get(key.getBytes()));
 		
 		if (bytes == null)
 			return null;
@@ -217,8 +364,54 @@ public class CacheResolver implements ICacheResolver{
 		return ObjectUtil.toPagination(bytes, String.class);
 	}
 
+	@SuppressWarnings("unchecked")
 	@Override
 	public <T> List<T> list(Class<T> clz, List<String> keyList) {
+		int second = getNearSecond(clz);
+		if (second <= 0 || keyList == null || keyList.isEmpty())
+			return listRemote(clz, keyList);
+		
+		Object[] objArr = new Object[keyList.size()];
+		long[] stampArr = new long[objArr.length];
+		List<Integer> missList = new ArrayList<Integer>();
+		for (int i = 0; i < objArr.length; i++){
+			String key = getSimpleKey(clz, keyList.get(i));
+			stampArr[i] = near.stamp(key);
+			objArr[i] = near.get(key);
+			if (objArr[i] == null)
+				missList.add(i);
+		}
+		
+		if (!missList.isEmpty()){
+			byte[][] bytesArr = new byte[missList.size()][];
+			for (int j = 0; j < bytesArr.length; j++){
+				bytesArr[j] = getSimpleKey(clz, keyList.get(missList.get(j))).getBytes();
+			}
+			List<byte[]> bytesList = JedisConnector_Cache.getInstance().mget(bytesArr);
+			if (bytesList != null){
+				for (int j = 0; j < bytesList.size(); j++){
+					byte[] bytes = CacheCompressor.decompress(clz, bytesList.get(j));
+					if (bytes == null)
+						continue;
+					T t = PersistenceUtil.toObject(clz, bytes);
+					if (t == null)
+						continue;
+					int i = missList.get(j);
+					objArr[i] = t;
+					near.put(getSimpleKey(clz, keyList.get(i)), t, second, stampArr[i]);
+				}
+			}
+		}
+		
+		List<T> objList = new ArrayList<T>();
+		for (Object obj : objArr){
+			if (obj != null)
+				objList.add((T) obj);
+		}
+		return objList;
+	}
+	
+	private <T> List<T> listRemote(Class<T> clz, List<String> keyList) {
 		byte[][] bytesArr = getKeyList(clz, keyList);//转换成缓存需要的keyList
 		
 		List<byte[]> bytesList = JedisConnector_Cache.getInstance().mget(bytesArr);
@@ -230,7 +423,7 @@ public class CacheResolver implements ICacheResolver{
 		for (byte[] bytes : bytesList){
 			if (bytes == null)
 				continue;
-			T t = PersistenceUtil.toObject(clz, bytes);
+			T t = PersistenceUtil.toObject(clz, CacheCompressor.decompress(clz, bytes));
 			if (t == null)
 				continue;
 			objList.add(t);
@@ -242,29 +435,56 @@ public class CacheResolver implements ICacheResolver{
 	/**
 	 * FIXME {hash tag}
 	 */
+	@SuppressWarnings("unchecked")
 	@Override
 	public <T> T get(Class<T> clz, String key) {
 		key = getSimpleKey(clz,key);
-		byte[] bytes = JedisConnector_Cache.getInstance().get(key.getBytes());
+		int second = getNearSecond(clz);
+		long stamp = near.stamp(key);
+		if (second > 0){
+			Object obj = near.get(key);
+			if (obj != null)
+				return (T) obj;
+		}
+		byte[] bytes = CacheCompressor.decompress(clz, JedisConnector_Cache.getInstance().get(key.getBytes()));
 		if (bytes == null)
 			return null;
 		T obj = PersistenceUtil.toObject(clz, bytes);
+		if (second > 0)
+			near.put(key, obj, second, stamp);
 		return obj;
 	}
 
+	@SuppressWarnings("rawtypes")
+	@Override
+	public void setCount(Class clz, String condition, long count, int second) {
+		String key = getSimpleKey(clz, "count." + VerifyUtil.toMD5(condition));
+		JedisConnector_Cache.getInstance().set(key.getBytes(), String.valueOf(count).getBytes(), second);
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Long getCount(Class clz, String condition) {
+		String key = getSimpleKey(clz, "count." + VerifyUtil.toMD5(condition));
+		byte[] bytes = JedisConnector_Cache.getInstance().get(key.getBytes());
+		if (bytes == null)
+			return null;
+		return Long.valueOf(new String(bytes));
+	}
+
 	@Override
 	public void setMapList(Class clz, String key, List<Map<String, Object>> mapList) {
 		key = getSimpleKey(clz, key);
 		int validSecond =  getValidSecondAdjusted();
 		
-		JedisConnector_Cache.getInstance().set(key.getBytes(), PersistenceUtil.toBytes(mapList), validSecond);
+		JedisConnector_Cache.getInstance().set(key.getBytes(), CacheCompressor.compress(clz, PersistenceUtil.toBytes(mapList)), validSecond);
 	}
 
 	@Override
 	public List<Map<String, Object>> getMapList(Class clz, String key) {
 		
 		key = getSimpleKey(clz,key);
-		byte[] bytes = JedisConnector_Cache.getInstance().get(key.getBytes());
+		byte[] bytes = CacheCompressor.decompress(clz, JedisConnector_Cache.getInstance().get(key.getBytes()));
 		if (bytes == null)
 			return null;
 		List<Map<String, Object>> mapList = PersistenceUtil.toMapList(bytes);
@@ -22,6 +22,8 @@ import java.util.List;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
 import x7.core.config.Configs;
 
 public class JedisConnector_Cache {
@@ -91,8 +93,43 @@ public class JedisConnector_Cache {
 			jedis = get();
 			if (jedis == null)
 				return false;
-			jedis.set(key,value);
-			jedis.expire(key, validSeconds);
+			jedis.setex(key, validSeconds, value);
+			pool.returnResource(jedis);
+		}catch(Exception e){
+			pool.returnBrokenResource(jedis);
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * 一次往返: 批量SETEX
+	 */
+	public boolean set(byte[][] keyArr, byte[][] valueArr, int validSeconds){
+		return set(keyArr, valueArr, validSeconds, null, null);
+	}
+	
+	/**
+	 * 一次往返: 批量SETEX, nsKey不为null时再设置nsKey
+	 */
+	public boolean set(byte[][] keyArr, byte[][] valueArr, int validSeconds, byte[] nsKey, byte[] nsValue){
+		if ((keyArr == null || keyArr.length == 0) && nsKey == null)
+			return true;
+		Jedis jedis = null;
+		try{
+			jedis = get();
+			if (jedis == null)
+				return false;
+			Pipeline pipeline = jedis.pipelined();
+			if (keyArr != null){
+				for (int i = 0; i < keyArr.length; i++){
+					pipeline.setex(keyArr[i], validSeconds, valueArr[i]);
+				}
+			}
+			if (nsKey != null){
+				pipeline.set(nsKey, nsValue);
+			}
+			pipeline.sync();
 			pool.returnResource(jedis);
 		}catch(Exception e){
 			pool.returnBrokenResource(jedis);
@@ -170,5 +207,57 @@ public class JedisConnector_Cache {
 		return true;
 	}
 	
+	/**
+	 * 一次往返: 批量删除, 再设置nsKey
+	 */
+	public boolean delete(byte[][] keyArr, byte[] nsKey, byte[] nsValue){
+		Jedis jedis = null;
+		try{
+			jedis = get();
+			if (jedis == null)
+				return false;
+			Pipeline pipeline = jedis.pipelined();
+			if (keyArr != null && keyArr.length > 0){
+				pipeline.del(keyArr);
+			}
+			pipeline.set(nsKey, nsValue);
+			pipeline.sync();
+			pool.returnResource(jedis);
+		}catch(Exception e){
+			pool.returnBrokenResource(jedis);
+			return false;
+		}
+		return true;
+	}
+	
+	public boolean publish(String channel, String message){
+		Jedis jedis = null;
+		try{
+			jedis = get();
+			if (jedis == null)
+				return false;
+			jedis.publish(channel, message);
+			pool.returnResource(jedis);
+		}catch(Exception e){
+			pool.returnBrokenResource(jedis);
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * 阻塞, 直到退订或连接断开; 连接断开时抛出
+	 */
+	public void subscribe(JedisPubSub pubSub, String channel){
+		Jedis jedis = get();
+		try{
+			jedis.subscribe(pubSub, channel);
+			pool.returnResource(jedis);
+		}catch(RuntimeException e){
+			pool.returnBrokenResource(jedis);
+			throw e;
+		}
+	}
+	
 
 }
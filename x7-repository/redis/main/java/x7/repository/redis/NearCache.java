@@ -0,0 +1,334 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.redis;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 进程内一级缓存, W-TinyLFU<br>
+ * 新条目先进窗口(容量1%), 窗口溢出时, 候选者和主区最老的条目比较访问频率, 高者留下<br>
+ * 频率由Count-Min Sketch估算(4bit计数, 累计到10倍容量时全部减半)<br>
+ * 窗口和主区都按FIFO淘汰; 读不加锁, 只累加频率<br>
+ * 失效按key的hash分段计数(1024段), 只有同一段的失效才会让put放弃<br>
+ * 存的是反序列化后的对象, 调用方不要修改
+ * 
+ * @author Sim
+ */
+public class NearCache {
+
+	private final int capacity;
+	private final int windowMax;
+	private final ConcurrentHashMap<String, Node> map;
+	private final Sketch sketch;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final ArrayDeque<Node> window = new ArrayDeque<Node>();
+	private final ArrayDeque<Node> main = new ArrayDeque<Node>();
+	private int windowSize;
+	private int mainSize;
+	private int deadSize;
+	private final static int STRIPES = 1024;
+	/**
+	 * 每次失效, key所在的段加一; put时不一致则放弃, 避免把失效前读到的值放回来
+	 */
+	private final AtomicLongArray stamps = new AtomicLongArray(STRIPES);
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public NearCache(int capacity) {
+		this.capacity = Math.max(capacity, 16);
+		this.windowMax = Math.max(1, this.capacity / 100);
+		this.map = new ConcurrentHashMap<String, Node>(this.capacity);
+		this.sketch = new Sketch(this.capacity);
+	}
+
+	private static int stripe(String key) {
+		int h = key.hashCode();
+		return (h ^ (h >>> 16)) & (STRIPES - 1);
+	}
+
+	/**
+	 * 读Redis之前取, put时带回来
+	 */
+	public long stamp(String key) {
+		return stamps.get(stripe(key));
+	}
+
+	public Object get(String key) {
+		sketch.increment(key.hashCode());
+		Node node = map.get(key);
+		if (node == null) {
+			misses.increment();
+			return null;
+		}
+		if (node.expireAt < System.currentTimeMillis()) {
+			remove(node);
+			misses.increment();
+			return null;
+		}
+		hits.increment();
+		return node.value;
+	}
+
+	/**
+	 * @param stamp
+	 *            读Redis之前取的stamp(key)
+	 */
+	public void put(String key, Object value, int second, long stamp) {
+		if (value == null)
+			return;
+		long now = System.currentTimeMillis();
+		Node node = new Node(key, value, now + second * 1000L);
+		lock.lock();
+		try {
+			if (stamp != stamps.get(stripe(key)))
+				return;
+			Node old = map.put(key, node);
+			if (old != null) {
+				unlink(old);
+			}
+			window.addLast(node);
+			windowSize++;
+			while (windowSize > windowMax) {
+				Node candidate = poll(window);
+				if (candidate == null)
+					break;
+				windowSize--;
+				candidate.inWindow = false;
+				admit(candidate, now);
+			}
+			if (deadSize > capacity) {
+				purge();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void remove(String key) {
+		lock.lock();
+		try {
+			stamps.incrementAndGet(stripe(key));
+			Node node = map.remove(key);
+			if (node != null) {
+				unlink(node);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void clear() {
+		lock.lock();
+		try {
+			for (int i = 0; i < STRIPES; i++) {
+				stamps.incrementAndGet(i);
+			}
+			map.clear();
+			window.clear();
+			main.clear();
+			windowSize = 0;
+			mainSize = 0;
+			deadSize = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int size() {
+		return map.size();
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("capacity", capacity);
+		map.put("size", size());
+		map.put("hits", hits.sum());
+		map.put("misses", misses.sum());
+		map.put("evictions", evictions.sum());
+		return map;
+	}
+
+	private void remove(Node node) {
+		lock.lock();
+		try {
+			if (map.remove(node.key, node)) {
+				unlink(node);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 主区满时, 候选者频率高于主区最老的条目才替换; 过期的直接让位
+	 */
+	private void admit(Node candidate, long now) {
+		if (mainSize < capacity - windowMax) {
+			main.addLast(candidate);
+			mainSize++;
+			return;
+		}
+		Node victim = peek(main);
+		if (victim == null || victim.expireAt < now
+				|| sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())) {
+			if (victim != null) {
+				main.pollFirst();
+				mainSize--;
+				evict(victim);
+			}
+			main.addLast(candidate);
+			mainSize++;
+		} else {
+			evict(candidate);
+		}
+	}
+
+	private void evict(Node node) {
+		node.dead = true;
+		map.remove(node.key, node);
+		evictions.increment();
+	}
+
+	private void unlink(Node node) {
+		if (node.dead)
+			return;
+		node.dead = true;
+		deadSize++;
+		if (node.inWindow) {
+			windowSize--;
+		} else {
+			mainSize--;
+		}
+	}
+
+	private Node poll(ArrayDeque<Node> deque) {
+		Node node;
+		while ((node = deque.pollFirst()) != null && node.dead) {
+			deadSize--;
+		}
+		return node;
+	}
+
+	private Node peek(ArrayDeque<Node> deque) {
+		Node node;
+		while ((node = deque.peekFirst()) != null && node.dead) {
+			deque.pollFirst();
+			deadSize--;
+		}
+		return node;
+	}
+
+	/**
+	 * 失效多而淘汰少时, 队列里的死节点会堆积
+	 */
+	private void purge() {
+		purge(window);
+		purge(main);
+		deadSize = 0;
+	}
+
+	private void purge(ArrayDeque<Node> deque) {
+		Iterator<Node> ite = deque.iterator();
+		while (ite.hasNext()) {
+			if (ite.next().dead) {
+				ite.remove();
+			}
+		}
+	}
+
+	private static final class Node {
+		private final String key;
+		private final Object value;
+		private final long expireAt;
+		private boolean inWindow = true;
+		private boolean dead;
+
+		private Node(String key, Object value, long expireAt) {
+			this.key = key;
+			this.value = value;
+			this.expireAt = expireAt;
+		}
+	}
+
+	/**
+	 * 4行, 每个long放16个4bit计数; 并发下不加锁, 计数是近似的
+	 */
+	private static final class Sketch {
+
+		private final static int[] SEED = { 0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F };
+
+		private final long[] table;
+		private final int mask;
+		private final int sampleSize;
+		private int additions;
+
+		private Sketch(int capacity) {
+			int size = Integer.highestOneBit(capacity - 1) << 1;
+			this.table = new long[size];
+			this.mask = size - 1;
+			this.sampleSize = 10 * capacity;
+		}
+
+		private int frequency(int hash) {
+			int min = 15;
+			for (int i = 0; i < 4; i++) {
+				int h = spread(hash, i);
+				int count = (int) ((table[(h >>> 4) & mask] >>> ((h & 15) << 2)) & 15L);
+				min = Math.min(min, count);
+			}
+			return min;
+		}
+
+		private void increment(int hash) {
+			boolean added = false;
+			for (int i = 0; i < 4; i++) {
+				int h = spread(hash, i);
+				int index = (h >>> 4) & mask;
+				int offset = (h & 15) << 2;
+				if (((table[index] >>> offset) & 15L) != 15L) {
+					table[index] += 1L << offset;
+					added = true;
+				}
+			}
+			if (added && ++additions >= sampleSize) {
+				reset();
+			}
+		}
+
+		private void reset() {
+			for (int i = 0; i < table.length; i++) {
+				table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+			}
+			additions = additions >>> 1;
+		}
+
+		private static int spread(int hash, int i) {
+			int h = hash * SEED[i];
+			return h ^ (h >>> 17);
+		}
+	}
+}
@@ -44,6 +44,17 @@ public class PersistenceUtil {
 			}
 		}
 		
+		if (BeanCodec.isEnabled()) {
+			BeanCodec codec = BeanCodec.get(obj.getClass());
+			if (codec != null) {
+				try {
+					return codec.encode(obj);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		
 		try {
 			return ObjectUtil.toBytes(obj);
 		} catch (UnsupportedEncodingException e) {
@@ -68,6 +79,18 @@ public class PersistenceUtil {
 			}
 		}
 		
+		if (BeanCodec.isBinary(bytes)) {
+			BeanCodec codec = BeanCodec.get(clz);
+			if (codec == null)
+				return null;
+			try {
+				return codec.decode(bytes);
+			} catch (Exception e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
+		
 		return ObjectUtil.toObject(bytes, clz);
 	}
 	
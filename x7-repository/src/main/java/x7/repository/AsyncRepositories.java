@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository;
+
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.apache.log4j.MDC;
+
+import x7.core.bean.Criteria;
+import x7.core.bean.Parser;
+import x7.core.config.Configs;
+import x7.core.web.Pagination;
+import x7.repository.dao.ReadYourWrites;
+import x7.repository.dao.Tx;
+
+/**
+ * Repositories的异步门面, 返回CompletableFuture, 互不依赖的查询可以并发<br>
+ * 读, 写, 分片各一个有界线程池(x7.repository.async.threads, 默认16; x7.repository.async.queue, 默认1024), 队列满时调用线程执行<br>
+ * 这一层看不到DataSource, 线程池按读(从库), 写(主库), 分片分开, 不按DataSource<br>
+ * 读自己的写, log4j MDC 带到执行线程; 有事务时读写都在调用线程执行, 同一事务严格禁止切换线程<br>
+ * 写之前在调用线程标记读自己的写(不带gtid, 提交在执行线程), 窗口内调用线程的读走主库<br>
+ * get命中缓存时直接返回完成的future, 不换线程
+ *
+ * @author Sim
+ */
+public class AsyncRepositories {
+
+	private final static String READ = "r";
+	private final static String WRITE = "w";
+	private final static String SHARDING = "sharding";
+
+	private static AsyncRepositories instance;
+
+	public static AsyncRepositories getInstance() {
+		if (instance == null) {
+			synchronized (AsyncRepositories.class) {
+				if (instance == null) {
+					instance = new AsyncRepositories();
+				}
+			}
+		}
+		return instance;
+	}
+
+	private final Map<String, ExecutorService> executorMap = new ConcurrentHashMap<String, ExecutorService>();
+
+	private AsyncRepositories() {
+	}
+
+	private Repositories repositories() {
+		return Repositories.getInstance();
+	}
+
+	public <T> CompletableFuture<T> get(Class<T> clz, long idOne) {
+		T obj = repositories().getCached(clz, idOne);
+		if (obj != null)
+			return CompletableFuture.completedFuture(obj);
+		return read(clz, () -> repositories().get(clz, idOne));
+	}
+
+	public <T> CompletableFuture<T> getOne(T conditionObj) {
+		return read(conditionObj.getClass(), () -> repositories().getOne(conditionObj));
+	}
+
+	public <T> CompletableFuture<List<T>> list(Object conditionObj) {
+		return read(conditionObj.getClass(), () -> repositories().list(conditionObj));
+	}
+
+	public <T> CompletableFuture<List<T>> list(Class<T> clz) {
+		return read(clz, () -> repositories().list(clz));
+	}
+
+	public <T> CompletableFuture<Pagination<T>> find(Criteria criteria) {
+		return read(criteria.getClz(), () -> repositories().find(criteria));
+	}
+
+	public CompletableFuture<Pagination<Map<String, Object>>> find(Criteria.Fetch fetch) {
+		return read(fetch.getClz(), () -> repositories().find(fetch));
+	}
+
+	public CompletableFuture<List<Map<String, Object>>> list(Criteria.Fetch fetch) {
+		return read(fetch.getClz(), () -> repositories().list(fetch));
+	}
+
+	public <T> CompletableFuture<List<T>> in(Class<T> clz, String inProperty, List<? extends Object> inList) {
+		return read(clz, () -> repositories().in(clz, inProperty, inList));
+	}
+
+	public CompletableFuture<Long> create(Object obj) {
+		return write(obj.getClass(), () -> repositories().create(obj));
+	}
+
+	public CompletableFuture<Boolean> refresh(Object obj) {
+		return write(obj.getClass(), () -> repositories().refresh(obj));
+	}
+
+	public CompletableFuture<Boolean> remove(Object obj) {
+		return write(obj.getClass(), () -> repositories().remove(obj));
+	}
+
+	@SuppressWarnings("rawtypes")
+	private <T> CompletableFuture<T> read(Class clz, Callable<T> callable) {
+		if (Tx.current() != null)
+			return call(callable);
+		return CompletableFuture.supplyAsync(context(callable), executor(clz, READ));
+	}
+
+	@SuppressWarnings("rawtypes")
+	private <T> CompletableFuture<T> write(Class clz, Callable<T> callable) {
+		if (Tx.current() != null)
+			return call(callable);
+		ReadYourWrites.dispatched(clz);
+		return CompletableFuture.supplyAsync(context(callable), executor(clz, WRITE));
+	}
+
+	/**
+	 * 事务里在调用线程执行, 事务连接不能给别的线程用
+	 */
+	private static <T> CompletableFuture<T> call(Callable<T> callable) {
+		CompletableFuture<T> future = new CompletableFuture<T>();
+		try {
+			future.complete(callable.call());
+		} catch (Throwable e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	@SuppressWarnings("rawtypes")
+	private ExecutorService executor(Class clz, String name) {
+		if (Parser.get(clz).isSharding()) {
+			name = SHARDING;
+		}
+		return executorMap.computeIfAbsent(name, AsyncRepositories::newExecutor);
+	}
+
+	private static ExecutorService newExecutor(String name) {
+		int threads = Math.max(1, Configs.getIntValue(ConfigKey.ASYNC_REPOSITORY_THREADS, 16));
+		int queue = Math.max(1, Configs.getIntValue(ConfigKey.ASYNC_REPOSITORY_QUEUE, 1024));
+		AtomicInteger index = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queue), (r) -> {
+					Thread t = new Thread(r, "x7-async-" + name + "-" + index.getAndIncrement());
+					t.setDaemon(true);
+					return t;
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * 带上调用线程的读自己的写标记, MDC<br>
+	 * 队列满时在调用线程执行(CallerRunsPolicy), 所以执行完恢复执行线程原来的MDC, 不能直接清掉
+	 */
+	private static <T> Supplier<T> context(Callable<T> callable) {
+		final Callable<T> wrapped = ReadYourWrites.wrap(callable);
+		final Map<String, Object> mdc = copyMdc();
+		return () -> {
+			Map<String, Object> previous = copyMdc();
+			setMdc(mdc);
+			try {
+				return wrapped.call();
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			} finally {
+				setMdc(previous);
+			}
+		};
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static Map<String, Object> copyMdc() {
+		Hashtable context = MDC.getContext();
+		return context == null ? null : new HashMap<String, Object>(context);
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static void setMdc(Map<String, Object> mdc) {
+		Hashtable context = MDC.getContext();
+		if (context != null) {
+			for (Object key : context.keySet().toArray()) {
+				MDC.remove((String) key);
+			}
+		}
+		if (mdc != null) {
+			for (Map.Entry<String, Object> entry : mdc.entrySet()) {
+				MDC.put(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+}
@@ -23,6 +23,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import x7.core.async.CasualWorker;
 import x7.core.async.IAsyncTask;
@@ -224,6 +225,31 @@ public abstract class BaseRepository<T> implements X7Repository<T> {
 		Repositories.getInstance().remove(obj);
 	}
 
+	@Override
+	public boolean upsert(T obj) {
+		return Repositories.getInstance().upsert(obj);
+	}
+
+	@Override
+	public boolean upsertBatch(List<T> objList) {
+		return Repositories.getInstance().upsertBatch(objList);
+	}
+
+	@Override
+	public boolean refreshBatch(List<T> objList) {
+		return Repositories.getInstance().refreshBatch(objList);
+	}
+
+	@Override
+	public boolean removeBatch(List<T> objList) {
+		return Repositories.getInstance().removeBatch(objList);
+	}
+
+	@Override
+	public boolean removeByIds(List<? extends Object> idList) {
+		return Repositories.getInstance().removeByIds(clz, idList);
+	}
+
 	@Override
 	public T get(long idOne) {
 
@@ -302,6 +328,12 @@ public abstract class BaseRepository<T> implements X7Repository<T> {
 		return Repositories.getInstance().find(criteria);
 	}
 
+	@Override
+	public void stream(Criteria criteria, Consumer<T> consumer) {
+
+		Repositories.getInstance().stream(criteria, consumer);
+	}
+
 	public static class HealthChecker {
 
 		private static List<BaseRepository> repositoryList = new ArrayList<BaseRepository>();
@@ -25,6 +25,37 @@ public interface ConfigKey{
 	String SHARDING_POLICY = "x7.db.sharding.policy";
 	String DB_NAMING_SPEC = "x7.db.naming.spec";
 	String DB_NAMING_PREFIX = "x7.db.naming.prefix";
+	String STREAM_FETCH_SIZE = "x7.db.stream.fetchSize";
+	String QUERY_THREADS = "x7.db.query.threads";
+	String BATCH_BYTES = "x7.db.batch.bytes";
+	String BATCH_ROWS = "x7.db.batch.rows";
+	String BATCH_COMMIT = "x7.db.batch.commit";
+	String COUNT_WINDOW = "x7.db.count.window";
+	String COUNT_CACHE_SECOND = "x7.db.count.cache.second";
+	String COUNT_ESTIMATE_THRESHOLD = "x7.db.count.estimate.threshold";
+	String STATEMENT_CACHE_SIZE = "x7.db.statement.cache.size";
+	String PREPARE_SERVER = "x7.db.prepare.server";
+	String READ_EJECT_ERRORS = "x7.db.read.eject.errors";
+	String READ_EJECT_MS = "x7.db.read.eject.ms";
+	String READ_CONNECTION_TIMEOUT = "x7.db.read.connection.timeout";
+	String READ_STICKY_MS = "x7.db.read.sticky.ms";
+	String READ_GTID = "x7.db.read.gtid";
+	String METRICS = "x7.db.metrics";
+	String SLOW_MS = "x7.db.slow.ms";
+	String SLOW_EXPLAIN_RATE = "x7.db.slow.explain.rate";
+	String SLOW_SIZE = "x7.db.slow.size";
+	String ASYNC_FLUSHERS = "x7.async.flushers";
+	String ASYNC_FLUSH_MS = "x7.async.flush.ms";
+	String ASYNC_BATCH_ROWS = "x7.async.batch.rows";
+	String ASYNC_MAX_PENDING = "x7.async.max.pending";
+	String ASYNC_JOURNAL_DIR = "x7.async.journal.dir";
+	String ASYNC_JOURNAL_FSYNC_MS = "x7.async.journal.fsync.ms";
+	String ASYNC_JOURNAL_SEGMENT_MB = "x7.async.journal.segment.mb";
+	String ASYNC_REPOSITORY_THREADS = "x7.repository.async.threads";
+	String ASYNC_REPOSITORY_QUEUE = "x7.repository.async.queue";
+	String SINGLE_FLIGHT = "x7.repository.singleflight";
+	String LEASE = "x7.repository.lease";
+	String LEASE_WAIT_MS = "x7.repository.lease.wait.ms";
 	
 
 //	x7.repository.dataSourceType
@@ -18,12 +18,15 @@ package x7.repository;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import org.apache.log4j.Logger;
 
@@ -35,6 +38,7 @@ import x7.core.repository.CacheException;
 import x7.core.repository.ICacheResolver;
 import x7.core.repository.Repository;
 import x7.core.repository.X;
+import x7.core.util.InUtil;
 import x7.core.web.Direction;
 import x7.core.web.Pagination;
 import x7.repository.dao.Dao;
@@ -103,6 +107,8 @@ public class Repositories implements Repository {
 			keySet.add(key);
 		}
 
+		Map<String, Object> cacheMap = new LinkedHashMap<String, Object>();
+		boolean isMissed = false;
 		for (String key : keyList) {
 			if (!keySet.contains(key)) {
 
@@ -141,16 +147,24 @@ public class Repositories implements Repository {
 				 * 更新或重置缓存
 				 */
 				if (obj == null) {
-					if (cacheResolver != null && !parsed.isNoCache())
-						cacheResolver.markForRefresh(clz);
+					isMissed = true;
 				} else {
 					list.add(obj);
-					if (cacheResolver != null && !parsed.isNoCache())
-						cacheResolver.set(clz, key, obj);
+					cacheMap.put(key, obj);
 				}
 			}
 		}
 
+		replenishCache(clz, parsed, cacheMap, isMissed);
+	}
+
+	/**
+	 * 补回缓存, 一次往返; 有没查到的, 标记缓存要更新
+	 */
+	private void replenishCache(Class clz, Parsed parsed, Map<String, Object> cacheMap, boolean isMissed) {
+		if (cacheResolver == null || parsed.isNoCache())
+			return;
+		cacheResolver.set(clz, cacheMap, isMissed);
 	}
 
 	private <T> void replenishAndRefreshCache_In_KeyOne(List<? extends Object> inList, List<T> list, Class<T> clz,
@@ -170,25 +184,25 @@ public class Repositories implements Repository {
 
 		List<T> replenishedList = this.syncDao.in(parsed.getClz(),null, inList);
 
+		Map<String, Object> cacheMap = new LinkedHashMap<String, Object>();
+		boolean isMissed = false;
 		for (T obj : replenishedList) {
 			if (obj == null) {
-				if (cacheResolver != null && !parsed.isNoCache())
-					cacheResolver.markForRefresh(clz);
+				isMissed = true;
 			} else {
 				list.add(obj);
-				if (cacheResolver != null && !parsed.isNoCache()) {
-					Field keyOneField = parsed.getKeyField(X.KEY_ONE);
-					Object keyO = null;
-					try {
-						keyO = keyOneField.get(obj);
-					} catch (IllegalArgumentException | IllegalAccessException e) {
-						throw new CacheException("IllegalArgumentException");
-					}
-					cacheResolver.set(clz, keyO.toString(), obj);
+				Field keyOneField = parsed.getKeyField(X.KEY_ONE);
+				Object keyO = null;
+				try {
+					keyO = keyOneField.get(obj);
+				} catch (IllegalArgumentException | IllegalAccessException e) {
+					throw new CacheException("IllegalArgumentException");
 				}
+				cacheMap.put(keyO.toString(), obj);
 			}
 		}
 
+		replenishCache(clz, parsed, cacheMap, isMissed);
 	}
 
 	private <T> List<T> sort(List<String> keyList, List<T> list, Parsed parsed) {
@@ -235,12 +249,7 @@ public class Repositories implements Repository {
 			flag = syncDao.refresh(obj);
 		}
 		if (flag) {
-			String key = getCacheKey(obj, parsed);
-			if (cacheResolver != null && !parsed.isNoCache()) {
-				if (key != null)
-					cacheResolver.remove(clz, key);
-				cacheResolver.markForRefresh(clz);
-			}
+			removeCache(clz, parsed, Collections.singletonList(obj), false);
 		}
 		return flag;
 	}
@@ -251,17 +260,12 @@ public class Repositories implements Repository {
 		boolean flag = false;
 		Class clz = obj.getClass();
 		Parsed parsed = Parser.get(clz);
-		String key = getCacheKey(obj, parsed);
 		if (parsed.isSharding()) {
 			flag = shardingDao.refresh(obj, conditionMap);
 		} else {
 			flag = syncDao.refresh(obj, conditionMap);
 		}
-		if (cacheResolver != null && !parsed.isNoCache()) {
-			if (key != null)
-				cacheResolver.remove(clz, key);
-			cacheResolver.markForRefresh(clz);
-		}
+		removeCache(clz, parsed, Collections.singletonList(obj), false);
 		return flag;
 	}
 
@@ -284,20 +288,82 @@ public class Repositories implements Repository {
 		boolean flag = false;
 		Class clz = obj.getClass();
 		Parsed parsed = Parser.get(clz);
-		String key = getCacheKey(obj, parsed);
 		if (parsed.isSharding()) {
 			shardingDao.remove(obj);// FIXME
 		} else {
 			flag = syncDao.remove(obj);
 		}
-		if (cacheResolver != null && !parsed.isNoCache()) {
-			if (key != null)
-				cacheResolver.remove(clz, key);
-			cacheResolver.markForRefresh(clz);
+		removeCache(clz, parsed, Collections.singletonList(obj), false);
+		return flag;
+	}
+
+	@Override
+	public boolean refreshBatch(List<? extends Object> objList) {
+		if (objList == null || objList.isEmpty())
+			return false;
+		testAvailable();
+		Class clz = objList.get(0).getClass();
+		Parsed parsed = Parser.get(clz);
+		boolean flag = false;
+		if (parsed.isSharding()) {
+			flag = shardingDao.refreshBatch(objList);
+		} else {
+			flag = syncDao.refreshBatch(objList);
+		}
+		if (flag) {
+			removeCache(clz, parsed, objList, false);
+		}
+		return flag;
+	}
+
+	@Override
+	public boolean removeBatch(List<? extends Object> objList) {
+		if (objList == null || objList.isEmpty())
+			return false;
+		testAvailable();
+		Class clz = objList.get(0).getClass();
+		Parsed parsed = Parser.get(clz);
+		boolean flag = false;
+		if (parsed.isSharding()) {
+			flag = shardingDao.removeBatch(objList);
+		} else {
+			flag = syncDao.removeBatch(objList);
 		}
+		removeCache(clz, parsed, objList, false);
 		return flag;
 	}
 
+	@Override
+	public <T> boolean removeByIds(Class<T> clz, List<? extends Object> idList) {
+		if (idList == null || idList.isEmpty())
+			return false;
+		testAvailable();
+		Parsed parsed = Parser.get(clz);
+		boolean flag = false;
+		if (parsed.isSharding()) {
+			flag = shardingDao.removeByIds(clz, idList);
+		} else {
+			flag = syncDao.removeByIds(clz, idList);
+		}
+		removeCache(clz, parsed, idList, true);
+		return flag;
+	}
+
+	/**
+	 * 批量删除缓存, 并标记缓存要更新, 一次往返
+	 */
+	private void removeCache(Class clz, Parsed parsed, List<? extends Object> list, boolean isId) {
+		if (cacheResolver == null || parsed.isNoCache())
+			return;
+		List<String> keyList = new ArrayList<String>();
+		for (Object obj : list) {
+			String key = isId ? String.valueOf(obj) : getCacheKey(obj, parsed);
+			if (key != null)
+				keyList.add(key);
+		}
+		cacheResolver.remove(clz, keyList);
+	}
+
 	@Override
 	public <T> T get(Class<T> clz, long idOne) {
 		testAvailable();
@@ -315,17 +381,33 @@ public class Repositories implements Repository {
 		T obj = cacheResolver.get(clz, key);
 
 		if (obj == null) {
-			if (parsed.isSharding()) {
-				obj = shardingDao.get(clz, idOne);
-			} else {
-				obj = syncDao.get(clz, idOne);
-			}
-			cacheResolver.set(clz, key, obj);
+			obj = SingleFlight.getInstance().load(clz, key, () -> cacheResolver.get(clz, key), () -> {
+				T t;
+				if (parsed.isSharding()) {
+					t = shardingDao.get(clz, idOne);
+				} else {
+					t = syncDao.get(clz, idOne);
+				}
+				cacheResolver.set(clz, key, t);
+				return t;
+			});
 		}
 
 		return obj;
 	}
 
+	/**
+	 * 只查缓存, 没有缓存或没有命中时返回null
+	 */
+	protected <T> T getCached(Class<T> clz, long idOne) {
+		if (cacheResolver == null)
+			return null;
+		Parsed parsed = Parser.get(clz);
+		if (parsed.isNoCache())
+			return null;
+		return cacheResolver.get(clz, String.valueOf(idOne));
+	}
+
 	@Override
 	public <T> List<T> list(Object conditionObj) {
 		testAvailable();
@@ -343,8 +425,6 @@ public class Repositories implements Repository {
 			}
 		}
 
-		List<T> list = null;
-
 		String condition = conditionObj.toString();
 
 		List<String> keyList = cacheResolver.getResultKeyList(clz, condition);
@@ -352,32 +432,68 @@ public class Repositories implements Repository {
 		if (keyList == null || keyList.isEmpty()) {
 			if (parsed.isSharding()) {
 				throw new ShardingException("Sharding not supported");
-			} else {
-				list = syncDao.list(conditionObj);
 			}
+			return copy(SingleFlight.getInstance().load(clz, condition, () -> listCached(clz, parsed, condition), () -> {
+				List<T> list = syncDao.list(conditionObj);
 
-			keyList = new ArrayList<String>();
-
-			for (T t : list) {
-				String key = getCacheKey(t, parsed);
-				keyList.add(key);
-			}
+				List<String> kl = new ArrayList<String>();
+				for (T t : list) {
+					String key = getCacheKey(t, parsed);
+					kl.add(key);
+				}
 
-			cacheResolver.setResultKeyList(clz, condition, keyList);
+				cacheResolver.setResultKeyList(clz, condition, kl);
 
-			return list;
+				return list;
+			}));
 		}
 
-		list = cacheResolver.list(clz, keyList);
+		return listByKeyList(clz, parsed, keyList);
+	}
+
+	/**
+	 * SingleFlight合并的结果是同一个对象, 调用方常会修改, 每个调用方拿一份浅拷贝
+	 */
+	private static <T> List<T> copy(List<T> list) {
+		return list == null ? null : new ArrayList<T>(list);
+	}
+
+	private static <T> Pagination<T> copy(Pagination<T> p) {
+		if (p == null)
+			return null;
+		Pagination<T> c = new Pagination<T>(p);
+		c.setPage(p.getPage());
+		c.setTotalRows(p.getTotalRows());
+		c.setContinuation(p.getContinuation());
+		c.setCountStrategy(p.getCountStrategy());
+		c.setTag(p.getTag());
+		c.setKeyList(copy(p.getKeyList()));
+		c.setList(copy(p.getList()));
+		return c;
+	}
+
+	/**
+	 * 只查缓存, 没有命中返回null
+	 */
+	private <T> List<T> listCached(Class<T> clz, Parsed parsed, String condition) {
+		List<String> keyList = cacheResolver.getResultKeyList(clz, condition);
+		if (keyList == null || keyList.isEmpty())
+			return null;
+		return listByKeyList(clz, parsed, keyList);
+	}
+
+	/**
+	 * 按缓存的keyList取对象, 缓存里没有的查库补上
+	 */
+	private <T> List<T> listByKeyList(Class<T> clz, Parsed parsed, List<String> keyList) {
+		List<T> list = cacheResolver.list(clz, keyList);
 
 		if (keyList.size() == list.size())
 			return list;
 
 		replenishAndRefreshCache(keyList, list, clz, parsed);
 
-		List<T> sortedList = sort(keyList, list, parsed);
-
-		return sortedList;
+		return sort(keyList, list, parsed);
 	}
 
 	@Override
@@ -472,57 +588,57 @@ public class Repositories implements Repository {
 			}
 		}
 
-		List<T> list = null;
-
 		String condition = criteria.toString();
 
 		Pagination<T> p = cacheResolver.getResultKeyListPaginated(clz, condition);// FIXME
 
 		if (p == null) {
-			if (parsed.isSharding()) {
-				p = shardingDao.find(criteria);
-			} else {
-				p = syncDao.find(criteria);
-			}
+			return copy(SingleFlight.getInstance().load(clz, condition, () -> {
+				Pagination<T> cp = cacheResolver.getResultKeyListPaginated(clz, condition);
+				return cp == null ? null : fill(clz, parsed, cp);
+			}, () -> {
+				Pagination<T> lp;
+				if (parsed.isSharding()) {
+					lp = shardingDao.find(criteria);
+				} else {
+					lp = syncDao.find(criteria);
+				}
 
-			list = p.getList(); // 结果
+				List<T> list = lp.getList(); // 结果
 
-			List<String> keyList = p.getKeyList();
+				List<String> keyList = lp.getKeyList();
 
-			for (T t : list) {
+				for (T t : list) {
 
-				String key = getCacheKey(t, parsed);
-				keyList.add(key);
-			}
+					String key = getCacheKey(t, parsed);
+					keyList.add(key);
+				}
 
-			p.setList(null);
+				lp.setList(null);
 
-			cacheResolver.setResultKeyListPaginated(clz, condition, p, 10);
+				cacheResolver.setResultKeyListPaginated(clz, condition, lp, 10);
 
-			p.setKeyList(null);
-			p.setList(list);
+				lp.setKeyList(null);
+				lp.setList(list);
 
-			return p;
+				return lp;
+			}));
 		}
 
+		return fill(clz, parsed, p);
+	}
+
+	/**
+	 * 按缓存的分页keyList填充list
+	 */
+	private <T> Pagination<T> fill(Class<T> clz, Parsed parsed, Pagination<T> p) {
 		List<String> keyList = p.getKeyList();
 
 		if (keyList == null || keyList.isEmpty()) {
 			return p;
 		}
 
-		list = cacheResolver.list(clz, keyList);
-
-		if (keyList.size() == list.size()) {
-			p.setList(list);
-			return p;
-		}
-
-		replenishAndRefreshCache(keyList, list, clz, parsed);
-
-		List<T> sortedList = sort(keyList, list, parsed);
-
-		p.setList(sortedList);
+		p.setList(listByKeyList(clz, parsed, keyList));
 
 		return p;
 	}
@@ -540,8 +656,6 @@ public class Repositories implements Repository {
 			}
 		}
 
-		List<T> list = null;
-
 		String condition = "loadAll";
 
 		List<String> keyList = cacheResolver.getResultKeyList(clz, condition);
@@ -550,32 +664,23 @@ public class Repositories implements Repository {
 			if (parsed.isSharding()) {
 				throw new ShardingException(
 						"Sharding not supported: List<T> list(Class<T> clz, String sql, List<Object> conditionList)");
-			} else {
-				list = syncDao.list(clz);
 			}
+			return copy(SingleFlight.getInstance().load(clz, condition, () -> listCached(clz, parsed, condition), () -> {
+				List<T> list = syncDao.list(clz);
 
-			keyList = new ArrayList<String>();
-
-			for (T t : list) {
-				String key = getCacheKey(t, parsed);
-				keyList.add(key);
-			}
+				List<String> kl = new ArrayList<String>();
+				for (T t : list) {
+					String key = getCacheKey(t, parsed);
+					kl.add(key);
+				}
 
-			cacheResolver.setResultKeyList(clz, condition, keyList);
+				cacheResolver.setResultKeyList(clz, condition, kl);
 
-			return list;
+				return list;
+			}));
 		}
 
-		list = cacheResolver.list(clz, keyList);// FIXME 可能要先转Object
-
-		if (keyList.size() == list.size())
-			return list;
-
-		replenishAndRefreshCache(keyList, list, clz, parsed);
-
-		List<T> sortedList = sort(keyList, list, parsed);
-
-		return sortedList;
+		return listByKeyList(clz, parsed, keyList);// FIXME 可能要先转Object
 	}
 
 
@@ -654,20 +759,11 @@ public class Repositories implements Repository {
 	public <T> List<T> in(Class<T> clz, String inProperty, List<? extends Object> allList) {
 		testAvailable();
 		
-		List<Object> inList = new ArrayList<Object>();
-
-		for (Object obj : allList) {
-			if (Objects.isNull(obj))
-				continue;
-			if (!inList.contains(obj)) {
-				inList.add(obj);
-			}
-		}
+		List<Object> inList = InUtil.distinct(allList);
 		
 		Parsed parsed = Parser.get(clz);
 		if (parsed.isSharding()) {
-			throw new ShardingException(
-					"Sharding not supported now: in(Class<T> clz, String inProperty, List<Object> inList)");
+			return shardingDao.in(clz, inProperty, inList);
 		}
 
 		if (cacheResolver == null || parsed.isNoCache()) {
@@ -752,6 +848,43 @@ public class Repositories implements Repository {
 		return this.syncDao.createBatch(list);
 	}
 
+	@Override
+	public boolean upsert(Object obj) {
+		List<Object> list = new ArrayList<Object>();
+		list.add(obj);
+		return upsertBatch(list);
+	}
+
+	@Override
+	public boolean upsertBatch(List<? extends Object> objList) {
+		if (objList == null || objList.isEmpty())
+			return false;
+		testAvailable();
+		Class clz = objList.get(0).getClass();
+		Parsed parsed = Parser.get(clz);
+		boolean flag = false;
+		if (parsed.isSharding()) {
+			flag = shardingDao.upsertBatch(objList);
+		} else {
+			flag = syncDao.upsertBatch(objList);
+		}
+		removeCache(clz, parsed, objList, false);
+		return flag;
+	}
+
+	@Override
+	public <T> void stream(Criteria criteria, Consumer<T> consumer) {
+		testAvailable();
+		Class clz = criteria.getClz();
+		Parsed parsed = Parser.get(clz);
+
+		if (parsed.isSharding()) {
+			shardingDao.stream(criteria, consumer);
+		} else {
+			syncDao.stream(criteria, consumer);
+		}
+	}
+
 	protected List<Map<String, Object>> list(Class clz, String sql, List<Object> conditionList) {
 		
 		Parsed parsed = Parser.get(clz);
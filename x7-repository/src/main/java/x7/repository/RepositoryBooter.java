@@ -21,6 +21,7 @@ import java.util.List;
 
 import x7.core.config.Configs;
 import x7.repository.BaseRepository.HealthChecker;
+import x7.repository.dao.DaoImpl;
 import x7.repository.dao.DaoInitializer;
 import x7.repository.dao.DaoWrapper;
 import x7.repository.dao.ShardingDaoImpl;
@@ -116,6 +117,7 @@ public class RepositoryBooter {
 		
 		if (Configs.isTrue(ConfigKey.IS_CACHEABLE)){
 			Repositories.getInstance().setCacheResolver(CacheResolver.getInstance());
+			DaoImpl.getInstance().setCacheResolver(CacheResolver.getInstance());
 		}
 	}
 	
@@ -0,0 +1,319 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+
+import x7.core.bean.Accessors;
+import x7.core.bean.BeanElement;
+import x7.core.bean.Parsed;
+import x7.core.bean.Parser;
+import x7.core.util.JsonX;
+import x7.core.util.StringUtil;
+import x7.repository.exception.SqlTypeException;
+
+/**
+ * 每个实体类编译一次的行解码器, 取代逐列的反射赋值<br>
+ * 列下标按ResultSetMetaData的形状解析一次, 之后按下标读取
+ *
+ * @author Sim
+ */
+public class RowDecoder<T> {
+
+	private final static int MAX_SHAPES = 64;
+
+	@SuppressWarnings("rawtypes")
+	private final static Map<Class, RowDecoder> map = new ConcurrentHashMap<Class, RowDecoder>();
+
+	@SuppressWarnings("unchecked")
+	public static <T> RowDecoder<T> get(Class<T> clz) {
+		RowDecoder<T> decoder = map.get(clz);
+		if (decoder == null) {
+			decoder = new RowDecoder<T>(clz, Parser.get(clz));
+			map.put(clz, decoder);
+		}
+		return decoder;
+	}
+
+	private final Class<T> clz;
+	private final Supplier<Object> constructor;
+	private final BeanElement[] eles;
+	private final Reader[] readers;
+	private final Map<String, Bound<T>> shapeMap = new ConcurrentHashMap<String, Bound<T>>();
+
+	private RowDecoder(Class<T> clz, Parsed parsed) {
+		this.clz = clz;
+		this.constructor = Accessors.constructor(clz);
+		List<BeanElement> list = parsed.getBeanElementList();
+		this.eles = list.toArray(new BeanElement[list.size()]);
+		this.readers = new Reader[eles.length];
+		boolean isOracle = DbType.ORACLE.equals(DbType.value);
+		for (int i = 0; i < eles.length; i++) {
+			readers[i] = compile(eles[i], isOracle);
+		}
+	}
+
+	/**
+	 * 按结果集的列形状, 取得已解析下标的解码器
+	 */
+	public Bound<T> bind(ResultSet rs) throws SQLException {
+
+		ResultSetMetaData rsmd = rs.getMetaData();
+		int count = rsmd.getColumnCount();
+		String[] labels = new String[count];
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			labels[i] = rsmd.getColumnLabel(i + 1);
+			sb.append(labels[i]).append(",");
+		}
+		String shape = sb.toString();
+
+		Bound<T> bound = shapeMap.get(shape);
+		if (bound != null)
+			return bound;
+
+		Map<String, Integer> indexMap = new HashMap<String, Integer>();
+		for (int i = count - 1; i >= 0; i--) {
+			indexMap.put(labels[i].toLowerCase(), i + 1);
+		}
+
+		int[] indexes = new int[eles.length];
+		for (int i = 0; i < eles.length; i++) {
+			Integer index = indexMap.get(eles[i].getMapper().toLowerCase());
+			if (index == null)
+				throw new SqlTypeException("clz:" + clz + ", property: " + eles[i].getProperty()
+						+ ", no column: " + eles[i].getMapper());
+			indexes[i] = index;
+		}
+
+		bound = new Bound<T>(this, indexes);
+		if (shapeMap.size() < MAX_SHAPES) {
+			shapeMap.put(shape, bound);
+		}
+		return bound;
+	}
+
+	public static class Bound<T> {
+
+		private final RowDecoder<T> decoder;
+		private final int[] indexes;
+
+		private Bound(RowDecoder<T> decoder, int[] indexes) {
+			this.decoder = decoder;
+			this.indexes = indexes;
+		}
+
+		@SuppressWarnings("unchecked")
+		public T decode(ResultSet rs) {
+			T obj = (T) decoder.constructor.get();
+			decodeInto(obj, rs);
+			return obj;
+		}
+
+		public void decodeInto(T obj, ResultSet rs) {
+			Reader[] readers = decoder.readers;
+			int i = 0;
+			try {
+				for (; i < readers.length; i++) {
+					readers[i].read(rs, indexes[i], obj);
+				}
+			} catch (Exception e) {
+				BeanElement ele = decoder.eles[i];
+				Object value = null;
+				try {
+					value = rs.getObject(indexes[i]);
+				} catch (Exception ex) {
+				}
+				throw new SqlTypeException("clz:" + decoder.clz + ", property: " + ele.getProperty() + ", type:"
+						+ ele.geneType + ", value; " + value);
+			}
+		}
+	}
+
+	private interface Reader {
+		void read(ResultSet rs, int index, Object obj) throws SQLException;
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static Reader compile(BeanElement ele, boolean isOracle) {
+
+		final Class type = ele.clz;
+
+		if (type == Boolean.class && isOracle) {
+			final BiConsumer<Object, Object> setter = Accessors.setter(ele.setMethod);
+			return (rs, index, obj) -> setter.accept(obj, rs.getInt(index) == 1);
+		}
+
+		if (type.isEnum()) {
+			final BiConsumer<Object, Object> setter = Accessors.setter(ele.setMethod);
+			final Map<String, Object> constantMap = new HashMap<String, Object>();
+			for (Object e : type.getEnumConstants()) {
+				constantMap.put(((Enum) e).name(), e);
+			}
+			return (rs, index, obj) -> {
+				String str = rs.getString(index);
+				if (str == null)
+					return;
+				Object e = constantMap.get(str);
+				if (e == null) {
+					e = Enum.valueOf(type, str);
+				}
+				setter.accept(obj, e);
+			};
+		}
+
+		if (ele.isJson) {
+			final BiConsumer<Object, Object> setter = Accessors.setter(ele.setMethod);
+			if (type == Map.class) {
+				return (rs, index, obj) -> {
+					String str = rs.getString(index);
+					if (StringUtil.isNullOrEmpty(str))
+						return;
+					setter.accept(obj, JsonX.toMap(str));
+				};
+			}
+			if (type == List.class) {
+				final Class geneType = ele.geneType;
+				return (rs, index, obj) -> {
+					String str = rs.getString(index);
+					if (StringUtil.isNullOrEmpty(str))
+						return;
+					setter.accept(obj, JsonX.toList(str, geneType));
+				};
+			}
+			return (rs, index, obj) -> {
+				String str = rs.getString(index);
+				if (StringUtil.isNullOrEmpty(str))
+					return;
+				setter.accept(obj, JsonX.toObject(str, type));
+			};
+		}
+
+		if (type == BigDecimal.class) {
+			final BiConsumer<Object, Object> setter = Accessors.setter(ele.setMethod);
+			return (rs, index, obj) -> {
+				BigDecimal v = rs.getBigDecimal(index);
+				if (v != null)
+					setter.accept(obj, v);
+			};
+		}
+
+		if (type == long.class) {
+			final ObjLongConsumer<Object> setter = Accessors.longSetter(ele.setMethod);
+			return (rs, index, obj) -> {
+				long v = rs.getLong(index);
+				if (!rs.wasNull())
+					setter.accept(obj, v);
+			};
+		}
+
+		if (type == int.class) {
+			final ObjIntConsumer<Object> setter = Accessors.intSetter(ele.setMethod);
+			return (rs, index, obj) -> {
+				int v = rs.getInt(index);
+				if (!rs.wasNull())
+					setter.accept(obj, v);
+			};
+		}
+
+		if (type == double.class) {
+			final ObjDoubleConsumer<Object> setter = Accessors.doubleSetter(ele.setMethod);
+			return (rs, index, obj) -> {
+				double v = rs.getDouble(index);
+				if (!rs.wasNull())
+					setter.accept(obj, v);
+			};
+		}
+
+		final BiConsumer<Object, Object> setter = Accessors.setter(ele.setMethod);
+
+		if (type == Long.class) {
+			return (rs, index, obj) -> {
+				long v = rs.getLong(index);
+				if (!rs.wasNull())
+					setter.accept(obj, v);
+			};
+		}
+		if (type == Integer.class) {
+			return (rs, index, obj) -> {
+				int v = rs.getInt(index);
+				if (!rs.wasNull())
+					setter.accept(obj, v);
+			};
+		}
+		if (type == Double.class) {
+			return (rs, index, obj) -> {
+				double v = rs.getDouble(index);
+				if (!rs.wasNull())
+					setter.accept(obj, v);
+			};
+		}
+		if (type == boolean.class || type == Boolean.class) {
+			return (rs, index, obj) -> {
+				boolean v = rs.getBoolean(index);
+				if (!rs.wasNull())
+					setter.accept(obj, v);
+			};
+		}
+		if (type == float.class || type == Float.class) {
+			return (rs, index, obj) -> {
+				float v = rs.getFloat(index);
+				if (!rs.wasNull())
+					setter.accept(obj, v);
+			};
+		}
+		if (type == short.class || type == Short.class) {
+			return (rs, index, obj) -> {
+				short v = rs.getShort(index);
+				if (!rs.wasNull())
+					setter.accept(obj, v);
+			};
+		}
+		if (type == byte.class || type == Byte.class) {
+			return (rs, index, obj) -> {
+				byte v = rs.getByte(index);
+				if (!rs.wasNull())
+					setter.accept(obj, v);
+			};
+		}
+		if (type == String.class) {
+			return (rs, index, obj) -> {
+				String v = rs.getString(index);
+				if (v != null)
+					setter.accept(obj, v);
+			};
+		}
+
+		return (rs, index, obj) -> {
+			Object v = rs.getObject(index);
+			if (v != null)
+				setter.accept(obj, v);
+		};
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import x7.core.config.Configs;
+import x7.core.util.VerifyUtil;
+import x7.repository.dao.ReadYourWrites;
+import x7.repository.dao.Tx;
+import x7.repository.redis.JedisConnector_Persistence;
+
+/**
+ * 缓存未命中时合并加载, 防止热点失效或markForRefresh后同时查库<br>
+ * 进程内(x7.repository.singleflight, 默认true): 同一个key同时只有一个线程查库, 其它线程等它的结果, 拿到的是同一个对象; Repositories的list/find再给每个调用方一份浅拷贝<br>
+ * 跨节点(x7.repository.lease=true): 先抢Redis租约(JedisConnector_Persistence.lock, 3秒过期), 抢不到的节点每20毫秒查一次缓存,
+ * 最多等x7.repository.lease.wait.ms(默认200), 还没有就自己查库<br>
+ * 业务事务里, 或读自己的写期间, 不合并
+ * 
+ * @author Sim
+ */
+public class SingleFlight {
+
+	private final static long POLL_MS = 20;
+
+	private static SingleFlight instance;
+
+	public static SingleFlight getInstance() {
+		if (instance == null) {
+			instance = new SingleFlight();
+		}
+		return instance;
+	}
+
+	private final ConcurrentHashMap<String, CompletableFuture<Object>> flightMap = new ConcurrentHashMap<String, CompletableFuture<Object>>();
+
+	private final LongAdder loads = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder leaseAcquired = new LongAdder();
+	private final LongAdder leaseWaitHit = new LongAdder();
+	private final LongAdder leaseTimeout = new LongAdder();
+
+	private SingleFlight() {
+	}
+
+	public boolean isEnabled() {
+		return Configs.isTrue(ConfigKey.SINGLE_FLIGHT, true);
+	}
+
+	public boolean isLease() {
+		return Configs.isTrue(ConfigKey.LEASE, false);
+	}
+
+	/**
+	 * @param cached
+	 *            只查缓存, 没有返回null; 等租约时用
+	 * @param loader
+	 *            查库并写缓存
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T load(Class<?> clz, String key, Supplier<T> cached, Supplier<T> loader) {
+		if (!isEnabled() || Tx.current() != null || ReadYourWrites.isSticky(clz)) {
+			loads.increment();
+			return loader.get();
+		}
+
+		String flightKey = clz.getName() + ":" + key;
+		CompletableFuture<Object> future = new CompletableFuture<Object>();
+		CompletableFuture<Object> flight = flightMap.putIfAbsent(flightKey, future);
+		if (flight != null) {
+			coalesced.increment();
+			return (T) join(flight);
+		}
+
+		try {
+			T t = lease(flightKey, cached, loader);
+			future.complete(t);
+			return t;
+		} catch (Throwable e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			flightMap.remove(flightKey, future);
+		}
+	}
+
+	private <T> T lease(String flightKey, Supplier<T> cached, Supplier<T> loader) {
+		if (!isLease()) {
+			loads.increment();
+			return loader.get();
+		}
+
+		String leaseKey = "lease." + VerifyUtil.toMD5(flightKey);
+		JedisConnector_Persistence connector = JedisConnector_Persistence.getInstance();
+		if (connector.lock(leaseKey)) {
+			leaseAcquired.increment();
+			try {
+				loads.increment();
+				return loader.get();
+			} finally {
+				connector.unLock(leaseKey);
+			}
+		}
+
+		long deadline = System.currentTimeMillis() + Configs.getIntValue(ConfigKey.LEASE_WAIT_MS, 200);
+		while (System.currentTimeMillis() < deadline) {
+			try {
+				Thread.sleep(POLL_MS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			T t = cached.get();
+			if (t != null) {
+				leaseWaitHit.increment();
+				return t;
+			}
+		}
+		leaseTimeout.increment();
+		loads.increment();
+		return loader.get();
+	}
+
+	private Object join(CompletableFuture<Object> flight) {
+		try {
+			return flight.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw e;
+		}
+	}
+
+	public Map<String, Object> getStats() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("enabled", isEnabled());
+		map.put("lease", isLease());
+		map.put("inFlight", flightMap.size());
+		map.put("loads", loads.sum());
+		map.put("coalesced", coalesced.sum());
+		map.put("leaseAcquired", leaseAcquired.sum());
+		map.put("leaseWaitHit", leaseWaitHit.sum());
+		map.put("leaseTimeout", leaseTimeout.sum());
+		return map;
+	}
+}
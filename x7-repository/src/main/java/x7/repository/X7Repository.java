@@ -18,6 +18,7 @@ package x7.repository;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import x7.core.bean.Criteria;
 import x7.core.bean.IQuantity;
@@ -53,6 +54,10 @@ public interface X7Repository<T> {
 
 	boolean createBatch(List<T> objList);
 
+	boolean upsert(T obj);
+
+	boolean upsertBatch(List<T> objList);
+
 	long create(T obj);
 
 	void refreshCache();
@@ -73,6 +78,12 @@ public interface X7Repository<T> {
 	 * @param obj
 	 */
 	void remove(T obj);
+	
+	boolean refreshBatch(List<T> objList);
+	
+	boolean removeBatch(List<T> objList);
+	
+	boolean removeByIds(List<? extends Object> idList);
 
 	/**
 	 *
@@ -118,6 +129,15 @@ public interface X7Repository<T> {
 	 */
 	Pagination<Map<String, Object>> find(Criteria.Fetch criteria);
 	
+	/**
+	 * 流式查询, 不分页, 不支持缓存<br>
+	 * 逐行回调consumer, 适合后台任务遍历大表
+	 * 
+	 * @param criteria
+	 * @param consumer
+	 */
+	void stream(Criteria criteria, Consumer<T> consumer);
+	
 	long getMaxId(T conditionObj);
 
 	long getCount(T conditonObj);
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import x7.core.config.Configs;
+import x7.repository.ConfigKey;
+import x7.repository.DbType;
+import x7.repository.dao.BatchResult.Failure;
+import x7.repository.exception.RollbackException;
+
+/**
+ * 批量插入<br>
+ * MySQL改写为多行 INSERT ... VALUES (...),(...), 按字节预算(x7.db.batch.bytes, 须小于max_allowed_packet)
+ * 和行数(x7.db.batch.rows)分块, 自增主键回填到对象; Oracle每块退回addBatch<br>
+ * 没有业务事务时, 默认每块提交, 失败的块回滚并记录, 其余块继续; x7.db.batch.commit=tx时全部成功才提交<br>
+ * 在业务事务里, 任何一块失败都抛出RollbackException<br>
+ * upsert同样分块, 带主键的行主键冲突时更新, 主键为0的行仍是自增插入
+ *
+ * @author Sim
+ */
+public class BatchInserter {
+
+	private final static int MAX_PARAMS = 65535;
+
+	public static BatchResult insert(List<Object> objList, Connection conn, boolean isNoBizTx) {
+		return execute(objList, conn, isNoBizTx, false);
+	}
+
+	public static BatchResult upsert(List<Object> objList, Connection conn, boolean isNoBizTx) {
+		return execute(objList, conn, isNoBizTx, true);
+	}
+
+	private static BatchResult execute(List<Object> objList, Connection conn, boolean isNoBizTx, boolean isUpsert) {
+
+		BatchResult result = new BatchResult();
+		int size = objList.size();
+		result.setTotal(size);
+		if (size == 0)
+			return result;
+
+		ParamBinder binder = ParamBinder.get(objList.get(0).getClass());
+
+		boolean isMultiRow = !DbType.ORACLE.equals(DbType.value);
+		boolean isChunkCommit = isNoBizTx
+				&& !"tx".equalsIgnoreCase(Configs.getString(ConfigKey.BATCH_COMMIT, "chunk"));
+		int maxBytes = Configs.getIntValue(ConfigKey.BATCH_BYTES, 1 << 20);
+		int maxRows = Math.max(1,
+				Math.min(Configs.getIntValue(ConfigKey.BATCH_ROWS, 1000), MAX_PARAMS / binder.getColumnCount()));
+
+		try {
+			conn.setAutoCommit(false);
+		} catch (SQLException e) {
+			throw new RollbackException("RollbackException: " + e.getMessage());
+		}
+
+		int from = 0;
+		while (from < size) {
+
+			/*
+			 * 同一块里要么全部自增, 要么全部带主键, 自增键才能按顺序回填
+			 */
+			boolean isAuto = isAutoIncrement(binder, objList.get(from));
+			int to = from;
+			int bytes = 0;
+			while (to < size && to - from < maxRows) {
+				Object obj = objList.get(to);
+				if (isAutoIncrement(binder, obj) != isAuto)
+					break;
+				int s = binder.estimateSize(obj);
+				if (to > from && bytes + s > maxBytes)
+					break;
+				bytes += s;
+				to++;
+			}
+
+			List<Object> chunk = objList.subList(from, to);
+			try {
+				execute(binder, chunk, conn, isMultiRow, isAuto, isUpsert && !isAuto);
+				if (isChunkCommit) {
+					conn.commit();
+				}
+				result.setSucceeded(result.getSucceeded() + chunk.size());
+			} catch (Exception e) {
+				System.out.println("Exception occured, while " + (isUpsert ? "upsertBatch" : "createBatch")
+						+ ", from: " + from + ", to: " + to);
+				e.printStackTrace();
+				if (!isNoBizTx)
+					throw new RollbackException("RollbackException: " + e.getMessage());
+				rollback(conn);
+				if (!isChunkCommit) {
+					result.setSucceeded(0);
+					result.getFailureList().add(new Failure(0, size, e.getMessage(), new ArrayList<Object>(objList)));
+					return result;
+				}
+				result.getFailureList().add(new Failure(from, to, e.getMessage(), new ArrayList<Object>(chunk)));
+			}
+			from = to;
+		}
+
+		if (isNoBizTx && !isChunkCommit) {
+			try {
+				conn.commit();
+			} catch (SQLException e) {
+				e.printStackTrace();
+				rollback(conn);
+				result.setSucceeded(0);
+				result.getFailureList().add(new Failure(0, size, e.getMessage(), new ArrayList<Object>(objList)));
+			}
+		}
+
+		return result;
+	}
+
+	private static boolean isAutoIncrement(ParamBinder binder, Object obj) {
+		return !binder.isKeyOneString() && binder.getKeyOne(obj) == 0;
+	}
+
+	private static void execute(ParamBinder binder, List<Object> chunk, Connection conn, boolean isMultiRow,
+			boolean isAuto, boolean isUpsert) throws SQLException {
+
+		int rows = isMultiRow ? chunk.size() : 1;
+		String sql = isUpsert ? binder.getUpsertSql(rows) : binder.getCreateSql(rows);
+
+		PreparedStatement pstmt = null;
+		try {
+			if (isAuto) {
+				pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+			} else {
+				pstmt = conn.prepareStatement(sql);
+			}
+
+			if (isMultiRow) {
+				int i = 1;
+				for (Object obj : chunk) {
+					i = binder.bindCreate(pstmt, obj, i);
+				}
+				pstmt.executeUpdate();
+			} else {
+				for (Object obj : chunk) {
+					binder.bindCreate(pstmt, obj, 1);
+					pstmt.addBatch();
+				}
+				pstmt.executeBatch();
+			}
+
+			if (isAuto) {
+				ResultSet rs = pstmt.getGeneratedKeys();
+				int k = 0;
+				while (rs.next() && k < chunk.size()) {
+					binder.setKeyOne(chunk.get(k++), rs.getLong(1));
+				}
+				rs.close();
+			}
+		} finally {
+			if (pstmt != null) {
+				pstmt.close();
+			}
+		}
+	}
+
+	private static void rollback(Connection conn) {
+		try {
+			conn.rollback();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+}
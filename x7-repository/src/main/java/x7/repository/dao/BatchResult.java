@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量插入的结果, 失败按块记录, 其余块不受影响
+ *
+ * @author Sim
+ */
+public class BatchResult {
+
+	private int total;
+	private int succeeded;
+	private List<Failure> failureList = new ArrayList<Failure>();
+
+	public int getTotal() {
+		return total;
+	}
+
+	public void setTotal(int total) {
+		this.total = total;
+	}
+
+	public int getSucceeded() {
+		return succeeded;
+	}
+
+	public void setSucceeded(int succeeded) {
+		this.succeeded = succeeded;
+	}
+
+	public List<Failure> getFailureList() {
+		return failureList;
+	}
+
+	public boolean isOk() {
+		return failureList.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "BatchResult [total=" + total + ", succeeded=" + succeeded + ", failureList=" + failureList + "]";
+	}
+
+	public static class Failure {
+
+		private int fromIndex;
+		private int toIndex;
+		private String message;
+		private List<Object> objList;
+
+		public Failure(int fromIndex, int toIndex, String message, List<Object> objList) {
+			this.fromIndex = fromIndex;
+			this.toIndex = toIndex;
+			this.message = message;
+			this.objList = objList;
+		}
+
+		/**
+		 * 在原列表里的下标, 包含
+		 */
+		public int getFromIndex() {
+			return fromIndex;
+		}
+
+		/**
+		 * 在原列表里的下标, 不包含
+		 */
+		public int getToIndex() {
+			return toIndex;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		public List<Object> getObjList() {
+			return objList;
+		}
+
+		@Override
+		public String toString() {
+			return "Failure [fromIndex=" + fromIndex + ", toIndex=" + toIndex + ", message=" + message + "]";
+		}
+	}
+}
@@ -18,6 +18,7 @@ package x7.repository.dao;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import x7.core.bean.Criteria;
 import x7.core.web.Direction;
@@ -34,6 +35,24 @@ public interface Dao {
 	long create(Object obj);
 
 	boolean createBatch(List<Object> objList);
+	
+	/**
+	 * 多行INSERT分块插入, 回填自增键, 返回每块的失败
+	 * @param objList
+	 */
+	BatchResult createBatchAndReport(List<Object> objList);
+	
+	/**
+	 * 主键存在则更新全部列, 否则插入
+	 * @param obj
+	 */
+	boolean upsert(Object obj);
+	
+	/**
+	 * 与createBatch同样分块, MySQL: ON DUPLICATE KEY UPDATE, Oracle: MERGE
+	 * @param objList
+	 */
+	boolean upsertBatch(List<? extends Object> objList);
 
 	boolean refresh(Object obj);
 	
@@ -41,6 +60,25 @@ public interface Dao {
 
 	boolean remove(Object obj);
 	
+	/**
+	 * 按更新的列分组, 同组一个JDBC批处理, 全部在一个事务里
+	 * @param objList
+	 */
+	boolean refreshBatch(List<? extends Object> objList);
+	
+	/**
+	 * 按主键批量删除, 一个事务
+	 * @param objList
+	 */
+	boolean removeBatch(List<? extends Object> objList);
+	
+	/**
+	 * 按主键值批量删除, 一个事务
+	 * @param clz
+	 * @param idList
+	 */
+	<T> boolean removeByIds(Class<T> clz, List<? extends Object> idList);
+	
 	/**
 	 * 适合单主键
 	 * @param clz
@@ -75,4 +113,11 @@ public interface Dao {
 	List<Map<String,Object>> list(Criteria.Fetch fetch);
 	
 	<T> Pagination<T> find(Criteria criteria);
-}
\ No newline at end of file
+	
+	/**
+	 * 流式查询, 逐行解码后交给consumer, 不分页
+	 * @param criteria
+	 * @param consumer
+	 */
+	<T> void stream(Criteria criteria, Consumer<T> consumer);
+}
\ No newline at end of file
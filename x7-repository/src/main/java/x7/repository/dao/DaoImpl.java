@@ -16,20 +16,28 @@
  */
 package x7.repository.dao;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 import javax.sql.DataSource;
 
@@ -38,23 +46,29 @@ import com.mysql.jdbc.Statement;
 import x7.core.bean.BeanElement;
 import x7.core.bean.Criteria;
 import x7.core.bean.CriteriaBuilder;
+import x7.core.bean.Keyset;
 import x7.core.bean.Parsed;
 import x7.core.bean.Parser;
+import x7.core.config.Configs;
+import x7.core.repository.ICacheResolver;
 import x7.core.repository.Mapped;
 import x7.core.repository.X;
 import x7.core.util.BeanMapUtil;
-import x7.core.util.BeanUtil;
 import x7.core.util.BeanUtilX;
-import x7.core.util.JsonX;
+import x7.core.util.InUtil;
 import x7.core.util.StringUtil;
+import x7.core.web.CountStrategy;
 import x7.core.web.Direction;
 import x7.core.web.Pagination;
+import x7.repository.ConfigKey;
 import x7.repository.DbType;
-import x7.repository.ResultSetUtil;
+import x7.repository.RowDecoder;
 import x7.repository.exception.PersistenceException;
 import x7.repository.exception.RollbackException;
 import x7.repository.mapper.Mapper;
 import x7.repository.mapper.MapperFactory;
+import x7.repository.monitor.JdbcMetrics;
+import x7.repository.monitor.SlowQueryLog;
 
 /**
  * 
@@ -86,40 +100,60 @@ public class DaoImpl implements Dao {
 		this.dataSource_R = dataSource_R;
 	}
 
+	/**
+	 * 业务事务里, 写用事务的连接, 读从连接池取; 只读事务里, 读用事务在从库的连接
+	 */
 	private Connection getConnection(boolean isRead) throws SQLException {
 		if (dataSource == null) {
 			throw new PersistenceException("NO DataSource");
 		}
-		if (dataSource_R == null) {
 
-			if (!isRead) {
-				if (!Tx.isNoBizTx()) {
-					Connection connection = Tx.getConnection();
-					if (connection == null) {
-						connection = getConnection(dataSource);
-						Tx.add(connection);
-					}
-					return connection;
-				}
-			}
+		DataSource ds = (isRead && dataSource_R != null) ? dataSource_R : dataSource;
 
-			return getConnection(dataSource);
-		}
+		if (Tx.isNoBizTx())
+			return getConnection(ds);
 
-		if (isRead) {
-			return getConnection(dataSource_R);
+		if (Tx.isReadOnly()) {
+			if (!isRead)
+				throw new PersistenceException("Write in read-only Tx");
+			return Tx.getConnection(ds);
 		}
 
-		if (!Tx.isNoBizTx()) {
-			Connection connection = Tx.getConnection();
-			if (connection == null) {
-				connection = getConnection(dataSource);
-				Tx.add(connection);
-			}
-			return connection;
+		if (isRead)
+			return getConnection(ds);
+
+		return Tx.getConnection(dataSource);
+	}
+
+	private Connection getConnection(Class clz, boolean isRead) throws SQLException {
+		if (!isRead) {
+			JdbcMetrics.entity(clz);
+			ReadYourWrites.written(clz);
+			return getConnection(false);
 		}
+		return borrow(clz).conn;
+	}
+
+	/**
+	 * 读自己的写: 写过clz之后的窗口内, 以及业务事务里, 读走主库; 开启gtid时从库追上了就读从库<br>
+	 * 连同连接来自的DataSource一起返回, 慢查询的EXPLAIN在同一个库上执行
+	 */
+	private Borrowed borrow(Class clz) throws SQLException {
+		JdbcMetrics.entity(clz);
+
+		if (dataSource_R == null || Tx.isReadOnly())
+			return new Borrowed(getConnection(true), dataSource_R != null ? dataSource_R : dataSource);
 
-		return getConnection(dataSource);
+		if (Tx.isNoBizTx() && !ReadYourWrites.isSticky(clz))
+			return new Borrowed(getConnection(true), dataSource_R);
+
+		if (ReadYourWrites.isGtid() && Tx.isNoBizTx()) {
+			Connection conn = getConnection(dataSource_R);
+			if (ReadYourWrites.isCaughtUp(clz, conn))
+				return new Borrowed(conn, dataSource_R);
+			close(conn);
+		}
+		return new Borrowed(getConnection(dataSource), dataSource);
 	}
 
 	private Connection getConnection(DataSource ds) throws SQLException {
@@ -143,7 +177,7 @@ public class DaoImpl implements Dao {
 	 */
 	private static void close(Connection conn) {
 		try {
-			if (conn != null) {
+			if (conn != null && !Tx.isTxConnection(conn)) {
 				conn.close();
 			}
 		} catch (SQLException e) {
@@ -151,14 +185,40 @@ public class DaoImpl implements Dao {
 		}
 	}
 
-	private static void close(PreparedStatement pstmt) {
-		if (pstmt != null) {
-			try {
-				pstmt.close();
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
+	/**
+	 * 写完放回连接池: 自动提交的写已经提交, 在这个连接上记下主库的gtid_executed<br>
+	 * 事务里的写由Tx提交后记; 读的连接不记, 否则事务提交前就记下了
+	 */
+	private static void closeWritten(Connection conn) {
+		if (conn != null && !Tx.isTxConnection(conn)) {
+			ReadYourWrites.capture(conn);
 		}
+		close(conn);
+	}
+
+	/**
+	 * 读之前设置autoCommit, 只读事务的连接不动
+	 */
+	private static void autoCommit(Connection conn) throws SQLException {
+		if (!Tx.isTxConnection(conn)) {
+			conn.setAutoCommit(true);
+		}
+	}
+
+	/**
+	 * 放回StatementCache, 不是prepare出来的语句直接关闭
+	 */
+	private static void close(PreparedStatement pstmt) {
+		StatementCache.getInstance().release(pstmt);
+	}
+
+	private static PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+		return StatementCache.getInstance().prepare(conn, sql);
+	}
+
+	private static PreparedStatement prepare(Connection conn, String sql, boolean isGeneratedKeys)
+			throws SQLException {
+		return StatementCache.getInstance().prepare(conn, sql, isGeneratedKeys);
 	}
 
 	@Override
@@ -166,164 +226,301 @@ public class DaoImpl implements Dao {
 
 		if (objList.isEmpty())
 			return false;
-		Object obj = objList.get(0);
-		Class clz = obj.getClass();
 
-		String sql = MapperFactory.getSql(clz, Mapper.CREATE);
+		return createBatchAndReport(objList).isOk();
+	}
 
-		List<BeanElement> eles = MapperFactory.getElementList(clz);
+	@Override
+	public BatchResult createBatchAndReport(List<Object> objList) {
 
-		boolean isNoBizTx = false;
+		if (objList.isEmpty())
+			return new BatchResult();
+
+		boolean isNoBizTx = Tx.isNoBizTx();
 		Connection conn = null;
-		PreparedStatement pstmt = null;
 		try {
-			Parsed parsed = Parser.get(clz);
+			conn = getConnection(objList.get(0).getClass(), false);
+		} catch (SQLException e) {
+			throw new RuntimeException("NO CONNECTION");
+		}
+
+		try {
+			BatchResult result = BatchInserter.insert(objList, conn, isNoBizTx);
+			if (!result.isOk()) {
+				System.out.println("Exception occured, while createBatch: " + result);
+			}
+			return result;
+		} finally {
+			if (isNoBizTx) {
+				closeWritten(conn);
+			}
+		}
+	}
 
-			String keyOne = parsed.getKey(X.KEY_ONE);
+	protected boolean upsertBatch(List<? extends Object> objList, Connection conn) {
 
-			Long keyOneValue = 0L;
-			Field keyOneField = parsed.getKeyField(X.KEY_ONE);
-			Class keyOneType = keyOneField.getType();
-			if (keyOneType != String.class) {
-				keyOneValue = parsed.getKeyField(X.KEY_ONE).getLong(obj);
+		boolean isNoBizTx = Tx.isNoBizTx();
+		try {
+			BatchResult result = BatchInserter.upsert(new ArrayList<Object>(objList), conn, isNoBizTx);
+			if (!result.isOk()) {
+				System.out.println("Exception occured, while upsertBatch: " + result);
+			}
+			return result.isOk();
+		} finally {
+			if (isNoBizTx) {
+				closeWritten(conn);
 			}
+		}
+	}
+
+	@Override
+	public boolean upsert(Object obj) {
+		List<Object> list = new ArrayList<Object>();
+		list.add(obj);
+		return upsertBatch(list);
+	}
+
+	@Override
+	public boolean upsertBatch(List<? extends Object> objList) {
+
+		if (objList == null || objList.isEmpty())
+			return false;
 
-			conn = getConnection(false);
+		Connection conn = null;
+		try {
+			conn = getConnection(objList.get(0).getClass(), false);
+		} catch (SQLException e) {
+			throw new RuntimeException("NO CONNECTION");
+		}
+		return upsertBatch(objList, conn);
+	}
+
+	protected boolean remove(Object obj, Connection conn) {
+
+		Class clz = obj.getClass();
+
+		String sql = MapperFactory.getSql(clz, Mapper.REMOVE);
+
+		boolean flag = false;
+		boolean isNoBizTx = false;
+
+		PreparedStatement pstmt = null;
+		try {
 
 			conn.setAutoCommit(false);
-			if (keyOneType != String.class && (keyOneValue == null || keyOneValue == 0)) {
-				pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-			} else {
-				pstmt = conn.prepareStatement(sql);
-			}
+			pstmt = prepare(conn, sql);
 
 			isNoBizTx = Tx.isNoBizTx();
 			if (!isNoBizTx) {
 				Tx.add(pstmt);
 			}
 
-			for (Object o : objList) {
+			Parsed parsed = Parser.get(clz);
 
-				int i = 1;
+			int i = 1;
 
-				for (BeanElement ele : eles) {
-
-					Object value = ele.getMethod.invoke(o);
-					if (value == null) {
-						if (ele.clz.isEnum())
-							throw new PersistenceException(
-									"ENUM CAN NOT NULL, property:" + clz.getName() + "." + ele.getProperty());
-						if (ele.clz == Boolean.class || ele.clz == Integer.class || ele.clz == Long.class
-								|| ele.clz == Double.class || ele.clz == Float.class || ele.clz == BigDecimal.class
-								|| ele.clz == Byte.class || ele.clz == Short.class)
-							value = 0;
-						pstmt.setObject(i++, value);
-					} else {
-
-						if ( ele.clz == Boolean.class && DbType.ORACLE.equals(DbType.value)){
-							Boolean b = (Boolean)value;
-							pstmt.setObject(i++, b.booleanValue() == true ? 1 : 0);
-						}else if (ele.isJson) {
-							String str = JsonX.toJson(value);
-							pstmt.setObject(i++, str);
-						}else if (ele.clz.isEnum()) {
-							String str = value.toString();
-							pstmt.setObject(i++, str);
-						} else {
-							value = SqlUtil.filter(value);
-							pstmt.setObject(i++, value);
-						}
+			SqlUtil.adpterSqlKey(pstmt, parsed.getKeyField(X.KEY_ONE), obj, i);
 
-					}
+			flag = pstmt.executeUpdate() == 0 ? false : true;
 
+			if (isNoBizTx) {
+				conn.commit();
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			if (isNoBizTx) {
+				try {
+					conn.rollback();
+					e.printStackTrace();
+				} catch (SQLException e1) {
+					e1.printStackTrace();
 				}
+			} else {
+				throw new RollbackException("RollbackException: " + e.getMessage());
+			}
+		} finally {
+			if (isNoBizTx) {
+				close(pstmt);
+				closeWritten(conn);
+			}
+		}
 
-				pstmt.addBatch();
+		return flag;
+	}
 
+	/**
+	 * 按refresh mask分组, 每组一个批处理, 一次提交
+	 */
+	protected boolean refreshBatch(List<? extends Object> objList, Connection conn) {
+
+		Class clz = objList.get(0).getClass();
+
+		ParamBinder binder = ParamBinder.get(clz);
+
+		Map<BitSet, List<Object>> groupMap = new LinkedHashMap<BitSet, List<Object>>();
+		for (Object obj : objList) {
+			BitSet mask = binder.getRefreshMask(obj);
+			if (mask.isEmpty())
+				continue;
+			List<Object> list = groupMap.get(mask);
+			if (list == null) {
+				list = new ArrayList<Object>();
+				groupMap.put(mask, list);
 			}
+			list.add(obj);
+		}
 
-			pstmt.executeBatch();
+		boolean isNoBizTx = Tx.isNoBizTx();
+		try {
+			conn.setAutoCommit(false);
+
+			for (Entry<BitSet, List<Object>> entry : groupMap.entrySet()) {
+				BitSet mask = entry.getKey();
+				PreparedStatement pstmt = prepare(conn, binder.getRefreshSql(mask));
+				if (!isNoBizTx) {
+					Tx.add(pstmt);
+				}
+				try {
+					for (Object obj : entry.getValue()) {
+						int i = binder.bindRefresh(pstmt, obj, mask, 1);
+						binder.bindKey(pstmt, obj, i);
+						pstmt.addBatch();
+					}
+					pstmt.executeBatch();
+				} finally {
+					if (isNoBizTx) {
+						close(pstmt);
+					}
+				}
+			}
 
 			if (isNoBizTx) {
 				conn.commit();
 			}
 
 		} catch (Exception e) {
-			System.out.println("Exception occured, while create: " + obj);
+			System.out.println("Exception occured, while refreshBatch: " + clz.getName());
 			e.printStackTrace();
 			if (isNoBizTx) {
 				try {
 					conn.rollback();
-					e.printStackTrace();
-
 				} catch (SQLException e1) {
 					e1.printStackTrace();
 				}
+				return false;
 			} else {
 				throw new RollbackException("RollbackException: " + e.getMessage());
 			}
 		} finally {
 			if (isNoBizTx) {
-				close(pstmt);
-				close(conn);
+				closeWritten(conn);
 			}
 		}
 
 		return true;
 	}
 
-	protected boolean remove(Object obj, Connection conn) {
-
-		Class clz = obj.getClass();
+	/**
+	 * 按主键批量删除, 一次提交; isId为true时list里是主键值
+	 */
+	protected boolean removeBatch(Class clz, List<? extends Object> list, boolean isId, Connection conn) {
 
 		String sql = MapperFactory.getSql(clz, Mapper.REMOVE);
 
-		boolean flag = false;
-		boolean isNoBizTx = false;
+		ParamBinder binder = ParamBinder.get(clz);
 
+		boolean isNoBizTx = Tx.isNoBizTx();
 		PreparedStatement pstmt = null;
 		try {
-
 			conn.setAutoCommit(false);
-			pstmt = conn.prepareStatement(sql);
+			pstmt = prepare(conn, sql);
 
-			isNoBizTx = Tx.isNoBizTx();
 			if (!isNoBizTx) {
 				Tx.add(pstmt);
 			}
 
-			Parsed parsed = Parser.get(clz);
-
-			int i = 1;
-
-			SqlUtil.adpterSqlKey(pstmt, parsed.getKeyField(X.KEY_ONE), obj, i);
+			for (Object obj : list) {
+				if (isId) {
+					pstmt.setObject(1, obj);
+				} else {
+					binder.bindKey(pstmt, obj, 1);
+				}
+				pstmt.addBatch();
+			}
 
-			flag = pstmt.executeUpdate() == 0 ? false : true;
+			pstmt.executeBatch();
 
 			if (isNoBizTx) {
 				conn.commit();
 			}
 
 		} catch (Exception e) {
+			System.out.println("Exception occured, while removeBatch: " + clz.getName());
 			e.printStackTrace();
 			if (isNoBizTx) {
 				try {
 					conn.rollback();
-					e.printStackTrace();
 				} catch (SQLException e1) {
 					e1.printStackTrace();
 				}
+				return false;
 			} else {
 				throw new RollbackException("RollbackException: " + e.getMessage());
 			}
 		} finally {
 			if (isNoBizTx) {
 				close(pstmt);
-				close(conn);
+				closeWritten(conn);
 			}
 		}
 
-		return flag;
+		return true;
+	}
+
+	@Override
+	public boolean refreshBatch(List<? extends Object> objList) {
+
+		if (objList == null || objList.isEmpty())
+			return false;
+
+		Connection conn = null;
+		try {
+			conn = getConnection(objList.get(0).getClass(), false);
+		} catch (SQLException e) {
+			throw new RuntimeException("NO CONNECTION");
+		}
+		return refreshBatch(objList, conn);
+	}
+
+	@Override
+	public boolean removeBatch(List<? extends Object> objList) {
+
+		if (objList == null || objList.isEmpty())
+			return false;
+
+		Connection conn = null;
+		try {
+			conn = getConnection(objList.get(0).getClass(), false);
+		} catch (SQLException e) {
+			throw new RuntimeException("NO CONNECTION");
+		}
+		return removeBatch(objList.get(0).getClass(), objList, false, conn);
+	}
+
+	@Override
+	public <T> boolean removeByIds(Class<T> clz, List<? extends Object> idList) {
+
+		if (idList == null || idList.isEmpty())
+			return false;
+
+		Connection conn = null;
+		try {
+			conn = getConnection(clz, false);
+		} catch (SQLException e) {
+			throw new RuntimeException("NO CONNECTION");
+		}
+		return removeBatch(clz, idList, true, conn);
 	}
 
 	protected long create(Object obj, Connection conn) {
@@ -333,28 +530,26 @@ public class DaoImpl implements Dao {
 
 		String sql = MapperFactory.getSql(clz, Mapper.CREATE);
 
-		List<BeanElement> eles = MapperFactory.getElementList(clz);
+		ParamBinder binder = ParamBinder.get(clz);
 
 		boolean isNoBizTx = false;
 		PreparedStatement pstmt = null;
 		try {
-			Parsed parsed = Parser.get(clz);
-			Long keyOneValue = 0L;
-			Field keyOneField = parsed.getKeyField(X.KEY_ONE);
-			Class keyOneType = keyOneField.getType();
-			if (keyOneType != String.class) {
-				keyOneValue = parsed.getKeyField(X.KEY_ONE).getLong(obj);
+			long keyOneValue = 0L;
+			if (!binder.isKeyOneString()) {
+				keyOneValue = binder.getKeyOne(obj);
 			}
+			boolean isAutoIncreament = !binder.isKeyOneString() && keyOneValue == 0;
 
 			/*
 			 * 返回自增键
 			 */
 
 			conn.setAutoCommit(false);
-			if (keyOneType != String.class && (keyOneValue == null || keyOneValue == 0)) {
-				pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+			if (isAutoIncreament) {
+				pstmt = prepare(conn, sql, true);
 			} else {
-				pstmt = conn.prepareStatement(sql);
+				pstmt = prepare(conn, sql);
 			}
 
 			isNoBizTx = Tx.isNoBizTx();
@@ -362,41 +557,11 @@ public class DaoImpl implements Dao {
 				Tx.add(pstmt);
 			}
 
-			int i = 1;
-			for (BeanElement ele : eles) {
-
-				Object value = ele.getMethod.invoke(obj);
-				if (value == null) {
-					if (ele.clz.isEnum())
-						throw new PersistenceException(
-								"ENUM CAN NOT NULL, property:" + clz.getName() + "." + ele.getProperty());
-					if (ele.clz == Boolean.class || ele.clz == Integer.class || ele.clz == Long.class
-							|| ele.clz == Double.class || ele.clz == Float.class || ele.clz == BigDecimal.class
-							|| ele.clz == Byte.class || ele.clz == Short.class)
-						value = 0;
-					pstmt.setObject(i++, value);
-				} else {
-					if ( ele.clz == Boolean.class && DbType.ORACLE.equals(DbType.value)) {
-						Boolean b = (Boolean) value;
-						pstmt.setObject(i++, b.booleanValue() == true ? 1 : 0);
-					}else if (ele.isJson) {
-						String str = JsonX.toJson(value);
-						pstmt.setObject(i++, str);
-					}else if (ele.clz.isEnum()) {
-						String str = value.toString();
-						pstmt.setObject(i++, str);
-					} else {
-						value = SqlUtil.filter(value);
-						pstmt.setObject(i++, value);
-					}
-
-				}
-
-			}
+			binder.bindCreate(pstmt, obj, 1);
 
 			pstmt.execute();
 
-			if (keyOneType != String.class && (keyOneValue == null || keyOneValue == 0)) {
+			if (isAutoIncreament) {
 				ResultSet rs = pstmt.getGeneratedKeys();
 				if (rs.next()) {
 					id = rs.getLong(1);
@@ -427,7 +592,7 @@ public class DaoImpl implements Dao {
 		} finally {
 			if (isNoBizTx) {
 				close(pstmt);
-				close(conn);
+				closeWritten(conn);
 			}
 		}
 
@@ -439,14 +604,11 @@ public class DaoImpl implements Dao {
 		@SuppressWarnings("rawtypes")
 		Class clz = obj.getClass();
 
-		Parsed parsed = Parser.get(clz);
+		ParamBinder binder = ParamBinder.get(clz);
 
-		Map<String, Object> queryMap = BeanUtilX.getRefreshMap(parsed, obj);
+		BitSet mask = binder.getRefreshMask(obj);
 
-		String tableName = MapperFactory.getTableName(clz);
-		StringBuilder sb = new StringBuilder();
-		sb.append("UPDATE ").append(tableName).append(" ");
-		String sql = SqlUtil.concatRefresh(sb, parsed, queryMap);
+		String sql = binder.getRefreshSql(mask);
 
 		// System.out.println("refreshOptionally: " + sql);
 
@@ -455,29 +617,19 @@ public class DaoImpl implements Dao {
 		PreparedStatement pstmt = null;
 		try {
 			conn.setAutoCommit(false);
-			pstmt = conn.prepareStatement(sql);
+			pstmt = prepare(conn, sql);
 
 			isNoBizTx = Tx.isNoBizTx();
 			if (!isNoBizTx) {
 				Tx.add(pstmt);
 			}
 
-			int i = 1;
-			for (Object value : queryMap.values()) {
-				value = SqlUtil.filter(value);
-				if ( value instanceof Boolean && DbType.ORACLE.equals(DbType.value)) {
-					Boolean b = (Boolean) value;
-					pstmt.setObject(i++, b.booleanValue() == true ? 1 : 0);
-				}else {
-					pstmt.setObject(i++, value);
-				}
-			}
+			int i = binder.bindRefresh(pstmt, obj, mask, 1);
 
 			/*
 			 * 处理KEY
 			 */
-			Field keyOneF = parsed.getKeyField(X.KEY_ONE);
-			SqlUtil.adpterSqlKey(pstmt, keyOneF, obj, i);
+			binder.bindKey(pstmt, obj, i);
 
 			flag = pstmt.executeUpdate() == 0 ? false : true;
 
@@ -500,7 +652,7 @@ public class DaoImpl implements Dao {
 		} finally {
 			if (isNoBizTx) {
 				close(pstmt);
-				close(conn);
+				closeWritten(conn);
 			}
 		}
 
@@ -512,7 +664,7 @@ public class DaoImpl implements Dao {
 
 		Connection conn = null;
 		try {
-			conn = getConnection(false);
+			conn = getConnection(obj.getClass(), false);
 		} catch (SQLException e) {
 			throw new RuntimeException("NO CONNECTION");
 		}
@@ -524,7 +676,7 @@ public class DaoImpl implements Dao {
 
 		Connection conn = null;
 		try {
-			conn = getConnection(false);
+			conn = getConnection(obj.getClass(), false);
 		} catch (SQLException e) {
 			throw new RuntimeException("NO CONNECTION");
 		}
@@ -536,7 +688,7 @@ public class DaoImpl implements Dao {
 	public boolean remove(Object obj) {
 		Connection conn = null;
 		try {
-			conn = getConnection(false);
+			conn = getConnection(obj.getClass(), false);
 		} catch (SQLException e) {
 			throw new RuntimeException("NO CONNECTION");
 		}
@@ -548,13 +700,11 @@ public class DaoImpl implements Dao {
 		List<T> list = new ArrayList<T>();
 
 		String sql = MapperFactory.getSql(clz, Mapper.QUERY);
-		List<BeanElement> eles = MapperFactory.getElementList(clz);
 
 		PreparedStatement pstmt = null;
-		BeanElement tempEle = null;
 		try {
-			conn.setAutoCommit(true);
-			pstmt = conn.prepareStatement(sql);
+			autoCommit(conn);
+			pstmt = prepare(conn, sql);
 
 			int i = 1;
 
@@ -563,10 +713,9 @@ public class DaoImpl implements Dao {
 			ResultSet rs = pstmt.executeQuery();
 
 			if (rs != null) {
+				RowDecoder.Bound<T> decoder = RowDecoder.get(clz).bind(rs);
 				while (rs.next()) {
-					T obj = clz.newInstance();
-					list.add(obj);
-					initObj(obj, rs, tempEle, eles);
+					list.add(decoder.decode(rs));
 				}
 			}
 
@@ -591,7 +740,7 @@ public class DaoImpl implements Dao {
 	public <T> T get(Class<T> clz, long idOne) {
 		Connection conn = null;
 		try {
-			conn = getConnection(true);
+			conn = getConnection(clz, true);
 		} catch (SQLException e) {
 			throw new RuntimeException("NO CONNECTION");
 		}
@@ -612,8 +761,8 @@ public class DaoImpl implements Dao {
 		PreparedStatement pstmt = null;
 
 		try {
-			conn.setAutoCommit(true);
-			pstmt = conn.prepareStatement(sql);
+			autoCommit(conn);
+			pstmt = prepare(conn, sql);
 
 			int i = 1;
 			if (conditionList != null) {
@@ -656,7 +805,7 @@ public class DaoImpl implements Dao {
 	public List<Map<String, Object>> list(Class clz, String sql, List<Object> conditionList) {
 		Connection conn = null;
 		try {
-			conn = getConnection(true);
+			conn = getConnection(clz, true);
 		} catch (SQLException e) {
 			throw new RuntimeException("NO CONNECTION");
 		}
@@ -670,23 +819,20 @@ public class DaoImpl implements Dao {
 		List<T> list = new ArrayList<T>();
 
 		String sql = MapperFactory.getSql(clz, Mapper.LOAD);
-		List<BeanElement> eles = MapperFactory.getElementList(clz);
 
 		Connection conn = null;
 		PreparedStatement pstmt = null;
-		BeanElement tempEle = null;
 		try {
-			conn = getConnection(true);
-			conn.setAutoCommit(true);
-			pstmt = conn.prepareStatement(sql);
+			conn = getConnection(clz, true);
+			autoCommit(conn);
+			pstmt = prepare(conn, sql);
 
 			ResultSet rs = pstmt.executeQuery();
 
 			if (rs != null) {
+				RowDecoder.Bound<T> decoder = RowDecoder.get(clz).bind(rs);
 				while (rs.next()) {
-					T obj = clz.newInstance();
-					list.add(obj);
-					initObj(obj, rs, tempEle, eles);
+					list.add(decoder.decode(rs));
 				}
 			}
 
@@ -716,23 +862,20 @@ public class DaoImpl implements Dao {
 		List<T> list = new ArrayList<T>();
 
 		PreparedStatement pstmt = null;
-		BeanElement tempEle = null;
 		try {
-			conn.setAutoCommit(true);
-			pstmt = conn.prepareStatement(sql);
+			autoCommit(conn);
+			pstmt = prepare(conn, sql);
 
 			int i = 1;
 			for (Object o : queryMap.values()) {
 				pstmt.setObject(i++, o);
 			}
 
-			List<BeanElement> eles = parsed.getBeanElementList();
 			ResultSet rs = pstmt.executeQuery();
 			if (rs != null) {
+				RowDecoder.Bound<T> decoder = RowDecoder.get(clz).bind(rs);
 				while (rs.next()) {
-					T obj = (T) clz.newInstance();
-					list.add(obj);
-					initObj(obj, rs, tempEle, eles);
+					list.add(decoder.decode(rs));
 				}
 			}
 
@@ -752,28 +895,23 @@ public class DaoImpl implements Dao {
 	public <T> List<T> list(Object conditionObj) {
 		Connection conn = null;
 		try {
-			conn = getConnection(true);
+			conn = getConnection(conditionObj.getClass(), true);
 		} catch (SQLException e) {
 			throw new RuntimeException("NO CONNECTION");
 		}
 		return list(conditionObj, conn);
 	}
 
-	protected <T> Pagination<T> find(Criteria criteria, Connection conn) {
+	protected <T> Pagination<T> find(Criteria criteria, Connection conn, DataSource ds) {
 		Class clz = criteria.getClz();
 
-		List<Object> valueList = criteria.getValueList();
+		List<Object> valueList = new ArrayList<Object>();
 
-		String[] sqlArr = CriteriaBuilder.parse(criteria);
+		String[] sqlArr = CriteriaBuilder.parse(criteria, valueList);
 
 		String sqlCount = sqlArr[0];
 		String sql = sqlArr[1];
 
-		long count = 0;
-		if (!criteria.isScroll()) {
-			count = getCount(sqlCount, valueList);
-		}
-
 		int page = criteria.getPage();
 		int rows = criteria.getRows();
 
@@ -783,37 +921,64 @@ public class DaoImpl implements Dao {
 		pagination.setOrderBy(criteria.getOrderBy());
 		pagination.setDirection(criteria.getDirection());
 
-		pagination.setTotalRows(count);
+		boolean isKeyset = criteria.isKeyset();
+
+		Future<Long> countFuture = null;
+		boolean isWindowCount = false;
+		if (!criteria.isScroll()) {
+			CountStrategy strategy = criteria.getCountStrategy();
+			String windowSql = null;
+			if (strategy == CountStrategy.SINGLE_ROUND_TRIP && !isKeyset && isWindowCountSupported()) {
+				windowSql = toWindowCountSql(sql, Parser.get(clz));
+			}
+			if (windowSql != null) {
+				sql = windowSql;
+				isWindowCount = true;
+				pagination.setCountStrategy(strategy);
+			} else {
+				countFuture = count(clz, strategy, sqlCount, valueList, pagination);
+			}
+		}
 
-		int start = (page - 1) * rows;
+		int start = isKeyset ? 0 : (page - 1) * rows;
 
 		sql = Mapper.Dialect.Pagination.match(sql, start, rows);
 
+		long count = 0;
+
 		PreparedStatement pstmt = null;
-		BeanElement tempEle = null;
 		try {
-			conn.setAutoCommit(true);
-			pstmt = conn.prepareStatement(sql);
+			autoCommit(conn);
+			pstmt = prepare(conn, sql);
 
 			int i = 1;
 			for (Object obj : valueList) {
 				pstmt.setObject(i++, obj);
 			}
+			if (isKeyset) {
+				for (Object obj : Keyset.valueList(criteria)) {
+					pstmt.setObject(i++, obj);
+				}
+			}
 
+			long startTime = System.nanoTime();
 			ResultSet rs = pstmt.executeQuery();
 
 			if (rs != null) {
-
-				List<BeanElement> eles = MapperFactory.getElementList(clz);
-
+				RowDecoder.Bound<T> decoder = RowDecoder.get(clz).bind(rs);
 				while (rs.next()) {
-
-					T obj = (T) clz.newInstance();
-					pagination.getList().add(obj);
-					initObj(obj, rs, tempEle, eles);
-
+					if (isWindowCount && count == 0) {
+						count = rs.getLong(WINDOW_COUNT);
+					}
+					pagination.getList().add(decoder.decode(rs));
 				}
 			}
+			slow(criteria, sql, valueList, System.nanoTime() - startTime, ds);
+
+			List<T> list = pagination.getList();
+			if (isKeyset && rows > 0 && list.size() == rows) {
+				pagination.setContinuation(Keyset.continuation(criteria, list.get(rows - 1)));
+			}
 
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -824,19 +989,104 @@ public class DaoImpl implements Dao {
 			close(conn);
 		}
 
+		if (isWindowCount && pagination.getList().isEmpty() && page > 1) {
+			/*
+			 * 超出最后一页, 窗口函数没有行可以带回总数
+			 */
+			countFuture = count(clz, CountStrategy.EXACT, sqlCount, valueList, pagination);
+		}
+		if (countFuture != null) {
+			count = getCount(countFuture);
+		}
+		if (!criteria.isScroll()) {
+			pagination.setTotalRows(count);
+		}
+
 		return pagination;
 	}
 
 	@Override
 	public <T> Pagination<T> find(Criteria criteria) {
 
+		Borrowed borrowed = null;
+		try {
+			borrowed = borrow(criteria.getClz());
+		} catch (SQLException e) {
+			throw new RuntimeException("NO CONNECTION");
+		}
+		return find(criteria, borrowed.conn, borrowed.ds);
+	}
+
+	/**
+	 * 流式查询<br>
+	 * MySQL默认fetchSize = Integer.MIN_VALUE, 驱动逐行返回; 配置了x7.db.stream.fetchSize时按配置(需useCursorFetch=true)<br>
+	 * 连接在读完或consumer抛出异常后放回连接池
+	 */
+	protected <T> void stream(Criteria criteria, Consumer<T> consumer, Connection conn) {
+		Class<T> clz = (Class<T>) criteria.getClz();
+
+		List<Object> valueList = new ArrayList<Object>();
+
+		String[] sqlArr = CriteriaBuilder.parse(criteria, valueList);
+
+		String sql = sqlArr[1];
+
+		PreparedStatement pstmt = null;
+		ResultSet rs = null;
+		try {
+			autoCommit(conn);
+			pstmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			pstmt.setFetchSize(getStreamFetchSize());
+
+			int i = 1;
+			for (Object obj : valueList) {
+				pstmt.setObject(i++, obj);
+			}
+			if (criteria.isKeyset()) {
+				for (Object obj : Keyset.valueList(criteria)) {
+					pstmt.setObject(i++, obj);
+				}
+			}
+
+			rs = pstmt.executeQuery();
+
+			RowDecoder.Bound<T> decoder = RowDecoder.get(clz).bind(rs);
+			while (rs.next()) {
+				consumer.accept(decoder.decode(rs));
+			}
+
+		} catch (SQLException e) {
+			e.printStackTrace();
+			throw new RollbackException(
+					"Exception occured by class = " + clz.getName()  + ", message: " + e.getMessage());
+		} finally {
+			if (rs != null) {
+				try {
+					rs.close();
+				} catch (SQLException e) {
+					e.printStackTrace();
+				}
+			}
+			close(pstmt);
+			close(conn);
+		}
+	}
+
+	@Override
+	public <T> void stream(Criteria criteria, Consumer<T> consumer) {
+
 		Connection conn = null;
 		try {
-			conn = getConnection(true);
+			conn = getConnection(criteria.getClz(), true);
 		} catch (SQLException e) {
 			throw new RuntimeException("NO CONNECTION");
 		}
-		return find(criteria, conn);
+		stream(criteria, consumer, conn);
+	}
+
+	private static int getStreamFetchSize() {
+		int defaultSize = DbType.MYSQL.equals(DbType.value) ? Integer.MIN_VALUE : 1000;
+		return Configs.getIntValue(ConfigKey.STREAM_FETCH_SIZE, defaultSize);
 	}
 
 	@Override
@@ -845,9 +1095,9 @@ public class DaoImpl implements Dao {
 		Class<?> clz = criteria.getClz();
 		Parsed parsed = Parser.get(clz);
 
-		List<Object> valueList = criteria.getValueList();
+		List<Object> valueList = new ArrayList<Object>();
 
-		String[] sqlArr = CriteriaBuilder.parse(criteria);
+		String[] sqlArr = CriteriaBuilder.parse(criteria, valueList);
 
 		String sqlSum = sqlArr[2];
 
@@ -857,15 +1107,13 @@ public class DaoImpl implements Dao {
 			sqlSum = sqlSum.replace("*", sumProperty);
 		}
 
-		System.out.println(sqlSum);
-
 		Object count = null;
 		Connection conn = null;
 		PreparedStatement pstmt = null;
 		try {
-			conn = getConnection(true);
-			conn.setAutoCommit(true);
-			pstmt = conn.prepareStatement(sqlSum);
+			conn = getConnection(criteria.getClz(), true);
+			autoCommit(conn);
+			pstmt = prepare(conn, sqlSum);
 
 			int i = 1;
 			for (Object o : valueList) {
@@ -888,6 +1136,155 @@ public class DaoImpl implements Dao {
 		return count;
 	}
 
+	private final static String WINDOW_COUNT = "x7_count";
+
+	private ICacheResolver cacheResolver;
+
+	private ExecutorService queryService;
+
+	public void setCacheResolver(ICacheResolver cacheResolver) {
+		this.cacheResolver = cacheResolver;
+	}
+
+	private synchronized ExecutorService getQueryService() {
+		if (queryService == null) {
+			int threads = Configs.getIntValue(ConfigKey.QUERY_THREADS, 8);
+			queryService = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(threads * 32), new ThreadPoolExecutor.CallerRunsPolicy());
+		}
+		return queryService;
+	}
+
+	/**
+	 * 按CountStrategy计算totalRows, 条件不满足时退回EXACT<br>
+	 * 只读事务里EXACT_PARALLEL也退回EXACT: 别的线程拿不到事务的连接, count和rows会来自不同的快照<br>
+	 * 实际使用的方式写入pagination.countStrategy
+	 */
+	private Future<Long> count(Class clz, CountStrategy strategy, String sqlCount, List<Object> valueList,
+			Pagination<?> pagination) {
+
+		if (strategy == CountStrategy.EXACT_PARALLEL && !Tx.isReadOnly()) {
+			pagination.setCountStrategy(strategy);
+			return getQueryService().submit(ReadYourWrites.wrap(() -> getCount(clz, sqlCount, valueList)));
+		}
+
+		if (strategy == CountStrategy.CACHED && cacheResolver != null) {
+			pagination.setCountStrategy(strategy);
+			String condition = sqlCount + valueList;
+			Long count = null;
+			try {
+				count = cacheResolver.getCount(clz, condition);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			if (count == null) {
+				count = getCount(clz, sqlCount, valueList);
+				try {
+					cacheResolver.setCount(clz, condition, count,
+							Configs.getIntValue(ConfigKey.COUNT_CACHE_SECOND, 60));
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+			return CompletableFuture.completedFuture(count);
+		}
+
+		if (strategy == CountStrategy.ESTIMATED) {
+			long count = getCountEstimated(clz, sqlCount, valueList);
+			if (count >= 0) {
+				pagination.setCountStrategy(strategy);
+				return CompletableFuture.completedFuture(count);
+			}
+		}
+
+		pagination.setCountStrategy(CountStrategy.EXACT);
+		return CompletableFuture.completedFuture(getCount(clz, sqlCount, valueList));
+	}
+
+	private long getCount(Future<Long> future) {
+		try {
+			return future.get(2, TimeUnit.MINUTES);
+		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			future.cancel(true);
+			throw new PersistenceException("DB is busy, while count: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * MySQL 8以下不支持窗口函数, 需配置x7.db.count.window=true
+	 */
+	private static boolean isWindowCountSupported() {
+		return Configs.isTrue(ConfigKey.COUNT_WINDOW, DbType.ORACLE.equals(DbType.value));
+	}
+
+	/**
+	 * 不是SELECT * 开头的无法改写, 返回null, 改用count
+	 */
+	private static String toWindowCountSql(String sql, Parsed parsed) {
+		String select = "SELECT * ";
+		if (!sql.startsWith(select))
+			return null;
+		return "SELECT " + parsed.getTableName() + ".*, COUNT(*) OVER() " + WINDOW_COUNT + " "
+				+ sql.substring(select.length());
+	}
+
+	/**
+	 * 估算行数, 低于x7.db.count.estimate.threshold或无法估算时返回-1<br>
+	 * MySQL: EXPLAIN的rows * filtered; Oracle: 无条件时取USER_TABLES.NUM_ROWS
+	 */
+	private long getCountEstimated(Class clz, String sqlCount, List<Object> valueList) {
+
+		boolean isOracle = DbType.ORACLE.equals(DbType.value);
+		if (isOracle && (!valueList.isEmpty() || sqlCount.toUpperCase().contains(" WHERE ")))
+			return -1;
+
+		long count = -1;
+		Connection conn = null;
+		PreparedStatement pstmt = null;
+		try {
+			conn = getConnection(clz, true);
+			autoCommit(conn);
+			if (isOracle) {
+				pstmt = conn.prepareStatement("SELECT NUM_ROWS FROM USER_TABLES WHERE TABLE_NAME = ?");
+				pstmt.setString(1, Parser.get(clz).getTableName().toUpperCase());
+			} else {
+				pstmt = conn.prepareStatement("EXPLAIN " + sqlCount);
+				int i = 1;
+				for (Object obj : valueList) {
+					pstmt.setObject(i++, obj);
+				}
+			}
+
+			ResultSet rs = pstmt.executeQuery();
+			if (rs.next()) {
+				if (isOracle) {
+					count = rs.getLong(1);
+					if (rs.wasNull())
+						count = -1;
+				} else {
+					count = rs.getLong("rows");
+					double filtered = 100;
+					try {
+						filtered = rs.getDouble("filtered");
+					} catch (SQLException e) {
+					}
+					count = (long) (count * filtered / 100);
+				}
+			}
+
+		} catch (Exception e) {
+			e.printStackTrace();
+			return -1;
+		} finally {
+			close(pstmt);
+			close(conn);
+		}
+
+		if (count < Configs.getLongValue(ConfigKey.COUNT_ESTIMATE_THRESHOLD, 100000))
+			return -1;
+		return count;
+	}
+
 	/**
 	 * Important getCount
 	 * 
@@ -895,15 +1292,15 @@ public class DaoImpl implements Dao {
 	 * @param set
 	 * @return
 	 */
-	private long getCount(String sql, Collection<Object> set) {
+	private long getCount(Class clz, String sql, Collection<Object> set) {
 
 		long count = 0;
 		Connection conn = null;
 		PreparedStatement pstmt = null;
 		try {
-			conn = getConnection(true);
-			conn.setAutoCommit(true);
-			pstmt = conn.prepareStatement(sql);
+			conn = getConnection(clz, true);
+			autoCommit(conn);
+			pstmt = prepare(conn, sql);
 
 			int i = 1;
 			for (Object obj : set) {
@@ -942,8 +1339,8 @@ public class DaoImpl implements Dao {
 		long count = 0;
 		PreparedStatement pstmt = null;
 		try {
-			conn.setAutoCommit(true);
-			pstmt = conn.prepareStatement(countSql);
+			autoCommit(conn);
+			pstmt = prepare(conn, countSql);
 
 			int i = 1;
 			for (Object o : queryMap.values()) {
@@ -970,7 +1367,7 @@ public class DaoImpl implements Dao {
 	public long getCount(Object conditionObj) {
 		Connection conn = null;
 		try {
-			conn = getConnection(true);
+			conn = getConnection(conditionObj.getClass(), true);
 		} catch (SQLException e) {
 			throw new RuntimeException("NO CONNECTION");
 		}
@@ -1000,24 +1397,21 @@ public class DaoImpl implements Dao {
 
 		Connection conn = null;
 		PreparedStatement pstmt = null;
-		BeanElement tempEle = null;
 		try {
-			conn = getConnection(true);
-			conn.setAutoCommit(true);
-			pstmt = conn.prepareStatement(sql);
+			conn = getConnection(conditionObj.getClass(), true);
+			autoCommit(conn);
+			pstmt = prepare(conn, sql);
 
 			int i = 1;
 			for (Object o : queryMap.values()) {
 				pstmt.setObject(i++, o);
 			}
 
-			List<BeanElement> eles = parsed.getBeanElementList();
 			ResultSet rs = pstmt.executeQuery();
 			if (rs != null) {
+				RowDecoder.Bound<Object> decoder = RowDecoder.get(clz).bind(rs);
 				while (rs.next()) {
-					Object obj = clz.newInstance();
-					list.add(obj);
-					initObj(obj, rs, tempEle, eles);
+					list.add(decoder.decode(rs));
 				}
 			}
 
@@ -1056,9 +1450,9 @@ public class DaoImpl implements Dao {
 		Connection conn = null;
 		PreparedStatement pstmt = null;
 		try {
-			conn = getConnection(true);
-			conn.setAutoCommit(true);
-			pstmt = conn.prepareStatement(sql);
+			conn = getConnection(conditionObj.getClass(), true);
+			autoCommit(conn);
+			pstmt = prepare(conn, sql);
 
 			int i = 1;
 
@@ -1103,7 +1497,7 @@ public class DaoImpl implements Dao {
 		Connection conn = null;
 		PreparedStatement pstmt = null;
 		try {
-			conn = getConnection(false);
+			conn = getConnection(obj.getClass(), false);
 			conn.setAutoCommit(false);
 			pstmt = conn.prepareStatement(sql);
 
@@ -1119,7 +1513,7 @@ public class DaoImpl implements Dao {
 			}
 		} finally {
 			close(pstmt);
-			close(conn);
+			closeWritten(conn);
 		}
 
 		return b;
@@ -1132,13 +1526,18 @@ public class DaoImpl implements Dao {
 
 		Parsed parsed = Parser.get(clz);
 
-		Map<String, Object> queryMap = BeanUtilX.getRefreshMap(parsed, obj);
+		ParamBinder binder = ParamBinder.get(clz);
+
+		BitSet mask = binder.getRefreshMask(obj);
 
-		String simpleName = BeanUtil.getByFirstLower(clz.getSimpleName());
 		StringBuilder sb = new StringBuilder();
-		sb.append("UPDATE ").append(simpleName).append(" ");
-		String sql = SqlUtil.concatRefresh(sb, parsed, queryMap, conditionMap);
-		sql = BeanUtilX.mapperName(sql, parsed);
+		sb.append(binder.getRefreshSql(mask));
+		if (conditionMap != null) {
+			for (String key : conditionMap.keySet()) {
+				sb.append(" AND ").append(parsed.getMapper(key)).append(" = ?");
+			}
+		}
+		String sql = sb.toString();
 
 		// System.out.println("refreshOptionally: " + sql);
 
@@ -1148,29 +1547,24 @@ public class DaoImpl implements Dao {
 		PreparedStatement pstmt = null;
 		try {
 			conn.setAutoCommit(false);
-			pstmt = conn.prepareStatement(sql);
+			pstmt = prepare(conn, sql);
 
 			isNoBizTx = Tx.isNoBizTx();
 			if (!isNoBizTx) {
 				Tx.add(pstmt);
 			}
 
-			int i = 1;
-			for (Object value : queryMap.values()) {
-				value = SqlUtil.filter(value);
-				if ( value instanceof Boolean && DbType.ORACLE.equals(DbType.value)) {
-					Boolean b = (Boolean) value;
-					pstmt.setObject(i++, b.booleanValue() == true ? 1 : 0);
-				}else {
-					pstmt.setObject(i++, value);
-				}
-			}
+			int i = binder.bindRefresh(pstmt, obj, mask, 1);
 
 			/*
 			 * 处理KEY
 			 */
-			Field keyOneF = parsed.getKeyField(X.KEY_ONE);
-			SqlUtil.adpterRefreshCondition(pstmt, keyOneF, obj, i, conditionMap);
+			i = binder.bindKey(pstmt, obj, i);
+			if (conditionMap != null) {
+				for (Object value : conditionMap.values()) {
+					pstmt.setObject(i++, value);
+				}
+			}
 
 			flag = pstmt.executeUpdate() == 0 ? false : true;
 
@@ -1195,7 +1589,7 @@ public class DaoImpl implements Dao {
 		} finally {
 			if (isNoBizTx) {
 				close(pstmt);
-				close(conn);
+				closeWritten(conn);
 			}
 		}
 
@@ -1207,20 +1601,85 @@ public class DaoImpl implements Dao {
 
 		Connection conn = null;
 		try {
-			conn = getConnection(false);
+			conn = getConnection(obj.getClass(), false);
 		} catch (SQLException e) {
 			throw new RuntimeException("NO CONNECTION");
 		}
 		return refresh(obj, conditionMap, conn);
 	}
 
+	/**
+	 * 参数化的IN, 每块不超过InUtil.MAX个值, 多块并发查询后合并<br>
+	 * 只读事务里在调用线程逐块查询, 都在事务的快照里
+	 */
 	@Override
 	public <T> List<T> in(Class<T> clz, String inProperty, List<? extends Object> inList) {
 
+		List<List<Object>> chunkList = InUtil.chunk(InUtil.distinct(inList));
+
+		if (chunkList.size() == 1) {
+			Connection conn = null;
+			try {
+				conn = getConnection(clz, true);
+			} catch (SQLException e) {
+				throw new RuntimeException("NO CONNECTION");
+			}
+			return in(clz, inProperty, chunkList.get(0), conn);
+		}
+
+		if (Tx.isReadOnly()) {
+			List<T> list = new ArrayList<T>();
+			for (List<Object> chunk : chunkList) {
+				Connection conn = null;
+				try {
+					conn = getConnection(clz, true);
+				} catch (SQLException e) {
+					throw new RuntimeException("NO CONNECTION");
+				}
+				list.addAll(in(clz, inProperty, chunk, conn));
+			}
+			return list;
+		}
+
+		List<Future<List<T>>> futureList = new ArrayList<Future<List<T>>>();
+		for (List<Object> chunk : chunkList) {
+			futureList.add(getQueryService().submit(ReadYourWrites.wrap(() -> {
+				Connection conn = getConnection(clz, true);
+				return in(clz, inProperty, chunk, conn);
+			})));
+		}
+
+		return merge(futureList);
+	}
+
+	protected <T> List<T> merge(List<Future<List<T>>> futureList) {
 		List<T> list = new ArrayList<T>();
+		for (Future<List<T>> future : futureList) {
+			try {
+				list.addAll(future.get(2, TimeUnit.MINUTES));
+			} catch (InterruptedException | ExecutionException | TimeoutException e) {
+				for (Future<List<T>> f : futureList) {
+					f.cancel(true);
+				}
+				throw new PersistenceException("DB is busy, while query in: " + e.getMessage());
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * 一块已补齐的IN查询, 用完关闭conn
+	 */
+	protected <T> List<T> in(Class<T> clz, String inProperty, List<Object> chunk, Connection conn) {
+
+		List<T> list = new ArrayList<T>();
+
+		if (chunk.isEmpty()) {
+			close(conn);
+			return list;
+		}
 
 		String sql = MapperFactory.getSql(clz, Mapper.LOAD);
-		List<BeanElement> eles = MapperFactory.getElementList(clz);
 
 		Parsed parsed = Parser.get(clz);
 
@@ -1229,66 +1688,37 @@ public class DaoImpl implements Dao {
 		}
 
 		BeanElement be = parsed.getElement(inProperty);
-		if (be == null)
+		if (be == null) {
+			close(conn);
 			throw new RuntimeException(
 					"Exception in method: <T> List<T> in(Class<T> clz, String inProperty, List<? extends Object> inList), no property: "
 							+ inProperty);
+		}
 
-		Class<?> keyType = be.getMethod.getReturnType();
 		String mapper = parsed.getMapper(inProperty);
 
 		StringBuilder sb = new StringBuilder();
-
-		sb.append(sql).append(" WHERE ").append(mapper);
-		sb.append(" in (");
-
-		boolean isNumber = (keyType == long.class || keyType == int.class || keyType == Long.class
-				|| keyType == Integer.class);
-		
-		int size = inList.size();
-		if (isNumber) {
-			for (int i = 0; i < size; i++) {
-				Object id = inList.get(i);
-				if (id == null)
-					continue;
-				sb.append(id);
-				if (i < size - 1) {
-					sb.append(",");
-				}
-			}
-		} else {
-			for (int i = 0; i < size; i++) {
-				Object id = inList.get(i);
-				if (id == null || StringUtil.isNullOrEmpty(id.toString()))
-					continue;
-				sb.append("'").append(id).append("'");
-				if (i < size - 1) {
-					sb.append(",");
-				}
-			}
-		}
-
-		sb.append(")");
+		sb.append(sql).append(" WHERE ").append(mapper).append(" in ");
+		InUtil.placeholders(sb, chunk.size());
 
 		sql = sb.toString();
 
-		System.out.println(sql);
-
-		Connection conn = null;
 		PreparedStatement pstmt = null;
-		BeanElement tempEle = null;
 		try {
-			conn = getConnection(true);
-			conn.setAutoCommit(true);
-			pstmt = conn.prepareStatement(sql);
+			autoCommit(conn);
+			pstmt = prepare(conn, sql);
+
+			int i = 1;
+			for (Object obj : chunk) {
+				pstmt.setObject(i++, obj);
+			}
 
 			ResultSet rs = pstmt.executeQuery();
 
 			if (rs != null) {
+				RowDecoder.Bound<T> decoder = RowDecoder.get(clz).bind(rs);
 				while (rs.next()) {
-					T obj = clz.newInstance();
-					list.add(obj);
-					initObj(obj, rs, tempEle, eles);
+					list.add(decoder.decode(rs));
 				}
 			}
 
@@ -1307,23 +1737,23 @@ public class DaoImpl implements Dao {
 	@Override
 	public Pagination<Map<String, Object>> find(Criteria.Fetch criteriaFetch) {
 
-		Connection conn = null;
+		Borrowed borrowed = null;
 		try {
-			conn = getConnection(true);
+			borrowed = borrow(criteriaFetch.getClz());
 		} catch (SQLException e) {
 			throw new RuntimeException("NO CONNECTION");
 		}
 
-		return this.find(criteriaFetch, conn);
+		return this.find(criteriaFetch, borrowed.conn, borrowed.ds);
 	}
 
-	protected Pagination<Map<String, Object>> find(Criteria.Fetch criteriaFetch, Connection conn) {
+	protected Pagination<Map<String, Object>> find(Criteria.Fetch criteriaFetch, Connection conn, DataSource ds) {
 
 		Class clz = criteriaFetch.getClz();
 
-		List<Object> valueList = criteriaFetch.getValueList();
+		List<Object> valueList = new ArrayList<Object>();
 
-		String[] sqlArr = CriteriaBuilder.parse(criteriaFetch);
+		String[] sqlArr = CriteriaBuilder.parse(criteriaFetch, valueList);
 
 		String sqlCount = sqlArr[0];
 		String sql = sqlArr[1];
@@ -1337,35 +1767,39 @@ public class DaoImpl implements Dao {
 		pagination.setOrderBy(criteriaFetch.getOrderBy());
 		pagination.setDirection(criteriaFetch.getDirection());
 
-		long count = 0;
+		Future<Long> countFuture = null;
 		if (!criteriaFetch.isScroll()) {
-			count = getCount(sqlCount, valueList);
+			countFuture = count(clz, criteriaFetch.getCountStrategy(), sqlCount, valueList, pagination);
 		}
-		pagination.setTotalRows(count);
 
-		int start = (page - 1) * rows;
+		boolean isKeyset = criteriaFetch.isKeyset();
+		int start = isKeyset ? 0 : (page - 1) * rows;
 
 		sql = Mapper.Dialect.Pagination.match(sql, start, rows);
 
 		sql = sql.replace("*", criteriaFetch.getResultScript());
 
-		System.out.println(sql);
-
 		PreparedStatement pstmt = null;
 		try {
-			conn.setAutoCommit(true);
-			pstmt = conn.prepareStatement(sql);
+			autoCommit(conn);
+			pstmt = prepare(conn, sql);
 
 			int i = 1;
 			for (Object obj : valueList) {
 				pstmt.setObject(i++, obj);
 			}
+			if (isKeyset) {
+				for (Object obj : Keyset.valueList(criteriaFetch)) {
+					pstmt.setObject(i++, obj);
+				}
+			}
 
 			List<String> resultKeyList = criteriaFetch.getResultList();
 			if (resultKeyList.isEmpty()) {
 				resultKeyList = criteriaFetch.listAllResultKey();
 			}
 
+			long startTime = System.nanoTime();
 			ResultSet rs = pstmt.executeQuery();
 
 			if (rs != null) {
@@ -1380,6 +1814,7 @@ public class DaoImpl implements Dao {
 
 				}
 			}
+			slow(criteriaFetch, sql, valueList, System.nanoTime() - startTime, ds);
 
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -1388,7 +1823,16 @@ public class DaoImpl implements Dao {
 			close(conn);
 		}
 
+		if (countFuture != null) {
+			pagination.setTotalRows(getCount(countFuture));
+		} else {
+			pagination.setTotalRows(0);
+		}
+
 		List<Map<String, Object>> stringKeyMapList = pagination.getList();
+		if (isKeyset && rows > 0 && stringKeyMapList.size() == rows) {
+			pagination.setContinuation(Keyset.continuation(criteriaFetch, stringKeyMapList.get(rows - 1)));
+		}
 		if (!stringKeyMapList.isEmpty()) {
 			List<Map<String, Object>> jsonableMapList = BeanMapUtil.toJsonableMapList(stringKeyMapList);
 			pagination.setList(jsonableMapList);
@@ -1404,9 +1848,9 @@ public class DaoImpl implements Dao {
 
 		Class clz = fetch.getClz();
 
-		List<Object> valueList = fetch.getValueList();
+		List<Object> valueList = new ArrayList<Object>();
 
-		String[] sqlArr = CriteriaBuilder.parse(fetch);
+		String[] sqlArr = CriteriaBuilder.parse(fetch, valueList);
 
 		String sql = sqlArr[1];
 
@@ -1414,29 +1858,35 @@ public class DaoImpl implements Dao {
 
 		int page = fetch.getPage();
 		int rows = fetch.getRows();
-		int start = (page - 1) * rows;
+		int start = fetch.isKeyset() ? 0 : (page - 1) * rows;
 
 		sql = Mapper.Dialect.Pagination.match(sql, start, rows);
 
-		System.out.println(sql);
-
+		Borrowed borrowed = null;
 		Connection conn = null;
 		PreparedStatement pstmt = null;
 		try {
-			conn = getConnection(true);
-			conn.setAutoCommit(true);
-			pstmt = conn.prepareStatement(sql);
+			borrowed = borrow(fetch.getClz());
+			conn = borrowed.conn;
+			autoCommit(conn);
+			pstmt = prepare(conn, sql);
 
 			int i = 1;
 			for (Object obj : valueList) {
 				pstmt.setObject(i++, obj);
 			}
+			if (fetch.isKeyset()) {
+				for (Object obj : Keyset.valueList(fetch)) {
+					pstmt.setObject(i++, obj);
+				}
+			}
 
 			List<String> columnList = fetch.getResultList();
 			if (columnList.isEmpty()) {
 				columnList = fetch.listAllResultKey();// FIXME ALLWAYS BUG
 			}
 
+			long startTime = System.nanoTime();
 			ResultSet rs = pstmt.executeQuery();
 
 			if (rs != null) {
@@ -1451,6 +1901,7 @@ public class DaoImpl implements Dao {
 
 				}
 			}
+			slow(fetch, sql, valueList, System.nanoTime() - startTime, borrowed.ds);
 
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -1467,11 +1918,32 @@ public class DaoImpl implements Dao {
 		return list;
 	}
 
-	private <T> void initObj(T obj, ResultSet rs, BeanElement tempEle, List<BeanElement> eles)
-			throws SQLException, IllegalAccessException, IllegalArgumentException, InvocationTargetException,
-			NoSuchMethodException, SecurityException {
+	/**
+	 * Criteria查询超过x7.db.slow.ms, 连同绑定的参数和连接来自的DataSource交给慢查询日志
+	 */
+	private void slow(Criteria criteria, String sql, List<Object> valueList, long nanos, DataSource ds) {
+		SlowQueryLog slowQueryLog = SlowQueryLog.getInstance();
+		if (!slowQueryLog.isSlow(nanos))
+			return;
+		if (criteria.isKeyset()) {
+			valueList = new ArrayList<Object>(valueList);
+			valueList.addAll(Keyset.valueList(criteria));
+		}
+		slowQueryLog.record(ds, criteria.getClz(), sql, valueList, nanos);
+	}
+
+	/**
+	 * 读的连接和它来自的DataSource
+	 */
+	private static class Borrowed {
+
+		private final Connection conn;
+		private final DataSource ds;
 
-		ResultSetUtil.initObj(obj, rs, tempEle, eles);
+		private Borrowed(Connection conn, DataSource ds) {
+			this.conn = conn;
+			this.ds = ds;
+		}
 	}
 
 	protected <T> T getOne(T conditionObj, Connection conn) {
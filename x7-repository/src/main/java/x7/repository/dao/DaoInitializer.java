@@ -20,10 +20,15 @@ import java.util.Map;
 
 import javax.sql.DataSource;
 
+import x7.repository.monitor.JdbcMetrics;
+
 
 public class DaoInitializer {
 	
 	public static void init(DataSource dsW, DataSource dsR){
+		dsW = JdbcMetrics.getInstance().wrap(dsW, "w");
+		dsR = JdbcMetrics.getInstance().wrap(dsR, "r");
+		
 		AsyncDaoImpl.getInstance().setDataSource(dsW);
 		AsyncDaoWrapper.getInstance().setDao(AsyncDaoImpl.getInstance());;
 		
@@ -33,7 +38,18 @@ public class DaoInitializer {
 	}
 	
 	public static void init(Map<String,DataSource> dsWMap,Map<String,DataSource> dsRMap){
+		wrap(dsWMap, "w_");
+		wrap(dsRMap, "r_");
+		
 		ShardingDaoImpl.getInstance().setDsWMap(dsWMap);
 		ShardingDaoImpl.getInstance().setDsRMap(dsRMap);
 	}
+	
+	private static void wrap(Map<String,DataSource> dsMap, String prefix){
+		if (dsMap == null)
+			return;
+		for (Map.Entry<String,DataSource> entry : dsMap.entrySet()){
+			entry.setValue(JdbcMetrics.getInstance().wrap(entry.getValue(), prefix + entry.getKey()));
+		}
+	}
 }
@@ -18,6 +18,7 @@ package x7.repository.dao;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import x7.core.bean.Criteria;
 import x7.core.web.Direction;
@@ -149,6 +150,41 @@ public class DaoWrapper implements Dao{
 	public boolean createBatch(List<Object> obj) {
 		return this.dao.createBatch(obj);
 	}
+
+	@Override
+	public boolean refreshBatch(List<? extends Object> objList) {
+		return this.dao.refreshBatch(objList);
+	}
+
+	@Override
+	public boolean removeBatch(List<? extends Object> objList) {
+		return this.dao.removeBatch(objList);
+	}
+
+	@Override
+	public <T> boolean removeByIds(Class<T> clz, List<? extends Object> idList) {
+		return this.dao.removeByIds(clz, idList);
+	}
+
+	@Override
+	public BatchResult createBatchAndReport(List<Object> objList) {
+		return this.dao.createBatchAndReport(objList);
+	}
+
+	@Override
+	public boolean upsert(Object obj) {
+		return this.dao.upsert(obj);
+	}
+
+	@Override
+	public boolean upsertBatch(List<? extends Object> objList) {
+		return this.dao.upsertBatch(objList);
+	}
+
+	@Override
+	public <T> void stream(Criteria criteria, Consumer<T> consumer) {
+		this.dao.stream(criteria, consumer);
+	}
 	
 	
 }
@@ -0,0 +1,586 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.dao;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+import x7.core.bean.Accessors;
+import x7.core.bean.BeanElement;
+import x7.core.bean.Parsed;
+import x7.core.bean.Parser;
+import x7.core.repository.X;
+import x7.core.util.JsonX;
+import x7.repository.DbType;
+import x7.repository.exception.PersistenceException;
+import x7.repository.mapper.Mapper;
+import x7.repository.mapper.MapperFactory;
+
+/**
+ * 每个实体类编译一次的参数绑定器<br>
+ * create的默认值规则, enum/JSON/Oracle boolean, 以及refresh的非默认值判断, 都在编译时确定
+ *
+ * @author Sim
+ */
+public class ParamBinder {
+
+	private final static int MAX_REFRESH_SQL = 256;
+
+	@SuppressWarnings("rawtypes")
+	private final static Map<Class, ParamBinder> map = new ConcurrentHashMap<Class, ParamBinder>();
+
+	@SuppressWarnings("rawtypes")
+	public static ParamBinder get(Class clz) {
+		ParamBinder binder = map.get(clz);
+		if (binder == null) {
+			binder = new ParamBinder(clz, Parser.get(clz));
+			map.put(clz, binder);
+		}
+		return binder;
+	}
+
+	@SuppressWarnings("rawtypes")
+	private final Class clz;
+	private final Parsed parsed;
+	private final BeanElement[] eles;
+	private final Writer[] createWriters;
+	private final Column[] refreshColumns;
+	private final Column key;
+	private final Function<Object, Object> keyGetter;
+	private final Function<Object, Object>[] getters;
+	private volatile BiConsumer<Object, Object>[] setters;
+	private volatile Supplier<Object> constructor;
+	private final Map<BitSet, String> refreshSqlMap = new ConcurrentHashMap<BitSet, String>();
+	private String upsertSql;
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private ParamBinder(Class clz, Parsed parsed) {
+		this.clz = clz;
+		this.parsed = parsed;
+		List<BeanElement> list = MapperFactory.getElementList(clz);
+		this.eles = list.toArray(new BeanElement[list.size()]);
+		boolean isOracle = DbType.ORACLE.equals(DbType.value);
+
+		this.createWriters = new Writer[eles.length];
+		this.refreshColumns = new Column[eles.length];
+		for (int i = 0; i < eles.length; i++) {
+			createWriters[i] = compileCreate(eles[i], isOracle);
+			refreshColumns[i] = compileRefresh(eles[i], isOracle);
+		}
+
+		String keyOne = parsed.getKey(X.KEY_ONE);
+		this.key = compileKey(parsed.getElement(keyOne));
+		this.keyGetter = Accessors.getter(parsed.getElement(keyOne).getMethod);
+
+		this.getters = new Function[eles.length];
+		for (int i = 0; i < eles.length; i++) {
+			getters[i] = Accessors.getter(eles[i].getMethod);
+		}
+	}
+
+	public int getColumnCount() {
+		return eles.length;
+	}
+
+	/**
+	 * 回填自增键
+	 */
+	public void setKeyOne(Object obj, long id) {
+		key.keySetter.accept(obj, id);
+	}
+
+	/**
+	 * 一行参数的大致字节数, 用于多行INSERT的分块
+	 */
+	public int estimateSize(Object obj) {
+		int size = 4;
+		for (int i = 0; i < eles.length; i++) {
+			Object v = getters[i].apply(obj);
+			if (v == null) {
+				size += 5;
+			} else if (v instanceof String) {
+				size += ((String) v).length() * 3 + 3;
+			} else if (v instanceof Number || v instanceof Boolean) {
+				size += 21;
+			} else if (v instanceof Date) {
+				size += 28;
+			} else if (v instanceof Enum) {
+				size += ((Enum) v).name().length() + 3;
+			} else {
+				size += v.toString().length() * 3 + 3;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * INSERT INTO t (a,b) VALUES (?,?),(?,?)...
+	 */
+	public String getCreateSql(int rows) {
+		String sql = MapperFactory.getSql(clz, Mapper.CREATE);
+		if (rows <= 1)
+			return sql;
+		int index = sql.lastIndexOf("(");
+		String row = sql.substring(index);
+		StringBuilder sb = new StringBuilder(sql.length() + row.length() * rows);
+		sb.append(sql);
+		for (int i = 1; i < rows; i++) {
+			sb.append(",").append(row);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 按CREATE的列顺序绑定, 主键冲突时更新全部非主键列<br>
+	 * MySQL: INSERT ... VALUES (...),(...) ON DUPLICATE KEY UPDATE a = VALUES(a)...<br>
+	 * Oracle: MERGE INTO t USING (SELECT ? a, ? b FROM DUAL) s ON (...), 只支持单行, 配合addBatch
+	 */
+	public String getUpsertSql(int rows) {
+		if (DbType.ORACLE.equals(DbType.value)) {
+			if (upsertSql == null) {
+				upsertSql = buildMerge();
+			}
+			return upsertSql;
+		}
+		if (upsertSql == null) {
+			upsertSql = buildOnDuplicate();
+		}
+		return getCreateSql(rows) + upsertSql;
+	}
+
+	private String buildOnDuplicate() {
+		String keyMapper = parsed.getMapper(parsed.getKey(X.KEY_ONE));
+		StringBuilder sb = new StringBuilder();
+		sb.append(" ON DUPLICATE KEY UPDATE ");
+		boolean isFirst = true;
+		for (BeanElement ele : eles) {
+			String mapper = ele.getMapper();
+			if (mapper.equals(keyMapper))
+				continue;
+			if (isFirst) {
+				isFirst = false;
+			} else {
+				sb.append(",");
+			}
+			sb.append(mapper).append(" = VALUES(").append(mapper).append(")");
+		}
+		if (isFirst) {
+			sb.append(keyMapper).append(" = ").append(keyMapper);
+		}
+		return sb.toString();
+	}
+
+	private String buildMerge() {
+		String keyMapper = parsed.getMapper(parsed.getKey(X.KEY_ONE));
+		StringBuilder select = new StringBuilder();
+		StringBuilder update = new StringBuilder();
+		StringBuilder columns = new StringBuilder();
+		StringBuilder values = new StringBuilder();
+		for (int i = 0; i < eles.length; i++) {
+			String mapper = eles[i].getMapper();
+			if (i > 0) {
+				select.append(",");
+				columns.append(",");
+				values.append(",");
+			}
+			select.append("? ").append(mapper);
+			columns.append(mapper);
+			values.append("s.").append(mapper);
+			if (!mapper.equals(keyMapper)) {
+				if (update.length() > 0) {
+					update.append(",");
+				}
+				update.append("t.").append(mapper).append(" = s.").append(mapper);
+			}
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("MERGE INTO ").append(MapperFactory.getTableName(clz)).append(" t USING (SELECT ").append(select)
+				.append(" FROM DUAL) s ON (t.").append(keyMapper).append(" = s.").append(keyMapper).append(")");
+		if (update.length() > 0) {
+			sb.append(" WHEN MATCHED THEN UPDATE SET ").append(update);
+		}
+		sb.append(" WHEN NOT MATCHED THEN INSERT (").append(columns).append(") VALUES (").append(values).append(")");
+		return sb.toString();
+	}
+
+	/**
+	 * 按CREATE的列顺序绑定一个对象
+	 *
+	 * @return 下一个参数下标
+	 */
+	public int bindCreate(PreparedStatement pstmt, Object obj, int i) throws SQLException {
+		for (Writer writer : createWriters) {
+			writer.write(pstmt, i++, obj);
+		}
+		return i;
+	}
+
+	/**
+	 * 非String主键的值, 为0时表示需要返回自增键
+	 */
+	public long getKeyOne(Object obj) {
+		return key.asLong(obj);
+	}
+
+	/**
+	 * 主键的值, 包装类型
+	 */
+	public Object getKeyValue(Object obj) {
+		return keyGetter.apply(obj);
+	}
+
+	public boolean isKeyOneString() {
+		return key.isString;
+	}
+
+	public int bindKey(PreparedStatement pstmt, Object obj, int i) throws SQLException {
+		key.writer.write(pstmt, i++, obj);
+		return i;
+	}
+
+	/**
+	 * 与BeanUtilX.getRefreshMap同样的规则: 非默认值的属性才更新
+	 */
+	public BitSet getRefreshMask(Object obj) {
+		BitSet mask = new BitSet(refreshColumns.length);
+		for (int i = 0; i < refreshColumns.length; i++) {
+			Column column = refreshColumns[i];
+			if (column != null && column.isPresent(obj)) {
+				mask.set(i);
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * 合并同一主键的两次写: base的拷贝上, 覆盖patch里getRefreshMask选中的属性<br>
+	 * base和patch都不修改
+	 */
+	@SuppressWarnings("unchecked")
+	public Object overlay(Object base, Object patch) {
+		if (setters == null) {
+			BiConsumer<Object, Object>[] arr = new BiConsumer[eles.length];
+			for (int i = 0; i < eles.length; i++) {
+				arr[i] = Accessors.setter(eles[i].setMethod);
+			}
+			constructor = Accessors.constructor(clz);
+			setters = arr;
+		}
+		Object obj = constructor.get();
+		for (int i = 0; i < eles.length; i++) {
+			setters[i].accept(obj, getters[i].apply(base));
+		}
+		BitSet mask = getRefreshMask(patch);
+		for (int i = mask.nextSetBit(0); i >= 0; i = mask.nextSetBit(i + 1)) {
+			setters[i].accept(obj, getters[i].apply(patch));
+		}
+		return obj;
+	}
+
+	/**
+	 * UPDATE table SET a = ?, b = ? WHERE key = ?, 按mask缓存
+	 */
+	public String getRefreshSql(BitSet mask) {
+		String sql = refreshSqlMap.get(mask);
+		if (sql != null)
+			return sql;
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("UPDATE ").append(MapperFactory.getTableName(clz)).append(" SET ");
+		boolean isFirst = true;
+		for (int i = mask.nextSetBit(0); i >= 0; i = mask.nextSetBit(i + 1)) {
+			if (isFirst) {
+				isFirst = false;
+			} else {
+				sb.append(",");
+			}
+			sb.append(eles[i].getMapper()).append(" = ?");
+		}
+		sb.append(" WHERE ").append(parsed.getMapper(parsed.getKey(X.KEY_ONE))).append(" = ?");
+		sql = sb.toString();
+
+		if (refreshSqlMap.size() < MAX_REFRESH_SQL) {
+			refreshSqlMap.put((BitSet) mask.clone(), sql);
+		}
+		return sql;
+	}
+
+	/**
+	 * 绑定SET部分, 不含KEY
+	 *
+	 * @return 下一个参数下标
+	 */
+	public int bindRefresh(PreparedStatement pstmt, Object obj, BitSet mask, int i) throws SQLException {
+		for (int j = mask.nextSetBit(0); j >= 0; j = mask.nextSetBit(j + 1)) {
+			refreshColumns[j].writer.write(pstmt, i++, obj);
+		}
+		return i;
+	}
+
+	private interface Writer {
+		void write(PreparedStatement pstmt, int i, Object obj) throws SQLException;
+	}
+
+	private interface Present {
+		boolean test(Object obj);
+	}
+
+	private static class Column {
+		private Writer writer;
+		private Present present;
+		private ToLongFunction<Object> toLong;
+		private boolean isString;
+		private ObjLongConsumer<Object> keySetter;
+
+		private boolean isPresent(Object obj) {
+			return present.test(obj);
+		}
+
+		private long asLong(Object obj) {
+			return toLong == null ? 0 : toLong.applyAsLong(obj);
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private Writer compileCreate(BeanElement ele, boolean isOracle) {
+
+		final Class type = ele.clz;
+
+		if (type == long.class) {
+			final ToLongFunction<Object> getter = Accessors.longGetter(ele.getMethod);
+			return (pstmt, i, obj) -> pstmt.setLong(i, getter.applyAsLong(obj));
+		}
+		if (type == int.class) {
+			final ToIntFunction<Object> getter = Accessors.intGetter(ele.getMethod);
+			return (pstmt, i, obj) -> pstmt.setInt(i, getter.applyAsInt(obj));
+		}
+		if (type == double.class) {
+			final ToDoubleFunction<Object> getter = Accessors.doubleGetter(ele.getMethod);
+			return (pstmt, i, obj) -> pstmt.setDouble(i, getter.applyAsDouble(obj));
+		}
+
+		final Function<Object, Object> getter = Accessors.getter(ele.getMethod);
+
+		if (type == Boolean.class && isOracle) {
+			return (pstmt, i, obj) -> {
+				Boolean b = (Boolean) getter.apply(obj);
+				pstmt.setInt(i, b != null && b.booleanValue() ? 1 : 0);
+			};
+		}
+		if (type.isEnum()) {
+			final String property = ele.getProperty();
+			return (pstmt, i, obj) -> {
+				Object value = getter.apply(obj);
+				if (value == null)
+					throw new PersistenceException("ENUM CAN NOT NULL, property:" + clz.getName() + "." + property);
+				pstmt.setString(i, value.toString());
+			};
+		}
+		if (ele.isJson) {
+			return (pstmt, i, obj) -> {
+				Object value = getter.apply(obj);
+				if (value == null) {
+					pstmt.setObject(i, null);
+				} else {
+					pstmt.setString(i, JsonX.toJson(value));
+				}
+			};
+		}
+		if (type == String.class) {
+			return (pstmt, i, obj) -> pstmt.setString(i, filter((String) getter.apply(obj)));
+		}
+		if (type == Long.class) {
+			return (pstmt, i, obj) -> {
+				Long value = (Long) getter.apply(obj);
+				pstmt.setLong(i, value == null ? 0 : value.longValue());
+			};
+		}
+		if (type == Integer.class) {
+			return (pstmt, i, obj) -> {
+				Integer value = (Integer) getter.apply(obj);
+				pstmt.setInt(i, value == null ? 0 : value.intValue());
+			};
+		}
+		if (type == Double.class) {
+			return (pstmt, i, obj) -> {
+				Double value = (Double) getter.apply(obj);
+				pstmt.setDouble(i, value == null ? 0 : value.doubleValue());
+			};
+		}
+		if (type == Float.class || type == float.class) {
+			return (pstmt, i, obj) -> {
+				Float value = (Float) getter.apply(obj);
+				pstmt.setFloat(i, value == null ? 0 : value.floatValue());
+			};
+		}
+		if (type == Short.class || type == short.class) {
+			return (pstmt, i, obj) -> {
+				Short value = (Short) getter.apply(obj);
+				pstmt.setShort(i, value == null ? 0 : value.shortValue());
+			};
+		}
+		if (type == Byte.class || type == byte.class) {
+			return (pstmt, i, obj) -> {
+				Byte value = (Byte) getter.apply(obj);
+				pstmt.setByte(i, value == null ? 0 : value.byteValue());
+			};
+		}
+		if (type == Boolean.class) {
+			return (pstmt, i, obj) -> {
+				Boolean value = (Boolean) getter.apply(obj);
+				if (value == null) {
+					pstmt.setInt(i, 0);
+				} else {
+					pstmt.setBoolean(i, value.booleanValue());
+				}
+			};
+		}
+		if (type == boolean.class) {
+			return (pstmt, i, obj) -> pstmt.setBoolean(i, (Boolean) getter.apply(obj));
+		}
+		if (type == BigDecimal.class) {
+			return (pstmt, i, obj) -> {
+				BigDecimal value = (BigDecimal) getter.apply(obj);
+				pstmt.setBigDecimal(i, value == null ? BigDecimal.ZERO : value);
+			};
+		}
+
+		return (pstmt, i, obj) -> pstmt.setObject(i, getter.apply(obj));
+	}
+
+	/**
+	 * 只编译BeanUtilX.getRefreshMap会更新的类型, 其余返回null
+	 */
+	@SuppressWarnings("rawtypes")
+	private Column compileRefresh(BeanElement ele, boolean isOracle) {
+
+		final Class type = ele.getMethod.getReturnType();
+		final Column column = new Column();
+
+		if (type == long.class) {
+			final ToLongFunction<Object> getter = Accessors.longGetter(ele.getMethod);
+			column.present = (obj) -> getter.applyAsLong(obj) != 0;
+			column.writer = (pstmt, i, obj) -> pstmt.setLong(i, getter.applyAsLong(obj));
+			return column;
+		}
+		if (type == int.class) {
+			final ToIntFunction<Object> getter = Accessors.intGetter(ele.getMethod);
+			column.present = (obj) -> getter.applyAsInt(obj) != 0;
+			column.writer = (pstmt, i, obj) -> pstmt.setInt(i, getter.applyAsInt(obj));
+			return column;
+		}
+		if (type == double.class) {
+			final ToDoubleFunction<Object> getter = Accessors.doubleGetter(ele.getMethod);
+			column.present = (obj) -> getter.applyAsDouble(obj) != 0;
+			column.writer = (pstmt, i, obj) -> pstmt.setDouble(i, getter.applyAsDouble(obj));
+			return column;
+		}
+
+		final Function<Object, Object> getter = Accessors.getter(ele.getMethod);
+
+		if (type == float.class) {
+			column.present = (obj) -> ((Float) getter.apply(obj)) != 0;
+			column.writer = (pstmt, i, obj) -> pstmt.setFloat(i, (Float) getter.apply(obj));
+			return column;
+		}
+		if (type == boolean.class || type == Boolean.class) {
+			if (type == boolean.class) {
+				column.present = (obj) -> (Boolean) getter.apply(obj);
+			} else {
+				column.present = (obj) -> getter.apply(obj) != null;
+			}
+			if (isOracle) {
+				column.writer = (pstmt, i, obj) -> pstmt.setInt(i, ((Boolean) getter.apply(obj)) ? 1 : 0);
+			} else {
+				column.writer = (pstmt, i, obj) -> pstmt.setBoolean(i, (Boolean) getter.apply(obj));
+			}
+			return column;
+		}
+
+		column.present = (obj) -> getter.apply(obj) != null;
+
+		if (type == String.class) {
+			column.writer = (pstmt, i, obj) -> pstmt.setString(i, filter((String) getter.apply(obj)));
+		} else if (type.isEnum()) {
+			column.writer = (pstmt, i, obj) -> pstmt.setString(i, getter.apply(obj).toString());
+		} else if (type == Long.class || type == Integer.class || type == Double.class || type == Float.class
+				|| type == java.util.Date.class || type == java.sql.Date.class || type == java.sql.Timestamp.class) {
+			column.writer = (pstmt, i, obj) -> pstmt.setObject(i, getter.apply(obj));
+		} else if (type == BigDecimal.class) {
+			column.writer = (pstmt, i, obj) -> pstmt.setBigDecimal(i, (BigDecimal) getter.apply(obj));
+		} else if (ele.isJson) {
+			column.writer = (pstmt, i, obj) -> pstmt.setString(i, JsonX.toJson(getter.apply(obj)));
+		} else {
+			return null;
+		}
+		return column;
+	}
+
+	private Column compileKey(BeanElement ele) {
+		final Column column = new Column();
+		final Class<?> type = ele.getMethod.getReturnType();
+		if (type == long.class) {
+			final ToLongFunction<Object> getter = Accessors.longGetter(ele.getMethod);
+			column.toLong = getter;
+			column.keySetter = Accessors.longSetter(ele.setMethod);
+			column.writer = (pstmt, i, obj) -> pstmt.setLong(i, getter.applyAsLong(obj));
+		} else if (type == int.class) {
+			final ToIntFunction<Object> getter = Accessors.intGetter(ele.getMethod);
+			column.toLong = (obj) -> getter.applyAsInt(obj);
+			final ObjIntConsumer<Object> setter = Accessors.intSetter(ele.setMethod);
+			column.keySetter = (obj, id) -> setter.accept(obj, (int) id);
+			column.writer = (pstmt, i, obj) -> pstmt.setInt(i, getter.applyAsInt(obj));
+		} else {
+			final Function<Object, Object> getter = Accessors.getter(ele.getMethod);
+			column.isString = type == String.class;
+			if (!column.isString) {
+				column.toLong = (obj) -> {
+					Object value = getter.apply(obj);
+					return value == null ? 0 : ((Number) value).longValue();
+				};
+				final BiConsumer<Object, Object> setter = Accessors.setter(ele.setMethod);
+				if (type == Integer.class) {
+					column.keySetter = (obj, id) -> setter.accept(obj, (int) id);
+				} else {
+					column.keySetter = (obj, id) -> setter.accept(obj, id);
+				}
+			}
+			column.writer = (pstmt, i, obj) -> pstmt.setObject(i, getter.apply(obj));
+		}
+		return column;
+	}
+
+	private static String filter(String str) {
+		if (str == null)
+			return null;
+		return str.replace("<", "&lt").replace(">", "&gt");
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import x7.core.config.Configs;
+import x7.repository.ConfigKey;
+
+/**
+ * 读自己的写<br>
+ * 写过某个实体类之后x7.db.read.sticky.ms(默认1000)毫秒内, 同一线程读这个类走主库; 业务事务里的读也走主库<br>
+ * x7.db.read.gtid=true(MySQL): 写提交后记下主库的gtid_executed, 从库追上后即可读从库<br>
+ * 线程池复用线程时, 请求结束调用clear()
+ *
+ * @author Sim
+ */
+public class ReadYourWrites {
+
+	private final static ThreadLocal<Map<Class<?>, Mark>> holder = new ThreadLocal<Map<Class<?>, Mark>>();
+
+	private static int window = -1;
+	private static Boolean isGtid;
+
+	private static class Mark {
+		private long time;
+		private boolean pending;
+		private String gtid;
+	}
+
+	public static int getWindow() {
+		if (window < 0) {
+			window = Configs.getIntValue(ConfigKey.READ_STICKY_MS, 1000);
+		}
+		return window;
+	}
+
+	public static boolean isGtid() {
+		if (isGtid == null) {
+			isGtid = Configs.isTrue(ConfigKey.READ_GTID, false);
+		}
+		return isGtid;
+	}
+
+	/**
+	 * 写之前调用
+	 */
+	public static void written(Class<?> clz) {
+		Mark mark = mark(clz);
+		if (mark != null) {
+			mark.pending = isGtid();
+		}
+	}
+
+	/**
+	 * 写交给别的线程执行时, 在调用线程调用: 窗口内读主库<br>
+	 * 提交在别的线程, 这里记不到gtid; 之前记下的gtid作废, 不能拿它判断从库追上了
+	 */
+	public static void dispatched(Class<?> clz) {
+		Mark mark = mark(clz);
+		if (mark != null) {
+			mark.pending = false;
+			mark.gtid = null;
+		}
+	}
+
+	private static Mark mark(Class<?> clz) {
+		if (clz == null || getWindow() <= 0)
+			return null;
+		Map<Class<?>, Mark> map = holder.get();
+		if (map == null) {
+			map = new HashMap<Class<?>, Mark>();
+			holder.set(map);
+		}
+		Mark mark = map.get(clz);
+		if (mark == null) {
+			mark = new Mark();
+			map.put(clz, mark);
+		}
+		mark.time = System.currentTimeMillis();
+		return mark;
+	}
+
+	public static boolean isSticky(Class<?> clz) {
+		Map<Class<?>, Mark> map = holder.get();
+		if (map == null || clz == null)
+			return false;
+		Mark mark = map.get(clz);
+		if (mark == null)
+			return false;
+		if (System.currentTimeMillis() - mark.time < getWindow())
+			return true;
+		map.remove(clz);
+		if (map.isEmpty()) {
+			holder.remove();
+		}
+		return false;
+	}
+
+	/**
+	 * 事务提交后, 窗口从提交时开始算
+	 */
+	public static void touch() {
+		Map<Class<?>, Mark> map = holder.get();
+		if (map == null)
+			return;
+		long now = System.currentTimeMillis();
+		for (Mark mark : map.values()) {
+			mark.time = now;
+		}
+	}
+
+	public static void clear() {
+		holder.remove();
+	}
+
+	/**
+	 * 在查询线程里带上当前线程的标记<br>
+	 * Mark也拷贝一份, 两个线程不共用, 执行线程的写不改调用线程的标记
+	 */
+	public static <T> Callable<T> wrap(Callable<T> callable) {
+		final Map<Class<?>, Mark> map = holder.get();
+		if (map == null)
+			return callable;
+		final Map<Class<?>, Mark> copy = new HashMap<Class<?>, Mark>();
+		for (Map.Entry<Class<?>, Mark> entry : map.entrySet()) {
+			Mark mark = new Mark();
+			mark.time = entry.getValue().time;
+			mark.pending = entry.getValue().pending;
+			mark.gtid = entry.getValue().gtid;
+			copy.put(entry.getKey(), mark);
+		}
+		return () -> {
+			Map<Class<?>, Mark> previous = holder.get();
+			holder.set(copy);
+			try {
+				return callable.call();
+			} finally {
+				if (previous == null) {
+					holder.remove();
+				} else {
+					holder.set(previous);
+				}
+			}
+		};
+	}
+
+	private static boolean isPending() {
+		Map<Class<?>, Mark> map = holder.get();
+		if (map == null)
+			return false;
+		for (Mark mark : map.values()) {
+			if (mark.pending)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * 写提交后, 归还连接之前调用, 记下主库的gtid_executed<br>
+	 * 只在做了写的连接上调用(DaoImpl自动提交的写, Tx提交后); 读的连接记下的可能是提交前的gtid
+	 */
+	protected static void capture(Connection conn) {
+		if (!isGtid() || !isPending())
+			return;
+		String gtid = null;
+		try (PreparedStatement pstmt = conn.prepareStatement("SELECT @@GLOBAL.gtid_executed");
+				ResultSet rs = pstmt.executeQuery()) {
+			if (rs.next()) {
+				gtid = rs.getString(1);
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		for (Mark mark : holder.get().values()) {
+			if (mark.pending) {
+				mark.pending = false;
+				mark.gtid = gtid;
+			}
+		}
+	}
+
+	/**
+	 * 从库是否已经执行了写之后的gtid
+	 */
+	protected static boolean isCaughtUp(Class<?> clz, Connection conn) {
+		Map<Class<?>, Mark> map = holder.get();
+		Mark mark = map == null ? null : map.get(clz);
+		if (mark == null || mark.gtid == null || mark.gtid.isEmpty())
+			return false;
+		try (PreparedStatement pstmt = conn.prepareStatement("SELECT GTID_SUBSET(?, @@GLOBAL.gtid_executed)")) {
+			pstmt.setString(1, mark.gtid);
+			try (ResultSet rs = pstmt.executeQuery()) {
+				return rs.next() && rs.getInt(1) == 1;
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+}
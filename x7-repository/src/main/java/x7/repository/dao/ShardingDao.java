@@ -16,7 +16,9 @@
  */
 package x7.repository.dao;
 
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 import x7.core.bean.Criteria;
 import x7.core.web.Pagination;
@@ -45,6 +47,33 @@ public interface ShardingDao {
 	boolean refresh(Object obj, Map<String, Object> conditonMap);
 
 	boolean remove(Object obj);
+	
+	/**
+	 * 按更新的列分组, 同组一个JDBC批处理, 每个分片一个事务, 分片并发
+	 * @param objList
+	 */
+	boolean refreshBatch(List<? extends Object> objList);
+	
+	/**
+	 * 按主键批量删除, 每个分片一个事务
+	 * @param objList
+	 */
+	boolean removeBatch(List<? extends Object> objList);
+	
+	/**
+	 * 按主键值批量删除, 分片键不是主键时, 所有分片都执行
+	 * @param clz
+	 * @param idList
+	 */
+	<T> boolean removeByIds(Class<T> clz, List<? extends Object> idList);
+	
+	boolean upsert(Object obj);
+	
+	/**
+	 * 按分片分组, 分片并发
+	 * @param objList
+	 */
+	boolean upsertBatch(List<? extends Object> objList);
 
 	boolean execute(Object obj, String sql);
 
@@ -55,5 +84,20 @@ public interface ShardingDao {
 	<T> Pagination<T> find(Criteria criteria);
 	
 	Pagination<Map<String,Object>> find(Criteria.Fetch fetch);
+	
+	/**
+	 * 带分片键时只查一个分片, 否则逐个分片流式查询
+	 * @param criteria
+	 * @param consumer
+	 */
+	<T> void stream(Criteria criteria, Consumer<T> consumer);
+	
+	/**
+	 * inProperty为分片键时按分片分组, 否则查询所有分片
+	 * @param clz
+	 * @param inProperty
+	 * @param inList
+	 */
+	<T> List<T> in(Class<T> clz, String inProperty, List<? extends Object> inList);
 
-}
\ No newline at end of file
+}
\ No newline at end of file
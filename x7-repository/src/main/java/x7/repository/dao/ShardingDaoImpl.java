@@ -34,22 +34,28 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 
 import javax.sql.DataSource;
 
 import x7.core.bean.Criteria;
 import x7.core.bean.Criteria.Fetch;
+import x7.core.bean.CriteriaBuilder;
+import x7.core.bean.Keyset;
 import x7.core.bean.Parsed;
 import x7.core.bean.Parser;
 import x7.core.config.Configs;
 import x7.core.repository.X;
 import x7.core.util.BeanUtilX;
+import x7.core.util.InUtil;
 import x7.core.util.StringUtil;
 import x7.core.web.Direction;
 import x7.core.web.Pagination;
 import x7.repository.exception.PersistenceException;
 import x7.repository.exception.RollbackException;
 import x7.repository.exception.ShardingException;
+import x7.repository.monitor.SlowQueryLog;
 import x7.repository.sharding.ShardingPolicy;
 
 /**
@@ -185,54 +191,41 @@ public class ShardingDaoImpl implements ShardingDao {
 		return getConnection(dataSource);
 	}
 
+	/**
+	 * 业务事务里, 每个分片一个事务连接; 只读事务里, 读用事务在从库的连接
+	 */
 	private Connection getConnection(String key, boolean isRead) throws SQLException {
+		return getConnection(getDataSource(key, isRead), isRead);
+	}
 
-		if (dsRMap == null || dsRMap.isEmpty()) {// ONLY WRITE
-
-			if (!isRead) {
-				if (!Tx.isNoBizTx()) {
-					Connection connection = Tx.getConnection();
-					if (connection == null) {
-						DataSource dataSource = dsWMap.get(key);
-						if (dataSource == null) {
-							throw new RollbackException("No DataSource");
-						}
-						connection = getConnection(dataSource);
-						Tx.add(connection);
-					}
-					return connection;
-				}
-			}
-			DataSource dataSource = dsWMap.get(key);
-			if (dataSource == null) {
-				throw new RollbackException("No DataSource");
-			}
-			return getConnection(dataSource);
+	private DataSource getDataSource(String key, boolean isRead) {
+		DataSource dataSource = null;
+		if (isRead && dsRMap != null && !dsRMap.isEmpty()) {
+			dataSource = dsRMap.get(key);
+		} else {
+			dataSource = dsWMap.get(key);
+		}
+		if (dataSource == null) {
+			throw new RollbackException("No DataSource");
 		}
+		return dataSource;
+	}
+
+	private Connection getConnection(DataSource dataSource, boolean isRead) throws SQLException {
 
-		if (isRead) {// READ
-			DataSource dataSource = dsRMap.get(key);
+		if (Tx.isNoBizTx())
 			return getConnection(dataSource);
-		}
 
-		if (!Tx.isNoBizTx()) {
-			Connection connection = Tx.getConnection();
-			if (connection == null) {
-				DataSource dataSource = dsWMap.get(key);
-				if (dataSource == null) {
-					throw new RollbackException("No DataSource");
-				}
-				connection = getConnection(dataSource);
-				Tx.add(connection);
-			}
-			return connection;
+		if (Tx.isReadOnly()) {
+			if (!isRead)
+				throw new PersistenceException("Write in read-only Tx");
+			return Tx.getConnection(dataSource);
 		}
 
-		DataSource dataSource = dsWMap.get(key);
-		if (dataSource == null) {
-			throw new RollbackException("No DataSource");
-		}
-		return getConnection(dataSource);
+		if (isRead)
+			return getConnection(dataSource);
+
+		return Tx.getConnection(dataSource);
 	}
 
 	private Connection getConnection(DataSource ds) throws SQLException {
@@ -361,6 +354,104 @@ public class ShardingDaoImpl implements ShardingDao {
 		return remove(obj, key);
 	}
 
+	/**
+	 * 每个分片一个事务, 分片并发执行; 在业务事务里, 各分片的连接加入当前事务
+	 */
+	private boolean batch(Map<String, List<Object>> shardMap, BiFunction<List<Object>, Connection, Boolean> function) {
+
+		Map<String, Future<Boolean>> futureMap = new HashMap<>();
+		for (Entry<String, List<Object>> entry : shardMap.entrySet()) {
+			String k = entry.getKey();
+			List<Object> list = entry.getValue();
+			futureMap.put(k, service.submit(Tx.wrap(() -> function.apply(list, getConnection(k, false)))));
+		}
+
+		boolean flag = true;
+		for (Entry<String, Future<Boolean>> entry : futureMap.entrySet()) {
+			try {
+				flag &= entry.getValue().get(2, TimeUnit.MINUTES);
+			} catch (InterruptedException | ExecutionException | TimeoutException e) {
+				e.printStackTrace();
+				throw new PersistenceException("DB is busy, while batch on sharding DB: " + entry.getKey());
+			}
+		}
+		return flag;
+	}
+
+	private Map<String, List<Object>> groupByShard(List<? extends Object> objList) {
+		Map<String, List<Object>> shardMap = new HashMap<>();
+		for (Object obj : objList) {
+			String key = getKey(obj);
+			List<Object> list = shardMap.get(key);
+			if (list == null) {
+				list = new ArrayList<>();
+				shardMap.put(key, list);
+			}
+			list.add(obj);
+		}
+		return shardMap;
+	}
+
+	@Override
+	public boolean refreshBatch(List<? extends Object> objList) {
+		if (objList == null || objList.isEmpty())
+			return false;
+		tryToParse(objList.get(0).getClass());
+		return batch(groupByShard(objList), (list, conn) -> DaoImpl.getInstance().refreshBatch(list, conn));
+	}
+
+	@Override
+	public boolean upsert(Object obj) {
+		List<Object> list = new ArrayList<>();
+		list.add(obj);
+		return upsertBatch(list);
+	}
+
+	@Override
+	public boolean upsertBatch(List<? extends Object> objList) {
+		if (objList == null || objList.isEmpty())
+			return false;
+		tryToParse(objList.get(0).getClass());
+		return batch(groupByShard(objList), (list, conn) -> DaoImpl.getInstance().upsertBatch(list, conn));
+	}
+
+	@Override
+	public boolean removeBatch(List<? extends Object> objList) {
+		if (objList == null || objList.isEmpty())
+			return false;
+		Class clz = objList.get(0).getClass();
+		tryToParse(clz);
+		return batch(groupByShard(objList), (list, conn) -> DaoImpl.getInstance().removeBatch(clz, list, false, conn));
+	}
+
+	@Override
+	public <T> boolean removeByIds(Class<T> clz, List<? extends Object> idList) {
+		if (idList == null || idList.isEmpty())
+			return false;
+		tryToParse(clz);
+
+		Map<String, List<Object>> shardMap = new HashMap<>();
+		if (Parser.get(clz).getKey(X.KEY_ONE).equals(getKeyFieldName(clz))) {
+			for (Object id : idList) {
+				String key = (id instanceof Long || id instanceof Integer) ? getKey(((Number) id).longValue())
+						: getKey(id.toString());
+				List<Object> list = shardMap.get(key);
+				if (list == null) {
+					list = new ArrayList<>();
+					shardMap.put(key, list);
+				}
+				list.add(id);
+			}
+		} else {
+			String policy = Configs.getString("x7.db.sharding.policy");
+			for (String k : ShardingPolicy.get(policy).getSuffixArr()) {
+				shardMap.put(k, new ArrayList<Object>(idList));
+			}
+		}
+
+		return batch(shardMap, (list, conn) -> DaoImpl.getInstance().removeBatch(clz, list, true, conn));
+	}
+
 	@Override
 	public boolean execute(Object obj, String sql) {
 		tryToParse(obj.getClass());
@@ -414,14 +505,15 @@ public class ShardingDaoImpl implements ShardingDao {
 	}
 
 	private <T> Pagination<T> find(Criteria criteria, String key) {
+		DataSource ds = getDataSource(key, true);// FIXME true, need a policy
 		Connection conn = null;
 		try {
-			conn = getConnection(key, true);// FIXME true, need a policy
+			conn = getConnection(ds, true);
 		} catch (SQLException e) {
 			throw new RuntimeException("NO CONNECTION");
 		}
 
-		Pagination<T> p = DaoImpl.getInstance().find(criteria,  conn);
+		Pagination<T> p = DaoImpl.getInstance().find(criteria, conn, ds);
 		return p;
 	}
 
@@ -455,6 +547,13 @@ public class ShardingDaoImpl implements ShardingDao {
 
 		Map<String, Future<Pagination<T>>> futureMap = new HashMap<>();
 
+		/*
+		 * 各分片并发使用同一个Criteria, 只读
+		 */
+		criteria.setRows(criteria.isKeyset() ? rows : rows * page);
+		criteria.setPage(1);
+
+		long startTime = System.nanoTime();
 		for (String k : keyArr) {
 
 			Callable<Pagination<T>> task = new Callable<Pagination<T>>() {
@@ -464,8 +563,6 @@ public class ShardingDaoImpl implements ShardingDao {
 
 					Pagination<T> p = null;
 					try {
-						criteria.setRows(rows * page);
-						criteria.setPage(1);
 						p = find(criteria,  k);
 					} catch (Exception e) {
 						for (Future<Pagination<T>> f : futureMap.values()) {
@@ -501,12 +598,30 @@ public class ShardingDaoImpl implements ShardingDao {
 				throw new PersistenceException("DB is busy, while query from sharding DB: " + k);
 			}
 		}
+		slow(criteria, System.nanoTime() - startTime, keyArr.length);
 
 		long totalRows = 0;
 		List<T> resultList = new ArrayList<>();
 		for (Pagination<T> p : resultMap.values()) {
 			resultList.addAll(p.getList());
 			totalRows += p.getTotalRows();
+			pagination.setCountStrategy(p.getCountStrategy());
+		}
+
+		if (criteria.isKeyset()) {
+			/*
+			 * 每个分片都从同一个seek点取rows条, 合并后取前rows条
+			 */
+			resultList.sort(Keyset.comparator(criteria));
+			if (rows > 0 && resultList.size() >= rows) {
+				resultList = resultList.subList(0, rows);
+				pagination.setContinuation(Keyset.continuation(criteria, resultList.get(rows - 1)));
+			}
+			pagination.setTotalRows(totalRows);
+			pagination.setList(resultList);
+			pagination.setRows(rows);
+			pagination.setPage(page);
+			return pagination;
 		}
 
 		String orderBy = criteria.getOrderBy();
@@ -532,16 +647,117 @@ public class ShardingDaoImpl implements ShardingDao {
 		return pagination;
 	}
 
+	/**
+	 * 按分片分组, 每片再按InUtil.MAX分块, 并发查询后合并<br>
+	 * 只读事务里在调用线程逐块查询, 都在事务的快照里
+	 */
+	@Override
+	public <T> List<T> in(Class<T> clz, String inProperty, List<? extends Object> inList) {
+
+		tryToParse(clz);
+
+		if (StringUtil.isNullOrEmpty(inProperty)) {
+			inProperty = Parser.get(clz).getKey(X.KEY_ONE);
+		}
+
+		List<Object> list = InUtil.distinct(inList);
+
+		Map<String, List<Object>> shardMap = new HashMap<>();
+		if (inProperty.equals(getKeyFieldName(clz))) {
+			for (Object v : list) {
+				String key = (v instanceof Long || v instanceof Integer) ? getKey(((Number) v).longValue())
+						: getKey(v.toString());
+				List<Object> l = shardMap.get(key);
+				if (l == null) {
+					l = new ArrayList<>();
+					shardMap.put(key, l);
+				}
+				l.add(v);
+			}
+		} else {
+			String policy = Configs.getString("x7.db.sharding.policy");
+			for (String k : ShardingPolicy.get(policy).getSuffixArr()) {
+				shardMap.put(k, list);
+			}
+		}
+
+		final String property = inProperty;
+		if (Tx.isReadOnly()) {
+			List<T> resultList = new ArrayList<>();
+			for (Entry<String, List<Object>> entry : shardMap.entrySet()) {
+				for (List<Object> chunk : InUtil.chunk(entry.getValue())) {
+					Connection conn = null;
+					try {
+						conn = getConnection(entry.getKey(), true);
+					} catch (SQLException e) {
+						throw new RuntimeException("NO CONNECTION");
+					}
+					resultList.addAll(DaoImpl.getInstance().in(clz, property, chunk, conn));
+				}
+			}
+			return resultList;
+		}
+
+		List<Future<List<T>>> futureList = new ArrayList<>();
+		for (Entry<String, List<Object>> entry : shardMap.entrySet()) {
+			String k = entry.getKey();
+			for (List<Object> chunk : InUtil.chunk(entry.getValue())) {
+				futureList.add(service.submit(() -> {
+					Connection conn = getConnection(k, true);
+					return DaoImpl.getInstance().in(clz, property, chunk, conn);
+				}));
+			}
+		}
+
+		return DaoImpl.getInstance().merge(futureList);
+	}
+
+	private <T> void stream(Criteria criteria, Consumer<T> consumer, String key) {
+		Connection conn = null;
+		try {
+			conn = getConnection(key, true);
+		} catch (SQLException e) {
+			throw new RuntimeException("NO CONNECTION");
+		}
+
+		DaoImpl.getInstance().stream(criteria, consumer, conn);
+	}
+
+	/**
+	 * 分片依次流式读取, consumer只在调用线程里执行, 内存不随分片数增长<br>
+	 * 只保证分片内有序
+	 */
+	@Override
+	public <T> void stream(Criteria criteria, Consumer<T> consumer) {
+
+		tryToParse(criteria.getClz());
+
+		String key = getKey(criteria);
+
+		if (StringUtil.isNotNull(key)) {
+			stream(criteria, consumer, key);
+			return;
+		}
+
+		String policy = Configs.getString("x7.db.sharding.policy");
+		String[] keyArr = ShardingPolicy.get(policy).getSuffixArr();
+
+		for (String k : keyArr) {
+			stream(criteria, consumer, k);
+		}
+	}
+
 	private Pagination<Map<String, Object>> find(Fetch criterionJoinable, 
 			String key) {
+		DataSource ds = getDataSource(key, true);// FIXME true, need a policy
 		Connection conn = null;
 		try {
-			conn = getConnection(key, true);// FIXME true, need a policy
+			conn = getConnection(ds, true);
 		} catch (SQLException e) {
 			throw new RuntimeException("NO CONNECTION");
 		}
 
-		Pagination<Map<String, Object>> p = DaoImpl.getInstance().find(criterionJoinable, conn);
+		Pagination<Map<String, Object>> p = DaoImpl.getInstance().find(criterionJoinable, conn, ds);
 		return p;
 	}
 
@@ -569,6 +785,7 @@ public class ShardingDaoImpl implements ShardingDao {
 		pagination.setDirection(fetch.getDirection());
 		Map<String, Future<Pagination<Map<String, Object>>>> futureMap = new HashMap<>();
 
+		long startTime = System.nanoTime();
 		for (String k : keyArr) {
 
 			Callable<Pagination<Map<String, Object>>> task = new Callable<Pagination<Map<String, Object>>>() {
@@ -616,6 +833,7 @@ public class ShardingDaoImpl implements ShardingDao {
 				throw new PersistenceException("DB is busy, while query from sharding DB: " + k);
 			}
 		}
+		slow(fetch, System.nanoTime() - startTime, keyArr.length);
 
 		long totalRows = 0;
 		List<Map<String, Object>> resultList = new ArrayList<>();
@@ -646,6 +864,18 @@ public class ShardingDaoImpl implements ShardingDao {
 		return pagination;
 	}
 
+	/**
+	 * scatter查询的总耗时记入慢查询日志, 各分片自己的慢查询由DaoImpl记录
+	 */
+	private void slow(Criteria criteria, long nanos, int shards) {
+		SlowQueryLog slowQueryLog = SlowQueryLog.getInstance();
+		if (!slowQueryLog.isSlow(nanos))
+			return;
+		List<Object> valueList = new ArrayList<Object>();
+		String sql = CriteriaBuilder.parse(criteria, valueList)[1];
+		slowQueryLog.recordScatter(criteria.getClz(), sql, valueList, nanos, shards);
+	}
+
 	private <T> long getCount(Object obj, String key) {
 		Connection conn = null;
 		try {
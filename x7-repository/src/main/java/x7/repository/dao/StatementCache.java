@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import x7.core.config.Configs;
+import x7.repository.ConfigKey;
+import x7.repository.monitor.JdbcMetrics;
+
+/**
+ * PreparedStatement缓存, 每个物理连接一个LRU, 按SQL文本(和是否返回自增键)缓存<br>
+ * 语句在物理连接上预编译, 连接归还连接池时不会被关闭; prepare时取出, release时清空参数放回<br>
+ * 同一连接同一SQL同时只会被一个调用使用, 第二个调用拿到新语句, release时多余的关闭<br>
+ * x7.db.statement.cache.size=64 开启, 默认0关闭; 配合MySQL的useServerPrepStmts, 复用的语句不再重复解析<br>
+ * 语句绕过了连接池的代理, 连接池不知道连接上有未提交的写, 归还时不会回滚; 开启前确认写失败的路径都显式rollback
+ *
+ * @author Sim
+ */
+public class StatementCache {
+
+	private final static String GENERATED_KEYS = "\u0001";
+
+	private static StatementCache instance;
+
+	public static StatementCache getInstance() {
+		if (instance == null) {
+			instance = new StatementCache();
+		}
+		return instance;
+	}
+
+	private final int size;
+
+	private final Map<Connection, Holder> holderMap = new ConcurrentHashMap<Connection, Holder>();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	private StatementCache() {
+		this.size = Configs.getIntValue(ConfigKey.STATEMENT_CACHE_SIZE, 0);
+	}
+
+	public boolean isEnabled() {
+		return size > 0;
+	}
+
+	public PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+		return prepare(conn, sql, false);
+	}
+
+	public PreparedStatement prepare(Connection conn, String sql, boolean isGeneratedKeys) throws SQLException {
+
+		if (!isEnabled()) {
+			return isGeneratedKeys ? conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)
+					: conn.prepareStatement(sql);
+		}
+
+		Connection physical = conn.unwrap(Connection.class);
+		Holder holder = holderMap.get(physical);
+		if (holder == null) {
+			sweep();
+			holder = new Holder();
+			holderMap.put(physical, holder);
+		}
+
+		String key = isGeneratedKeys ? GENERATED_KEYS + sql : sql;
+		PreparedStatement pstmt = holder.checkOut(key);
+		if (pstmt != null && !pstmt.isClosed()) {
+			hits.increment();
+			return pstmt;
+		}
+
+		misses.increment();
+		pstmt = isGeneratedKeys ? physical.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)
+				: physical.prepareStatement(sql);
+		pstmt = JdbcMetrics.getInstance().wrap(pstmt, sql);
+		holder.lend(pstmt, key);
+		return pstmt;
+	}
+
+	/**
+	 * 代替close; 不是prepare出来的语句直接关闭
+	 */
+	public void release(Statement stmt) {
+		if (stmt == null)
+			return;
+
+		try {
+			Holder holder = isEnabled() ? holderMap.get(stmt.getConnection()) : null;
+			if (holder != null && stmt instanceof PreparedStatement) {
+				PreparedStatement pstmt = (PreparedStatement) stmt;
+				String key = holder.giveBack(pstmt);
+				if (key != null) {
+					pstmt.clearParameters();
+					pstmt.clearBatch();
+					if (holder.checkIn(key, pstmt))
+						return;
+				}
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+
+		close(stmt);
+	}
+
+	/**
+	 * 物理连接被连接池关闭后, 移除它的缓存
+	 */
+	private void sweep() {
+		Iterator<Entry<Connection, Holder>> ite = holderMap.entrySet().iterator();
+		while (ite.hasNext()) {
+			Entry<Connection, Holder> entry = ite.next();
+			try {
+				if (entry.getKey().isClosed()) {
+					ite.remove();
+				}
+			} catch (SQLException e) {
+				ite.remove();
+			}
+		}
+	}
+
+	private static void close(Statement stmt) {
+		try {
+			stmt.close();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public double getHitRatio() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 0 : (double) h / total;
+	}
+
+	public int getConnectionCount() {
+		return holderMap.size();
+	}
+
+	@Override
+	public String toString() {
+		return "StatementCache [size=" + size + ", connections=" + getConnectionCount() + ", hits=" + getHits()
+				+ ", misses=" + getMisses() + ", evictions=" + getEvictions() + ", hitRatio=" + getHitRatio() + "]";
+	}
+
+	private class Holder {
+
+		private final LinkedHashMap<String, PreparedStatement> lru = new LinkedHashMap<String, PreparedStatement>(16,
+				0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<String, PreparedStatement> eldest) {
+				if (size() <= size)
+					return false;
+				evictions.increment();
+				close(eldest.getValue());
+				return true;
+			}
+		};
+
+		private final Map<PreparedStatement, String> lentMap = new IdentityHashMap<PreparedStatement, String>();
+
+		private synchronized PreparedStatement checkOut(String key) {
+			PreparedStatement pstmt = lru.remove(key);
+			if (pstmt != null) {
+				lentMap.put(pstmt, key);
+			}
+			return pstmt;
+		}
+
+		private synchronized void lend(PreparedStatement pstmt, String key) {
+			lentMap.put(pstmt, key);
+		}
+
+		private synchronized String giveBack(PreparedStatement pstmt) {
+			return lentMap.remove(pstmt);
+		}
+
+		private synchronized boolean checkIn(String key, PreparedStatement pstmt) {
+			if (lru.containsKey(key))
+				return false;
+			lru.put(key, pstmt);
+			return true;
+		}
+	}
+}
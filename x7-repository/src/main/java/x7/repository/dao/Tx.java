@@ -18,17 +18,23 @@ package x7.repository.dao;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
 
+import javax.sql.DataSource;
 
+import x7.repository.exception.PersistenceException;
 
 /**
  * Tx仅仅是本地事务，不支持分布式事务<br>
- * 同一事务下，严格禁止切换线程，必须同步执行<br>
+ * 事务上下文保存在ThreadLocal里, 每个DataSource一个连接(分片时每个分片一个)<br>
+ * 嵌套begin用savepoint, 内层rollback只回滚到savepoint; beginReadOnly的事务读走从库, 写抛出异常<br>
+ * 切换线程时用Tx.wrap(..)把上下文带过去, 同一连接上不要并发执行<br>
  * 使用时，优先考虑乐观锁, refresh(obj, map);<br>
  * <br>
  * Sample：<br>
@@ -36,9 +42,9 @@ import java.util.concurrent.ConcurrentHashMap;
  * <hr>
  * <br>
  * 
- * Tx.begin(); <br>
+ * try (Tx.Scope scope = Tx.begin()) { <br>
  * (ok) Tx.commit(); <br>
- * (exception) Tx.rollback(); <br>
+ * } (没有commit, close时rollback) <br>
  * <br>
  * 
  * @author Sim
@@ -46,110 +52,310 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class Tx {
 
-	private static Map<Long, Connection> connMap = new ConcurrentHashMap<>();
-	private static Map<Long, List<Statement>> map = new ConcurrentHashMap<Long, List<Statement>>();
+	private final static ThreadLocal<Context> holder = new ThreadLocal<Context>();
 
-	private static List<Statement> remove() {
-		long threadId = Thread.currentThread().getId();
-		return map.remove(threadId);
+	/**
+	 * 当前线程的事务上下文, 没有事务返回null
+	 */
+	public static Context current() {
+		return holder.get();
 	}
-	
-	
-	protected static void add(Connection connection){
-		long threadId = Thread.currentThread().getId();
-		connMap.put(threadId, connection);
+
+	protected static boolean isNoBizTx() {
+		return holder.get() == null;
+	}
+
+	protected static boolean isReadOnly() {
+		Context context = holder.get();
+		return context != null && context.readOnly;
 	}
-	
-	protected static Connection getConnection(){
-		long threadId = Thread.currentThread().getId();
-		return connMap.get(threadId);
+
+	/**
+	 * 事务里这个DataSource的连接, 没有就从连接池取一个
+	 */
+	protected static Connection getConnection(DataSource dataSource) throws SQLException {
+		return holder.get().getConnection(dataSource);
 	}
 
-	protected static boolean isNoBizTx() {
-		long threadId = Thread.currentThread().getId();
-		return !map.containsKey(threadId);
+	/**
+	 * 是否事务持有的连接, 持有的连接不能被DAO关闭, 也不能改autoCommit
+	 */
+	protected static boolean isTxConnection(Connection conn) {
+		Context context = holder.get();
+		return context != null && context.contains(conn);
 	}
 
 	protected static void add(Statement stmt) {
-		long threadId = Thread.currentThread().getId();
-		List<Statement> list = map.get(threadId);
-		list.add(stmt);
+		holder.get().add(stmt);
 	}
 
-	public static void begin() {
-		long threadId = Thread.currentThread().getId();
-		map.put(threadId, new ArrayList<Statement>());
+	public static Scope begin() {
+		return begin(false);
+	}
+
+	/**
+	 * 只读事务, 在从库(没有从库时主库)的同一连接上读, 读到一致的快照
+	 */
+	public static Scope beginReadOnly() {
+		return begin(true);
+	}
+
+	private static Scope begin(boolean readOnly) {
+		Context context = holder.get();
+		if (context == null) {
+			context = new Context(readOnly);
+			holder.set(context);
+		} else {
+			context.savepoint();
+		}
+		return new Scope(context, context.depth());
 	}
 
-	
 	public static void commit() {
-		
-		long threadId = Thread.currentThread().getId();
-		Connection connection = connMap.remove(threadId);
-		
-		if (connection == null){
-			remove();
+		Context context = holder.get();
+		if (context == null)
+			return;
+		if (context.depth() > 0) {
+			context.releaseSavepoint();
 			return;
 		}
-		
 		try {
-			connection.commit();
-		} catch (SQLException e) {
-			e.printStackTrace();
-		}finally{
-			
-			List<Statement> list = remove();
-			if (list != null) {
-				for (Statement stmt : list) {
-					try {
-						stmt.close();
-					} catch (SQLException e) {
-						e.printStackTrace();
-					}
-				}
+			context.commit();
+			ReadYourWrites.touch();
+		} finally {
+			end(context);
+		}
+	}
+
+	public static void rollback() {
+		Context context = holder.get();
+		if (context == null)
+			return;
+		if (context.depth() > 0) {
+			context.rollbackToSavepoint();
+			return;
+		}
+		try {
+			context.rollback();
+		} finally {
+			end(context);
+		}
+	}
+
+	private static void end(Context context) {
+		context.close();
+		if (holder.get() == context) {
+			holder.remove();
+		}
+	}
+
+	/**
+	 * 在其他线程里加入当前事务
+	 */
+	public static Runnable wrap(Runnable runnable) {
+		final Context context = holder.get();
+		if (context == null)
+			return runnable;
+		return () -> {
+			Context previous = holder.get();
+			holder.set(context);
+			try {
+				runnable.run();
+			} finally {
+				restore(previous);
 			}
-			
+		};
+	}
+
+	/**
+	 * 在其他线程里加入当前事务
+	 */
+	public static <T> Callable<T> wrap(Callable<T> callable) {
+		final Context context = holder.get();
+		if (context == null)
+			return callable;
+		return () -> {
+			Context previous = holder.get();
+			holder.set(context);
 			try {
-				connection.close();
-			} catch (SQLException e) {
-				e.printStackTrace();
+				return callable.call();
+			} finally {
+				restore(previous);
 			}
+		};
+	}
+
+	private static void restore(Context previous) {
+		if (previous == null) {
+			holder.remove();
+		} else {
+			holder.set(previous);
+		}
+	}
+
+	/**
+	 * begin返回的作用域, close时如果这一层还没有commit/rollback, 则rollback
+	 */
+	public static class Scope implements AutoCloseable {
+
+		private final Context context;
+		private final int depth;
+
+		private Scope(Context context, int depth) {
+			this.context = context;
+			this.depth = depth;
 		}
 
+		@Override
+		public void close() {
+			while (holder.get() == context && !context.isClosed() && context.depth() >= depth) {
+				rollback();
+			}
+		}
 	}
 
-	public static void rollback() {
-		
-		long threadId = Thread.currentThread().getId();
-		Connection connection = connMap.remove(threadId);
-		
-		if (connection == null){
-			remove();
-			return;
+	/**
+	 * 事务上下文: 连接, savepoint, 语句
+	 */
+	public static class Context {
+
+		private final boolean readOnly;
+		private final Map<DataSource, Connection> connMap = new IdentityHashMap<DataSource, Connection>();
+		/*
+		 * 每层嵌套一个Map, 连接在这一层之后才取得时没有savepoint, 回滚这一层就是回滚整个连接
+		 */
+		private final List<Map<Connection, Savepoint>> savepointList = new ArrayList<Map<Connection, Savepoint>>();
+		private final List<Statement> statementList = new ArrayList<Statement>();
+		private boolean closed;
+
+		private Context(boolean readOnly) {
+			this.readOnly = readOnly;
 		}
-		
-		try {
-			connection.rollback();
-		} catch (SQLException e) {
-			e.printStackTrace();
-		}finally{
-			
-			List<Statement> list = remove();
-			if (list != null) {
-				for (Statement stmt : list) {
-					try {
-						stmt.close();
-					} catch (SQLException e) {
-						e.printStackTrace();
+
+		public boolean isReadOnly() {
+			return readOnly;
+		}
+
+		public synchronized boolean isClosed() {
+			return closed;
+		}
+
+		public synchronized int depth() {
+			return savepointList.size();
+		}
+
+		private synchronized boolean contains(Connection conn) {
+			return connMap.containsValue(conn);
+		}
+
+		private synchronized Connection getConnection(DataSource dataSource) throws SQLException {
+			if (closed)
+				throw new PersistenceException("Tx closed");
+			Connection conn = connMap.get(dataSource);
+			if (conn != null)
+				return conn;
+
+			conn = dataSource.getConnection();
+			if (conn == null)
+				throw new PersistenceException("NO CONNECTION");
+			try {
+				conn.setAutoCommit(false);
+				if (readOnly) {
+					conn.setReadOnly(true);
+				}
+			} catch (SQLException e) {
+				conn.close();
+				throw e;
+			}
+			connMap.put(dataSource, conn);
+			return conn;
+		}
+
+		private synchronized void add(Statement stmt) {
+			statementList.add(stmt);
+		}
+
+		private synchronized void savepoint() {
+			Map<Connection, Savepoint> map = new IdentityHashMap<Connection, Savepoint>();
+			for (Connection conn : connMap.values()) {
+				try {
+					map.put(conn, conn.setSavepoint());
+				} catch (SQLException e) {
+					throw new PersistenceException("Savepoint failed: " + e.getMessage());
+				}
+			}
+			savepointList.add(map);
+		}
+
+		private synchronized void releaseSavepoint() {
+			Map<Connection, Savepoint> map = savepointList.remove(savepointList.size() - 1);
+			for (Map.Entry<Connection, Savepoint> entry : map.entrySet()) {
+				try {
+					entry.getKey().releaseSavepoint(entry.getValue());
+				} catch (SQLException e) {
+					// Oracle不支持release, 提交或回滚外层事务时释放
+				}
+			}
+		}
+
+		private synchronized void rollbackToSavepoint() {
+			Map<Connection, Savepoint> map = savepointList.remove(savepointList.size() - 1);
+			for (Connection conn : connMap.values()) {
+				try {
+					Savepoint savepoint = map.get(conn);
+					if (savepoint == null) {
+						conn.rollback();
+					} else {
+						conn.rollback(savepoint);
 					}
+				} catch (SQLException e) {
+					e.printStackTrace();
 				}
 			}
-			
-			try {
-				connection.close();
-			} catch (SQLException e) {
-				e.printStackTrace();
+		}
+
+		private synchronized void commit() {
+			for (Connection conn : connMap.values()) {
+				try {
+					conn.commit();
+				} catch (SQLException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		private synchronized void rollback() {
+			for (Connection conn : connMap.values()) {
+				try {
+					conn.rollback();
+				} catch (SQLException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		private synchronized void close() {
+			if (closed)
+				return;
+			closed = true;
+			for (Statement stmt : statementList) {
+				StatementCache.getInstance().release(stmt);
+			}
+			statementList.clear();
+			for (Connection conn : connMap.values()) {
+				try {
+					if (readOnly) {
+						conn.setReadOnly(false);
+					} else {
+						ReadYourWrites.capture(conn);
+					}
+					conn.close();
+				} catch (SQLException e) {
+					e.printStackTrace();
+				}
 			}
+			connMap.clear();
+			savepointList.clear();
 		}
 	}
 
@@ -0,0 +1,568 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.dao;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.sql.DataSource;
+
+import x7.core.config.Configs;
+import x7.core.util.StringUtil;
+import x7.repository.ConfigKey;
+import x7.repository.dao.BatchResult.Failure;
+import x7.repository.mapper.Mapper;
+import x7.repository.mapper.MapperFactory;
+import x7.repository.monitor.Histogram;
+
+/**
+ * 写后(write-behind)<br>
+ * 每个类一个按主键的ConcurrentHashMap, 同一主键的写合并为一次:<br>
+ * create后refresh仍是create, create后remove都不执行, remove后create变为upsert<br>
+ * refresh只写非默认值的属性, 合并refresh时不是同一个对象, 就把它的非默认值覆盖到前一次对象的拷贝上(ParamBinder.overlay)<br>
+ * 类按hash分给x7.async.flushers个刷写线程, 同一个类总在同一个线程刷写, 不会乱序<br>
+ * 攒够x7.async.batch.rows, 或每隔x7.async.flush.ms, 刷写一次<br>
+ * 待写超过x7.async.max.pending时, 调用线程自己刷写(caller-runs), 不再阻塞在队列上<br>
+ * 配置了x7.async.journal.dir时, 每次写先追加到WriteJournal, 重启时重放<br>
+ * 自增主键还没有值的create不写日志: 重放时无法知道崩溃前是否已经插入, 会插入两次; 崩溃时这些写会丢失
+ *
+ * @author Sim
+ */
+public class WriteBehind {
+
+	private final static int MAX_ATTEMPTS = 3;
+
+	enum Op {
+		CREATE, REFRESH, UPSERT, REMOVE
+	}
+
+	static class Write {
+		final Object key;
+		final Op op;
+		final Object obj;
+		/**
+		 * 合并进来的最早一次写在日志里的序号, 没写日志的自增create是Long.MAX_VALUE, 不拖住低水位
+		 */
+		final long seq;
+		int attempts;
+
+		Write(Object key, Op op, Object obj, long seq) {
+			this.key = key;
+			this.op = op;
+			this.obj = obj;
+			this.seq = seq;
+		}
+
+		private Write with(Op op, Object obj) {
+			Write write = new Write(key, op, obj, seq);
+			write.attempts = attempts;
+			return write;
+		}
+	}
+
+	/**
+	 * 自增主键还没有值的create, 不能按主键合并
+	 */
+	private static class Identity {
+		private final Object obj;
+
+		private Identity(Object obj) {
+			this.obj = obj;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(obj);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Identity && ((Identity) o).obj == obj;
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private class Pending {
+		private final Class clz;
+		private final ConcurrentHashMap<Object, Write> map = new ConcurrentHashMap<Object, Write>();
+		private final ScheduledExecutorService flusher;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		private final Histogram latency = new Histogram();
+		private final AtomicLong flushes = new AtomicLong();
+		private final AtomicLong rows = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private final AtomicLong dropped = new AtomicLong();
+		/**
+		 * 正在刷写或等待重试的写的最小序号
+		 */
+		private volatile long inFlightSeq = Long.MAX_VALUE;
+
+		private Pending(Class clz, ScheduledExecutorService flusher) {
+			this.clz = clz;
+			this.flusher = flusher;
+		}
+	}
+
+	private final int batchRows;
+	private final long flushMs;
+	private final int maxPending;
+	private final ScheduledExecutorService[] flushers;
+	@SuppressWarnings("rawtypes")
+	private final Map<Class, Pending> pendingMap = new ConcurrentHashMap<Class, Pending>();
+	private final AtomicInteger pendingCount = new AtomicInteger();
+	private final ReentrantReadWriteLock journalLock = new ReentrantReadWriteLock();
+
+	private DataSource dataSource;
+	private WriteJournal journal;
+
+	protected WriteBehind(int defaultBatchRows, long defaultFlushMs) {
+		this.batchRows = Math.max(1, Configs.getIntValue(ConfigKey.ASYNC_BATCH_ROWS, defaultBatchRows));
+		this.flushMs = Math.max(1, Configs.getLongValue(ConfigKey.ASYNC_FLUSH_MS, defaultFlushMs));
+		this.maxPending = Configs.getIntValue(ConfigKey.ASYNC_MAX_PENDING, 100000);
+		int size = Math.max(1, Configs.getIntValue(ConfigKey.ASYNC_FLUSHERS,
+				Math.min(4, Runtime.getRuntime().availableProcessors())));
+		this.flushers = new ScheduledExecutorService[size];
+		for (int i = 0; i < size; i++) {
+			final String name = "x7-write-behind-" + i;
+			flushers[i] = Executors.newSingleThreadScheduledExecutor((r) -> {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			flush();
+			if (journal != null) {
+				journal.sync();
+			}
+		}, "x7-write-behind-shutdown"));
+	}
+
+	protected void setDataSource(DataSource dataSource) {
+		this.dataSource = dataSource;
+		String dir = Configs.getString(ConfigKey.ASYNC_JOURNAL_DIR, "");
+		if (journal == null && StringUtil.isNotNull(dir)) {
+			openJournal(dir);
+		}
+	}
+
+	/**
+	 * 旧段里的写重新经过add, 写进新段; 新段force之后删除旧段<br>
+	 * 段里的写可能已经刷进数据库, 重放必须幂等: 带主键的create重放为upsert, 没有主键的跳过
+	 */
+	private synchronized void openJournal(String dir) {
+		WriteJournal journal = new WriteJournal(dir, Configs.getIntValue(ConfigKey.ASYNC_JOURNAL_SEGMENT_MB, 64),
+				Configs.getLongValue(ConfigKey.ASYNC_JOURNAL_FSYNC_MS, 50));
+		File[] oldFiles = journal.listOld();
+		journal.setLowWatermark(this::lowWatermark);
+		this.journal = journal;
+
+		for (File file : oldFiles) {
+			WriteJournal.read(file, (op, obj) -> {
+				if (key(obj) instanceof Identity)
+					return;
+				add(op == Op.CREATE ? Op.UPSERT : op, obj);
+			});
+		}
+		journal.force();
+		for (File file : oldFiles) {
+			WriteJournal.delete(file);
+		}
+	}
+
+	public void create(Object obj) {
+		add(Op.CREATE, obj);
+	}
+
+	public void refresh(Object obj) {
+		add(Op.REFRESH, obj);
+	}
+
+	public void remove(Object obj) {
+		add(Op.REMOVE, obj);
+	}
+
+	private static Object key(Object obj) {
+		ParamBinder binder = ParamBinder.get(obj.getClass());
+		Object key = binder.getKeyValue(obj);
+		if (key == null || (!binder.isKeyOneString() && binder.getKeyOne(obj) == 0))
+			return new Identity(obj);
+		return key;
+	}
+
+	private void add(Op op, Object obj) {
+		Pending pending = pendingMap.computeIfAbsent(obj.getClass(), this::newPending);
+		Object key = key(obj);
+
+		if (journal == null) {
+			put(pending, new Write(key, op, obj, 0));
+		} else if (key instanceof Identity) {
+			put(pending, new Write(key, op, obj, Long.MAX_VALUE));
+		} else {
+			journalLock.readLock().lock();
+			try {
+				put(pending, new Write(key, op, obj, journal.append(op, obj)));
+			} finally {
+				journalLock.readLock().unlock();
+			}
+		}
+
+		if (pending.map.size() >= batchRows && pending.scheduled.compareAndSet(false, true)) {
+			pending.flusher.execute(() -> flush(pending));
+		}
+		if (pendingCount.get() >= maxPending) {
+			flush(pending);
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private Pending newPending(Class clz) {
+		ScheduledExecutorService flusher = flushers[(clz.getName().hashCode() & Integer.MAX_VALUE) % flushers.length];
+		Pending pending = new Pending(clz, flusher);
+		flusher.scheduleWithFixedDelay(() -> flush(pending), flushMs, flushMs, TimeUnit.MILLISECONDS);
+		return pending;
+	}
+
+	private void put(Pending pending, Write write) {
+		pending.map.compute(write.key, (k, prev) -> {
+			Write w = prev == null ? write : merge(prev, write);
+			if (prev == null && w != null) {
+				pendingCount.incrementAndGet();
+			} else if (prev != null && w == null) {
+				pendingCount.decrementAndGet();
+			}
+			return w;
+		});
+	}
+
+	/**
+	 * 同一主键的两次写合并为一次, 返回null表示都不必执行
+	 */
+	static Write merge(Write prev, Write next) {
+		switch (next.op) {
+		case CREATE:
+		case UPSERT:
+			if (prev.op == Op.CREATE && next.op == Op.CREATE)
+				return prev.with(Op.CREATE, next.obj);
+			return prev.with(Op.UPSERT, next.obj);
+		case REFRESH:
+			if (prev.op == Op.REMOVE)
+				return prev;
+			if (prev.obj == next.obj)
+				return prev.with(prev.op, next.obj);
+			return prev.with(prev.op, ParamBinder.get(next.obj.getClass()).overlay(prev.obj, next.obj));
+		case REMOVE:
+			if (prev.op == Op.CREATE)
+				return null;
+			return prev.with(Op.REMOVE, next.obj);
+		default:
+			return next;
+		}
+	}
+
+	/**
+	 * 立即刷写全部, 在调用线程里执行
+	 */
+	public void flush() {
+		for (Pending pending : pendingMap.values()) {
+			flush(pending);
+		}
+	}
+
+	/**
+	 * 交给各自的刷写线程, 立即返回
+	 */
+	public void flushAsync() {
+		for (Pending pending : pendingMap.values()) {
+			if (pending.scheduled.compareAndSet(false, true)) {
+				pending.flusher.execute(() -> flush(pending));
+			}
+		}
+	}
+
+	private void flush(Pending pending) {
+		pending.scheduled.set(false);
+		pending.lock.lock();
+		try {
+			int size;
+			do {
+				/*
+				 * 取出到执行完, 日志的低水位都要算上这些写
+				 */
+				pending.inFlightSeq = 0;
+				long seq = Long.MAX_VALUE;
+				List<Write> list = new ArrayList<Write>();
+				for (Entry<Object, Write> entry : pending.map.entrySet()) {
+					if (list.size() >= batchRows)
+						break;
+					if (pending.map.remove(entry.getKey(), entry.getValue())) {
+						pendingCount.decrementAndGet();
+						list.add(entry.getValue());
+						seq = Math.min(seq, entry.getValue().seq);
+					}
+				}
+				pending.inFlightSeq = seq;
+				size = list.size();
+				if (size > 0) {
+					pending.inFlightSeq = execute(pending, list);
+				} else {
+					pending.inFlightSeq = Long.MAX_VALUE;
+				}
+			} while (size >= batchRows);
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			pending.lock.unlock();
+		}
+	}
+
+	/**
+	 * 返回重试的写的最小序号, 没有重试时为Long.MAX_VALUE
+	 */
+	private long execute(Pending pending, List<Write> list) {
+		long startTime = System.nanoTime();
+		long retrySeq = Long.MAX_VALUE;
+
+		Map<Op, List<Write>> opMap = new LinkedHashMap<Op, List<Write>>();
+		for (Op op : Op.values()) {
+			opMap.put(op, new ArrayList<Write>());
+		}
+		for (Write write : list) {
+			opMap.get(write.op).add(write);
+		}
+
+		Connection conn = null;
+		try {
+			conn = dataSource.getConnection();
+			for (Entry<Op, List<Write>> entry : opMap.entrySet()) {
+				List<Write> writeList = entry.getValue();
+				if (writeList.isEmpty())
+					continue;
+				List<Write> failedList = execute(pending, entry.getKey(), writeList, conn);
+				for (Write write : failedList) {
+					if (retry(pending, write)) {
+						retrySeq = Math.min(retrySeq, write.seq);
+					}
+				}
+				pending.rows.addAndGet(writeList.size() - failedList.size());
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+			for (Write write : list) {
+				if (retry(pending, write)) {
+					retrySeq = Math.min(retrySeq, write.seq);
+				}
+			}
+		} finally {
+			if (conn != null) {
+				try {
+					conn.setAutoCommit(true);
+					conn.close();
+				} catch (SQLException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		pending.flushes.incrementAndGet();
+		pending.latency.record((System.nanoTime() - startTime) / 1000);
+		return retrySeq;
+	}
+
+	/**
+	 * 返回失败的写
+	 */
+	private List<Write> execute(Pending pending, Op op, List<Write> writeList, Connection conn) {
+		List<Object> objList = new ArrayList<Object>(writeList.size());
+		for (Write write : writeList) {
+			objList.add(write.obj);
+		}
+
+		if (op == Op.CREATE || op == Op.UPSERT) {
+			BatchResult result = op == Op.CREATE ? BatchInserter.insert(objList, conn, true)
+					: BatchInserter.upsert(objList, conn, true);
+			if (result.isOk())
+				return new ArrayList<Write>();
+
+			Map<Object, Write> writeMap = new IdentityHashMap<Object, Write>();
+			for (Write write : writeList) {
+				writeMap.put(write.obj, write);
+			}
+			List<Write> failedList = new ArrayList<Write>();
+			for (Failure failure : result.getFailureList()) {
+				for (Object obj : failure.getObjList()) {
+					failedList.add(writeMap.get(obj));
+				}
+			}
+			return failedList;
+		}
+
+		try {
+			conn.setAutoCommit(false);
+			if (op == Op.REFRESH) {
+				refresh(pending.clz, objList, conn);
+			} else {
+				remove(pending.clz, objList, conn);
+			}
+			conn.commit();
+			return new ArrayList<Write>();
+		} catch (Exception e) {
+			System.out.println("Exception occured, while write-behind " + op + ": " + pending.clz.getName());
+			e.printStackTrace();
+			try {
+				conn.rollback();
+			} catch (SQLException e1) {
+				e1.printStackTrace();
+			}
+			return writeList;
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static void refresh(Class clz, List<Object> objList, Connection conn) throws SQLException {
+		ParamBinder binder = ParamBinder.get(clz);
+
+		Map<BitSet, List<Object>> groupMap = new LinkedHashMap<BitSet, List<Object>>();
+		for (Object obj : objList) {
+			BitSet mask = binder.getRefreshMask(obj);
+			if (mask.isEmpty())
+				continue;
+			groupMap.computeIfAbsent(mask, (k) -> new ArrayList<Object>()).add(obj);
+		}
+
+		for (Entry<BitSet, List<Object>> entry : groupMap.entrySet()) {
+			BitSet mask = entry.getKey();
+			PreparedStatement pstmt = StatementCache.getInstance().prepare(conn, binder.getRefreshSql(mask));
+			try {
+				for (Object obj : entry.getValue()) {
+					int i = binder.bindRefresh(pstmt, obj, mask, 1);
+					binder.bindKey(pstmt, obj, i);
+					pstmt.addBatch();
+				}
+				pstmt.executeBatch();
+			} finally {
+				StatementCache.getInstance().release(pstmt);
+			}
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static void remove(Class clz, List<Object> objList, Connection conn) throws SQLException {
+		ParamBinder binder = ParamBinder.get(clz);
+		PreparedStatement pstmt = StatementCache.getInstance().prepare(conn,
+				MapperFactory.getSql(clz, Mapper.REMOVE));
+		try {
+			for (Object obj : objList) {
+				binder.bindKey(pstmt, obj, 1);
+				pstmt.addBatch();
+			}
+			pstmt.executeBatch();
+		} finally {
+			StatementCache.getInstance().release(pstmt);
+		}
+	}
+
+	/**
+	 * 失败的写放回去, 与期间新的写合并; 超过MAX_ATTEMPTS次丢弃, 返回false
+	 */
+	private boolean retry(Pending pending, Write write) {
+		pending.failures.incrementAndGet();
+		if (++write.attempts >= MAX_ATTEMPTS) {
+			pending.dropped.incrementAndGet();
+			System.err.println("write-behind dropped after " + write.attempts + " attempts, " + write.op + ": "
+					+ write.obj);
+			return false;
+		}
+		pending.map.compute(write.key, (k, cur) -> {
+			Write w = cur == null ? write : merge(write, cur);
+			if (cur == null && w != null) {
+				pendingCount.incrementAndGet();
+			} else if (cur != null && w == null) {
+				pendingCount.decrementAndGet();
+			}
+			return w;
+		});
+		return true;
+	}
+
+	/**
+	 * 日志里还没刷进数据库的最小序号<br>
+	 * 先在写锁里取当前序号, 此前追加的写都已放进map
+	 */
+	private long lowWatermark() {
+		long low;
+		journalLock.writeLock().lock();
+		try {
+			low = journal.getSeq() + 1;
+		} finally {
+			journalLock.writeLock().unlock();
+		}
+		for (Pending pending : pendingMap.values()) {
+			for (Write write : pending.map.values()) {
+				low = Math.min(low, write.seq);
+			}
+			low = Math.min(low, pending.inFlightSeq);
+		}
+		return low;
+	}
+
+	/**
+	 * 所有类待写的总数
+	 */
+	public int getPendingCount() {
+		return pendingCount.get();
+	}
+
+	/**
+	 * 每个类: 队列深度, 刷写次数, 写入行数, 失败, 丢弃, 刷写耗时(微秒)
+	 */
+	public Map<String, Map<String, Object>> getStats() {
+		Map<String, Map<String, Object>> statsMap = new LinkedHashMap<String, Map<String, Object>>();
+		for (Pending pending : pendingMap.values()) {
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+			map.put("depth", pending.map.size());
+			map.put("flushes", pending.flushes.get());
+			map.put("rows", pending.rows.get());
+			map.put("failures", pending.failures.get());
+			map.put("dropped", pending.dropped.get());
+			map.put("flushP50", pending.latency.getPercentile(50));
+			map.put("flushP99", pending.latency.getPercentile(99));
+			map.put("flushMax", pending.latency.getMax());
+			statsMap.put(pending.clz.getName(), map);
+		}
+		return statsMap;
+	}
+}
@@ -0,0 +1,320 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+import x7.core.bean.BeanSerial;
+import x7.core.repository.ISerialWR;
+import x7.core.util.JsonX;
+import x7.repository.dao.WriteBehind.Op;
+import x7.repository.exception.PersistenceException;
+
+/**
+ * WriteBehind的本地日志(write-ahead), 配置了x7.async.journal.dir才开启<br>
+ * 每次写追加一条记录到内存映射的段文件, 每隔x7.async.journal.fsync.ms(默认50)统一force, 崩溃最多丢这段时间的写<br>
+ * 记录: [int 长度][int crc32][byte op][byte codec][short 类名长度][类名][对象], 有ISerialWR时用它编码, 否则JSON<br>
+ * 段写满(x7.async.journal.segment.mb, 默认64)后封存; 封存段里的写都已刷进数据库时, 解除映射后删除<br>
+ * 启动时重放上次留下的段: 重新写进WriteBehind和新段, force之后删除旧段
+ *
+ * @author Sim
+ */
+public class WriteJournal {
+
+	private final static String PREFIX = "journal-";
+	private final static String SUFFIX = ".log";
+	private final static byte CODEC_WR = 1;
+	private final static byte CODEC_JSON = 2;
+	private final static int HEADER = 8;
+
+	private static class Segment {
+		private final File file;
+		private MappedByteBuffer buffer;
+		private long lastSeq;
+
+		private Segment(File file, int size) throws IOException {
+			this.file = file;
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			}
+		}
+
+		private void close() {
+			MappedByteBuffer buffer = this.buffer;
+			this.buffer = null;
+			unmap(buffer);
+		}
+	}
+
+	private final File dir;
+	private final int segmentSize;
+	private final List<Segment> sealedList = new ArrayList<Segment>();
+	private final ScheduledExecutorService syncService;
+	private Segment active;
+	private long fileNo;
+	private long seq;
+	private boolean dirty;
+	private LongSupplier lowWatermark;
+
+	protected WriteJournal(String path, int segmentMb, long fsyncMs) {
+		this.dir = new File(path);
+		if (!dir.exists() && !dir.mkdirs())
+			throw new PersistenceException("Can not create journal dir: " + path);
+		this.segmentSize = Math.max(1, segmentMb) << 20;
+		this.syncService = Executors.newSingleThreadScheduledExecutor((r) -> {
+			Thread t = new Thread(r, "x7-write-journal");
+			t.setDaemon(true);
+			return t;
+		});
+		this.syncService.scheduleWithFixedDelay(this::sync, fsyncMs, Math.max(1, fsyncMs), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * 上次留下的段, 按文件序号排序
+	 */
+	protected File[] listOld() {
+		File[] files = dir.listFiles((d, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+		if (files == null)
+			return new File[0];
+		Arrays.sort(files, (a, b) -> Long.compare(fileNo(a), fileNo(b)));
+		if (files.length > 0) {
+			fileNo = fileNo(files[files.length - 1]) + 1;
+		}
+		return files;
+	}
+
+	private static long fileNo(File file) {
+		String name = file.getName();
+		return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+	}
+
+	/**
+	 * 把一个旧段里的记录交给consumer, 遇到0长度或crc不符(写了一半)时停止
+	 */
+	protected static void read(File file, Replayer replayer) {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			try {
+				while (buffer.remaining() >= HEADER) {
+					int length = buffer.getInt();
+					int crc = buffer.getInt();
+					if (length <= 0 || length > buffer.remaining())
+						break;
+					byte[] body = new byte[length];
+					buffer.get(body);
+					CRC32 crc32 = new CRC32();
+					crc32.update(body);
+					if ((int) crc32.getValue() != crc)
+						break;
+					try {
+						decode(body, replayer);
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			} finally {
+				unmap(buffer);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	protected interface Replayer {
+		void replay(Op op, Object obj);
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static void decode(byte[] body, Replayer replayer) throws Exception {
+		ByteBuffer buffer = ByteBuffer.wrap(body);
+		Op op = Op.values()[buffer.get()];
+		byte codec = buffer.get();
+		byte[] nameBytes = new byte[buffer.getShort()];
+		buffer.get(nameBytes);
+		String clzName = new String(nameBytes, StandardCharsets.UTF_8);
+		Class clz = Class.forName(clzName);
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+
+		Object obj;
+		if (codec == CODEC_WR) {
+			obj = BeanSerial.get(clzName).read(ByteBuffer.wrap(bytes));
+		} else {
+			obj = JsonX.toObject(new String(bytes, StandardCharsets.UTF_8), clz);
+		}
+		replayer.replay(op, obj);
+	}
+
+	private static byte[] encode(Op op, Object obj) {
+		String clzName = obj.getClass().getName();
+		byte codec = CODEC_JSON;
+		byte[] bytes = null;
+		ISerialWR wr = BeanSerial.get(clzName);
+		if (wr != null) {
+			try {
+				ByteBuffer buffer = wr.write(obj);
+				buffer.flip();
+				bytes = new byte[buffer.remaining()];
+				buffer.get(bytes);
+				codec = CODEC_WR;
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		if (bytes == null) {
+			bytes = JsonX.toJson(obj).getBytes(StandardCharsets.UTF_8);
+		}
+
+		byte[] nameBytes = clzName.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer body = ByteBuffer.allocate(4 + nameBytes.length + bytes.length);
+		body.put((byte) op.ordinal());
+		body.put(codec);
+		body.putShort((short) nameBytes.length);
+		body.put(nameBytes);
+		body.put(bytes);
+		return body.array();
+	}
+
+	protected void setLowWatermark(LongSupplier lowWatermark) {
+		this.lowWatermark = lowWatermark;
+	}
+
+	/**
+	 * 追加一条记录, 返回序号
+	 */
+	protected long append(Op op, Object obj) {
+		byte[] body = encode(op, obj);
+		CRC32 crc32 = new CRC32();
+		crc32.update(body);
+
+		synchronized (this) {
+			int need = HEADER + body.length;
+			try {
+				if (active == null || active.buffer.remaining() < need) {
+					roll(need);
+				}
+			} catch (IOException e) {
+				throw new PersistenceException("Journal roll failed: " + e.getMessage());
+			}
+			active.buffer.putInt(body.length);
+			active.buffer.putInt((int) crc32.getValue());
+			active.buffer.put(body);
+			active.lastSeq = ++seq;
+			dirty = true;
+			return seq;
+		}
+	}
+
+	private void roll(int need) throws IOException {
+		if (active != null) {
+			active.buffer.force();
+			sealedList.add(active);
+		}
+		File file = new File(dir, PREFIX + (fileNo++) + SUFFIX);
+		active = new Segment(file, Math.max(segmentSize, need + HEADER));
+	}
+
+	/**
+	 * 当前的序号, 之后追加的记录都比它大
+	 */
+	protected synchronized long getSeq() {
+		return seq;
+	}
+
+	protected synchronized void force() {
+		if (dirty && active != null) {
+			active.buffer.force();
+			dirty = false;
+		}
+	}
+
+	/**
+	 * 统一force; 当前段的写都已刷进数据库时封存, 下次追加时另起新段; 删除已经全部刷进数据库的封存段<br>
+	 * lowWatermark是还没刷进数据库的最小序号, 在锁外取
+	 */
+	protected void sync() {
+		long low = lowWatermark == null ? 0 : lowWatermark.getAsLong();
+		List<Segment> deleteList = new ArrayList<Segment>();
+		synchronized (this) {
+			force();
+			if (active != null && active.lastSeq > 0 && active.lastSeq < low) {
+				sealedList.add(active);
+				active = null;
+			}
+			while (!sealedList.isEmpty() && sealedList.get(0).lastSeq < low) {
+				deleteList.add(sealedList.remove(0));
+			}
+		}
+		for (Segment segment : deleteList) {
+			segment.close();
+			delete(segment.file);
+		}
+	}
+
+	/**
+	 * 立即释放映射, 不等GC; 映射还在时, Windows上删不掉文件<br>
+	 * Java 8用DirectBuffer.cleaner(), 9以后用Unsafe.invokeCleaner; 都不行时交给GC
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		if (buffer == null)
+			return;
+		try {
+			Class<?> unsafeClz = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner = unsafeClz.getMethod("invokeCleaner", ByteBuffer.class);
+			Field field = unsafeClz.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			invokeCleaner.invoke(field.get(null), buffer);
+			return;
+		} catch (NoSuchMethodException e) {
+		} catch (Exception e) {
+			e.printStackTrace();
+			return;
+		}
+		try {
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) {
+				cleaner.getClass().getMethod("clean").invoke(cleaner);
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	protected static void delete(File file) {
+		if (!file.delete()) {
+			System.err.println("Journal segment not deleted: " + file);
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁的对数线性直方图(HdrHistogram的简化), 每个2的幂区间分8格, 相对误差约12.5%<br>
+ * 值的单位由调用方决定(微秒, 行数)
+ *
+ * @author Sim
+ */
+public class Histogram {
+
+	private final static int SUB_BITS = 3;
+	private final static int SUB = 1 << SUB_BITS;
+	private final static int BUCKETS = (64 - SUB_BITS) * SUB;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+		counts.incrementAndGet(index(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long m = max.get();
+		while (value > m && !max.compareAndSet(m, value)) {
+			m = max.get();
+		}
+	}
+
+	private static int index(long value) {
+		if (value < SUB)
+			return (int) value;
+		int exp = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB - 1);
+		return (exp - SUB_BITS + 1) * SUB + sub;
+	}
+
+	/**
+	 * 格子的上界
+	 */
+	private static long upper(int index) {
+		if (index < SUB)
+			return index;
+		int exp = index / SUB + SUB_BITS - 1;
+		int sub = index % SUB;
+		return ((long) (SUB + sub + 1) << (exp - SUB_BITS)) - 1;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getSum() {
+		return sum.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long c = count.get();
+		return c == 0 ? 0 : (double) sum.get() / c;
+	}
+
+	/**
+	 * @param percentile
+	 *            0-100
+	 */
+	public long getPercentile(double percentile) {
+		long c = count.get();
+		if (c == 0)
+			return 0;
+		long target = (long) Math.ceil(c * percentile / 100);
+		if (target < 1)
+			target = 1;
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= target)
+				return Math.min(upper(i), max.get());
+		}
+		return max.get();
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+}
@@ -0,0 +1,272 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.monitor;
+
+import java.lang.management.ManagementFactory;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+import javax.sql.DataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import x7.core.config.Configs;
+import x7.repository.ConfigKey;
+import x7.repository.dao.StatementCache;
+import x7.repository.pool.RoutingDataSource;
+import x7.repository.pool.RoutingDataSource.Replica;
+
+/**
+ * JDBC统计, 按实体类和SQL指纹: 延迟直方图, 返回行数, 批量大小, 错误数; 按连接池: 取连接的等待时间; 多个从库时每个从库的路由统计<br>
+ * x7.db.metrics=true 开启, 关闭时不包装DataSource, 没有额外开销<br>
+ * JMX: x7:type=JdbcMetrics
+ *
+ * @author Sim
+ */
+public class JdbcMetrics implements JdbcMetricsMXBean {
+
+	private final static int MAX_SHAPES = 2048;
+
+	private final static ThreadLocal<Class<?>> entityHolder = new ThreadLocal<Class<?>>();
+
+	private static Boolean enabled;
+
+	private static JdbcMetrics instance;
+
+	public static JdbcMetrics getInstance() {
+		if (instance == null) {
+			synchronized (JdbcMetrics.class) {
+				if (instance == null) {
+					JdbcMetrics metrics = new JdbcMetrics();
+					if (isEnabled()) {
+						metrics.register();
+					}
+					instance = metrics;
+				}
+			}
+		}
+		return instance;
+	}
+
+	public static boolean isEnabled() {
+		if (enabled == null) {
+			enabled = Configs.isTrue(ConfigKey.METRICS, false);
+		}
+		return enabled;
+	}
+
+	/**
+	 * DAO取连接时标记当前实体类, 执行SQL时计入这个类
+	 */
+	public static void entity(Class<?> clz) {
+		if (isEnabled()) {
+			entityHolder.set(clz);
+		}
+	}
+
+	/**
+	 * 连接关闭时清除, 之后同一线程上的SQL不再计入上一个实体类
+	 */
+	protected static void clearEntity() {
+		entityHolder.remove();
+	}
+
+	private final Map<String, Stats> shapeMap = new ConcurrentHashMap<String, Stats>();
+	private final Map<String, Pool> poolMap = new ConcurrentHashMap<String, Pool>();
+	private final Map<String, RoutingDataSource> routingMap = new ConcurrentHashMap<String, RoutingDataSource>();
+
+	private JdbcMetrics() {
+	}
+
+	private void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("x7:type=JdbcMetrics"));
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	public DataSource wrap(DataSource dataSource, String name) {
+		if (dataSource instanceof RoutingDataSource) {
+			routingMap.put(name, (RoutingDataSource) dataSource);
+		}
+		if (!isEnabled() || dataSource == null)
+			return dataSource;
+		Pool pool = new Pool(name, dataSource);
+		poolMap.put(name, pool);
+		return JdbcProxy.dataSource(dataSource, pool);
+	}
+
+	/**
+	 * StatementCache在物理连接上预编译的语句, 在这里包装
+	 */
+	public PreparedStatement wrap(PreparedStatement pstmt, String sql) {
+		if (!isEnabled())
+			return pstmt;
+		return JdbcProxy.statement(pstmt, sql);
+	}
+
+	/**
+	 * @param fingerprint
+	 *            SqlFingerprint.of(sql), 由调用方按SQL算一次
+	 */
+	protected Stats stats(String fingerprint) {
+		Class<?> clz = entityHolder.get();
+		String entity = clz == null ? "" : clz.getSimpleName();
+		String key = entity + "|" + fingerprint;
+		Stats stats = shapeMap.get(key);
+		if (stats == null) {
+			if (shapeMap.size() >= MAX_SHAPES) {
+				key = "|OTHER";
+				stats = shapeMap.get(key);
+				if (stats == null) {
+					stats = new Stats("", "OTHER");
+					shapeMap.put(key, stats);
+				}
+				return stats;
+			}
+			stats = new Stats(entity, fingerprint);
+			Stats old = ((ConcurrentHashMap<String, Stats>) shapeMap).putIfAbsent(key, stats);
+			if (old != null) {
+				stats = old;
+			}
+		}
+		return stats;
+	}
+
+	@Override
+	public ShapeSnapshot[] getShapes() {
+		List<ShapeSnapshot> list = new ArrayList<ShapeSnapshot>();
+		for (Stats stats : shapeMap.values()) {
+			list.add(stats.snapshot());
+		}
+		ShapeSnapshot[] arr = list.toArray(new ShapeSnapshot[list.size()]);
+		Arrays.sort(arr, (a, b) -> Long.compare(b.getP99Micros(), a.getP99Micros()));
+		return arr;
+	}
+
+	@Override
+	public PoolSnapshot[] getPools() {
+		List<PoolSnapshot> list = new ArrayList<PoolSnapshot>();
+		for (Pool pool : poolMap.values()) {
+			list.add(pool.snapshot());
+		}
+		return list.toArray(new PoolSnapshot[list.size()]);
+	}
+
+	@Override
+	public ReplicaSnapshot[] getReplicas() {
+		List<ReplicaSnapshot> list = new ArrayList<ReplicaSnapshot>();
+		for (Map.Entry<String, RoutingDataSource> entry : routingMap.entrySet()) {
+			for (Replica replica : entry.getValue().getStats()) {
+				list.add(new ReplicaSnapshot(entry.getKey(), replica.getAddress(), replica.getWeight(),
+						replica.getOutstanding(), replica.getRequests(), replica.getErrors(), replica.getEwmaMillis(),
+						replica.isEjected()));
+			}
+		}
+		return list.toArray(new ReplicaSnapshot[list.size()]);
+	}
+
+	@Override
+	public double getStatementCacheHitRatio() {
+		return StatementCache.getInstance().getHitRatio();
+	}
+
+	@Override
+	public void reset() {
+		shapeMap.clear();
+		for (Pool pool : poolMap.values()) {
+			pool.wait.reset();
+		}
+	}
+
+	protected static class Stats {
+
+		private final String entity;
+		private final String fingerprint;
+		private final Histogram latency = new Histogram();
+		private final Histogram rows = new Histogram();
+		private final Histogram batch = new Histogram();
+		private final LongAdder errors = new LongAdder();
+
+		private Stats(String entity, String fingerprint) {
+			this.entity = entity;
+			this.fingerprint = fingerprint;
+		}
+
+		protected void latency(long nanos) {
+			latency.record(nanos / 1000);
+		}
+
+		protected void rows(long count) {
+			rows.record(count);
+		}
+
+		protected void batch(int size) {
+			batch.record(size);
+		}
+
+		protected void error() {
+			errors.increment();
+		}
+
+		private ShapeSnapshot snapshot() {
+			return new ShapeSnapshot(entity, fingerprint, latency.getCount(), errors.sum(),
+					latency.getPercentile(50), latency.getPercentile(99), latency.getMax(), latency.getMean(),
+					rows.getSum(), rows.getMax(), batch.getCount(), batch.getMax(), batch.getMean());
+		}
+	}
+
+	protected static class Pool {
+
+		private final String name;
+		private final DataSource dataSource;
+		private final Histogram wait = new Histogram();
+
+		private Pool(String name, DataSource dataSource) {
+			this.name = name;
+			this.dataSource = dataSource;
+		}
+
+		protected void waited(long nanos) {
+			wait.record(nanos / 1000);
+		}
+
+		private PoolSnapshot snapshot() {
+			int active = -1;
+			int idle = -1;
+			int awaiting = -1;
+			if (dataSource instanceof HikariDataSource) {
+				HikariPoolMXBean bean = ((HikariDataSource) dataSource).getHikariPoolMXBean();
+				if (bean != null) {
+					active = bean.getActiveConnections();
+					idle = bean.getIdleConnections();
+					awaiting = bean.getThreadsAwaitingConnection();
+				}
+			}
+			return new PoolSnapshot(name, wait.getCount(), wait.getPercentile(50), wait.getPercentile(99),
+					wait.getMax(), active, idle, awaiting);
+		}
+	}
+}
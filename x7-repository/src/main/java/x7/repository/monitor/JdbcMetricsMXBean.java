@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.monitor;
+
+/**
+ * JMX: x7:type=JdbcMetrics
+ *
+ * @author Sim
+ */
+public interface JdbcMetricsMXBean {
+
+	/**
+	 * 按p99降序
+	 */
+	ShapeSnapshot[] getShapes();
+
+	PoolSnapshot[] getPools();
+
+	/**
+	 * 多个从库时每个从库的路由统计, 不受x7.db.metrics开关影响
+	 */
+	ReplicaSnapshot[] getReplicas();
+
+	double getStatementCacheHitRatio();
+
+	void reset();
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.monitor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import x7.repository.monitor.JdbcMetrics.Pool;
+import x7.repository.monitor.JdbcMetrics.Stats;
+
+/**
+ * DataSource/Connection/Statement/ResultSet的动态代理, 只在开启统计时使用
+ *
+ * @author Sim
+ */
+public class JdbcProxy {
+
+	protected static DataSource dataSource(DataSource dataSource, Pool pool) {
+		return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(),
+				new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+					if ("getConnection".equals(method.getName())) {
+						long startTime = System.nanoTime();
+						Connection conn = (Connection) invoke(dataSource, method, args);
+						pool.waited(System.nanoTime() - startTime);
+						return connection(conn);
+					}
+					return invoke(dataSource, method, args);
+				});
+	}
+
+	private static Connection connection(Connection conn) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+					String name = method.getName();
+					if ("prepareStatement".equals(name)) {
+						PreparedStatement pstmt = (PreparedStatement) invoke(conn, method, args);
+						return statement(pstmt, (String) args[0]);
+					}
+					if ("createStatement".equals(name)) {
+						Statement stmt = (Statement) invoke(conn, method, args);
+						return Proxy.newProxyInstance(Statement.class.getClassLoader(),
+								new Class<?>[] { Statement.class }, new StatementHandler(stmt, null));
+					}
+					if ("close".equals(name)) {
+						JdbcMetrics.clearEntity();
+					}
+					if ("equals".equals(name))
+						return proxy == args[0];
+					if ("hashCode".equals(name))
+						return System.identityHashCode(proxy);
+					return invoke(conn, method, args);
+				});
+	}
+
+	protected static PreparedStatement statement(PreparedStatement pstmt, String sql) {
+		return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+				new Class<?>[] { PreparedStatement.class }, new StatementHandler(pstmt, sql));
+	}
+
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+	}
+
+	private static class StatementHandler implements InvocationHandler {
+
+		private final Statement stmt;
+		private final String sql;
+		private String fingerprint;
+		private int batchSize;
+
+		private StatementHandler(Statement stmt, String sql) {
+			this.stmt = stmt;
+			this.sql = sql;
+		}
+
+		/**
+		 * PreparedStatement的SQL不变, 指纹只算一次; Statement每次执行的SQL不同
+		 */
+		private String fingerprint(Object[] args) {
+			if (args != null && args.length > 0 && args[0] instanceof String)
+				return SqlFingerprint.of((String) args[0]);
+			if (fingerprint == null) {
+				fingerprint = SqlFingerprint.of(sql);
+			}
+			return fingerprint;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (!name.startsWith("execute")) {
+				if ("addBatch".equals(name)) {
+					batchSize++;
+				} else if ("clearBatch".equals(name)) {
+					batchSize = 0;
+				} else if ("equals".equals(name)) {
+					return proxy == args[0];
+				} else if ("hashCode".equals(name)) {
+					return System.identityHashCode(proxy);
+				}
+				return JdbcProxy.invoke(stmt, method, args);
+			}
+
+			Stats stats = JdbcMetrics.getInstance().stats(fingerprint(args));
+			boolean isBatch = name.endsWith("Batch");
+			long startTime = System.nanoTime();
+			try {
+				Object result = method.invoke(stmt, args);
+				stats.latency(System.nanoTime() - startTime);
+				if (isBatch) {
+					stats.batch(batchSize);
+				}
+				if (result instanceof ResultSet) {
+					return resultSet((ResultSet) result, stats);
+				}
+				return result;
+			} catch (InvocationTargetException e) {
+				stats.latency(System.nanoTime() - startTime);
+				stats.error();
+				throw e.getTargetException();
+			} finally {
+				if (isBatch) {
+					batchSize = 0;
+				}
+			}
+		}
+	}
+
+	private static ResultSet resultSet(ResultSet rs, Stats stats) {
+		return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+				new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+
+					private long rows;
+					private boolean done;
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						String name = method.getName();
+						if ("next".equals(name)) {
+							boolean has = (Boolean) JdbcProxy.invoke(rs, method, args);
+							if (has) {
+								rows++;
+							} else {
+								done();
+							}
+							return has;
+						}
+						if ("close".equals(name)) {
+							done();
+						}
+						return JdbcProxy.invoke(rs, method, args);
+					}
+
+					private void done() {
+						if (!done) {
+							done = true;
+							stats.rows(rows);
+						}
+					}
+				});
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.monitor;
+
+/**
+ * 取连接的等待时间(微秒), Hikari连接池的活动/空闲/等待数, 不是Hikari时为-1
+ *
+ * @author Sim
+ */
+public class PoolSnapshot {
+
+	private final String name;
+	private final long count;
+	private final long p50Micros;
+	private final long p99Micros;
+	private final long maxMicros;
+	private final int active;
+	private final int idle;
+	private final int awaiting;
+
+	public PoolSnapshot(String name, long count, long p50Micros, long p99Micros, long maxMicros, int active, int idle,
+			int awaiting) {
+		this.name = name;
+		this.count = count;
+		this.p50Micros = p50Micros;
+		this.p99Micros = p99Micros;
+		this.maxMicros = maxMicros;
+		this.active = active;
+		this.idle = idle;
+		this.awaiting = awaiting;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getP50Micros() {
+		return p50Micros;
+	}
+
+	public long getP99Micros() {
+		return p99Micros;
+	}
+
+	public long getMaxMicros() {
+		return maxMicros;
+	}
+
+	public int getActive() {
+		return active;
+	}
+
+	public int getIdle() {
+		return idle;
+	}
+
+	public int getAwaiting() {
+		return awaiting;
+	}
+
+	@Override
+	public String toString() {
+		return "PoolSnapshot [name=" + name + ", count=" + count + ", p50Micros=" + p50Micros + ", p99Micros="
+				+ p99Micros + ", maxMicros=" + maxMicros + ", active=" + active + ", idle=" + idle + ", awaiting="
+				+ awaiting + "]";
+	}
+}
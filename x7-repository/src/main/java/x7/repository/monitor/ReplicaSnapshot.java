@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.monitor;
+
+/**
+ * 多个从库时每个从库的路由统计, pool为所在的读连接池, 见RoutingDataSource
+ *
+ * @author Sim
+ */
+public class ReplicaSnapshot {
+
+	private final String pool;
+	private final String address;
+	private final int weight;
+	private final int outstanding;
+	private final long requests;
+	private final long errors;
+	private final double ewmaMillis;
+	private final boolean ejected;
+
+	public ReplicaSnapshot(String pool, String address, int weight, int outstanding, long requests, long errors,
+			double ewmaMillis, boolean ejected) {
+		this.pool = pool;
+		this.address = address;
+		this.weight = weight;
+		this.outstanding = outstanding;
+		this.requests = requests;
+		this.errors = errors;
+		this.ewmaMillis = ewmaMillis;
+		this.ejected = ejected;
+	}
+
+	public String getPool() {
+		return pool;
+	}
+
+	public String getAddress() {
+		return address;
+	}
+
+	public int getWeight() {
+		return weight;
+	}
+
+	public int getOutstanding() {
+		return outstanding;
+	}
+
+	public long getRequests() {
+		return requests;
+	}
+
+	public long getErrors() {
+		return errors;
+	}
+
+	public double getEwmaMillis() {
+		return ewmaMillis;
+	}
+
+	public boolean isEjected() {
+		return ejected;
+	}
+
+	@Override
+	public String toString() {
+		return "ReplicaSnapshot [pool=" + pool + ", address=" + address + ", weight=" + weight + ", outstanding="
+				+ outstanding + ", requests=" + requests + ", errors=" + errors + ", ewmaMillis=" + ewmaMillis
+				+ ", ejected=" + ejected + "]";
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.monitor;
+
+/**
+ * 一个SQL形状(实体类 + 指纹)的统计快照, 时间单位微秒
+ *
+ * @author Sim
+ */
+public class ShapeSnapshot {
+
+	private final String entity;
+	private final String fingerprint;
+	private final long count;
+	private final long errors;
+	private final long p50Micros;
+	private final long p99Micros;
+	private final long maxMicros;
+	private final double meanMicros;
+	private final long rows;
+	private final long maxRows;
+	private final long batches;
+	private final long maxBatchSize;
+	private final double meanBatchSize;
+
+	public ShapeSnapshot(String entity, String fingerprint, long count, long errors, long p50Micros, long p99Micros,
+			long maxMicros, double meanMicros, long rows, long maxRows, long batches, long maxBatchSize,
+			double meanBatchSize) {
+		this.entity = entity;
+		this.fingerprint = fingerprint;
+		this.count = count;
+		this.errors = errors;
+		this.p50Micros = p50Micros;
+		this.p99Micros = p99Micros;
+		this.maxMicros = maxMicros;
+		this.meanMicros = meanMicros;
+		this.rows = rows;
+		this.maxRows = maxRows;
+		this.batches = batches;
+		this.maxBatchSize = maxBatchSize;
+		this.meanBatchSize = meanBatchSize;
+	}
+
+	public String getEntity() {
+		return entity;
+	}
+
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getErrors() {
+		return errors;
+	}
+
+	public long getP50Micros() {
+		return p50Micros;
+	}
+
+	public long getP99Micros() {
+		return p99Micros;
+	}
+
+	public long getMaxMicros() {
+		return maxMicros;
+	}
+
+	public double getMeanMicros() {
+		return meanMicros;
+	}
+
+	public long getRows() {
+		return rows;
+	}
+
+	public long getMaxRows() {
+		return maxRows;
+	}
+
+	public long getBatches() {
+		return batches;
+	}
+
+	public long getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	public double getMeanBatchSize() {
+		return meanBatchSize;
+	}
+
+	@Override
+	public String toString() {
+		return "ShapeSnapshot [entity=" + entity + ", fingerprint=" + fingerprint + ", count=" + count + ", errors="
+				+ errors + ", p50Micros=" + p50Micros + ", p99Micros=" + p99Micros + ", maxMicros=" + maxMicros
+				+ ", rows=" + rows + ", batches=" + batches + ", maxBatchSize=" + maxBatchSize + "]";
+	}
+}
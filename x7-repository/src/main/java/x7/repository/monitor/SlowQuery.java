@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.monitor;
+
+/**
+ * 一条慢查询, plan由后台EXPLAIN异步填入, 没有采样到时为null
+ *
+ * @author Sim
+ */
+public class SlowQuery {
+
+	private final long time;
+	private final String entity;
+	private final String fingerprint;
+	private final String paramShape;
+	private final long millis;
+	private final String caller;
+	private final String shard;
+	private volatile String plan;
+	private volatile boolean fullScan;
+
+	public SlowQuery(long time, String entity, String fingerprint, String paramShape, long millis, String caller,
+			String shard) {
+		this.time = time;
+		this.entity = entity;
+		this.fingerprint = fingerprint;
+		this.paramShape = paramShape;
+		this.millis = millis;
+		this.caller = caller;
+		this.shard = shard;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public String getEntity() {
+		return entity;
+	}
+
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * 参数的类型, 不含值
+	 */
+	public String getParamShape() {
+		return paramShape;
+	}
+
+	public long getMillis() {
+		return millis;
+	}
+
+	public String getCaller() {
+		return caller;
+	}
+
+	public String getShard() {
+		return shard;
+	}
+
+	public String getPlan() {
+		return plan;
+	}
+
+	protected void setPlan(String plan) {
+		this.plan = plan;
+	}
+
+	public boolean isFullScan() {
+		return fullScan;
+	}
+
+	protected void setFullScan(boolean fullScan) {
+		this.fullScan = fullScan;
+	}
+
+	@Override
+	public String toString() {
+		return "SlowQuery [entity=" + entity + ", millis=" + millis + ", fingerprint=" + fingerprint
+				+ ", paramShape=" + paramShape + ", caller=" + caller + ", shard=" + shard + ", fullScan=" + fullScan
+				+ ", plan=" + plan + "]";
+	}
+}
@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.monitor;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.sql.DataSource;
+
+import x7.core.config.Configs;
+import x7.repository.ConfigKey;
+import x7.repository.DbType;
+
+/**
+ * 慢查询<br>
+ * Criteria/Fetch生成的查询, 以及分片的scatter查询, 超过x7.db.slow.ms(默认0, 关闭)时记入环形缓冲(x7.db.slow.size, 默认128)<br>
+ * 按x7.db.slow.explain.rate(默认0.1)采样, 在后台线程另取连接执行EXPLAIN, 记下执行计划和是否全表扫描
+ *
+ * @author Sim
+ */
+public class SlowQueryLog {
+
+	private static SlowQueryLog instance;
+
+	public static SlowQueryLog getInstance() {
+		if (instance == null) {
+			synchronized (SlowQueryLog.class) {
+				if (instance == null) {
+					instance = new SlowQueryLog();
+				}
+			}
+		}
+		return instance;
+	}
+
+	private final long thresholdNanos;
+	private final double explainRate;
+	private final AtomicReferenceArray<SlowQuery> ring;
+	private final AtomicLong index = new AtomicLong();
+	private ExecutorService explainService;
+
+	private SlowQueryLog() {
+		this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(Configs.getLongValue(ConfigKey.SLOW_MS, 0));
+		this.explainRate = Double.valueOf(Configs.getString(ConfigKey.SLOW_EXPLAIN_RATE, "0.1"));
+		this.ring = new AtomicReferenceArray<SlowQuery>(Math.max(1, Configs.getIntValue(ConfigKey.SLOW_SIZE, 128)));
+	}
+
+	public boolean isEnabled() {
+		return thresholdNanos > 0;
+	}
+
+	public boolean isSlow(long nanos) {
+		return thresholdNanos > 0 && nanos >= thresholdNanos;
+	}
+
+	/**
+	 * 单库查询, 可能采样EXPLAIN
+	 * 
+	 * @param dataSource
+	 *            执行这条查询的连接来自的DataSource, EXPLAIN在同一个库上执行; null则不EXPLAIN
+	 */
+	public void record(DataSource dataSource, Class<?> clz, String sql, List<Object> valueList, long nanos) {
+		if (!isSlow(nanos))
+			return;
+		SlowQuery query = add(clz, sql, valueList, nanos, null);
+		if (dataSource != null && explainRate > 0 && ThreadLocalRandom.current().nextDouble() < explainRate) {
+			final List<Object> values = valueList == null ? new ArrayList<Object>() : new ArrayList<Object>(valueList);
+			getExplainService().execute(() -> explain(query, dataSource, sql, values));
+		}
+	}
+
+	/**
+	 * 分片scatter查询的总耗时, 每个分片的慢查询另外记录
+	 */
+	public void recordScatter(Class<?> clz, String sql, List<Object> valueList, long nanos, int shards) {
+		if (!isSlow(nanos))
+			return;
+		add(clz, sql, valueList, nanos, "*" + shards);
+	}
+
+	private SlowQuery add(Class<?> clz, String sql, List<Object> valueList, long nanos, String shard) {
+		SlowQuery query = new SlowQuery(System.currentTimeMillis(), clz == null ? "" : clz.getName(),
+				SqlFingerprint.of(sql), shape(valueList), TimeUnit.NANOSECONDS.toMillis(nanos), caller(), shard);
+		long i = index.getAndIncrement();
+		ring.set((int) (i % ring.length()), query);
+		return query;
+	}
+
+	/**
+	 * 新的在前
+	 */
+	public List<SlowQuery> getList() {
+		List<SlowQuery> list = new ArrayList<SlowQuery>();
+		long end = index.get();
+		long start = Math.max(0, end - ring.length());
+		for (long i = end - 1; i >= start; i--) {
+			SlowQuery query = ring.get((int) (i % ring.length()));
+			if (query != null) {
+				list.add(query);
+			}
+		}
+		return list;
+	}
+
+	public void clear() {
+		for (int i = 0; i < ring.length(); i++) {
+			ring.set(i, null);
+		}
+	}
+
+	private static String shape(List<Object> valueList) {
+		if (valueList == null || valueList.isEmpty())
+			return "";
+		StringBuilder sb = new StringBuilder();
+		for (Object value : valueList) {
+			if (sb.length() > 0) {
+				sb.append(",");
+			}
+			sb.append(value == null ? "null" : value.getClass().getSimpleName());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 第一个不是框架的调用者
+	 */
+	private static String caller() {
+		for (StackTraceElement e : Thread.currentThread().getStackTrace()) {
+			String name = e.getClassName();
+			if (name.startsWith("x7.") || name.startsWith("java.") || name.startsWith("javax.")
+					|| name.startsWith("sun.") || name.startsWith("jdk.") || name.startsWith("com.sun.")
+					|| name.startsWith("org.springframework.") || name.startsWith("com.zaxxer."))
+				continue;
+			return name + "." + e.getMethodName() + ":" + e.getLineNumber();
+		}
+		return "";
+	}
+
+	private synchronized ExecutorService getExplainService() {
+		if (explainService == null) {
+			explainService = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>(64), (r) -> {
+						Thread t = new Thread(r, "x7-slow-explain");
+						t.setDaemon(true);
+						return t;
+					}, new ThreadPoolExecutor.DiscardPolicy());
+		}
+		return explainService;
+	}
+
+	private static void explain(SlowQuery query, DataSource dataSource, String sql, List<Object> values) {
+		boolean isOracle = DbType.ORACLE.equals(DbType.value);
+		StringBuilder plan = new StringBuilder();
+		boolean fullScan = false;
+		try (Connection conn = dataSource.getConnection()) {
+			if (isOracle) {
+				try (PreparedStatement pstmt = conn.prepareStatement("EXPLAIN PLAN FOR " + sql)) {
+					bind(pstmt, values);
+					pstmt.execute();
+				}
+				try (PreparedStatement pstmt = conn
+						.prepareStatement("SELECT PLAN_TABLE_OUTPUT FROM TABLE(DBMS_XPLAN.DISPLAY())");
+						ResultSet rs = pstmt.executeQuery()) {
+					while (rs.next()) {
+						String line = rs.getString(1);
+						plan.append(line).append("\n");
+						if (line != null && line.contains("TABLE ACCESS FULL")) {
+							fullScan = true;
+						}
+					}
+				}
+			} else {
+				try (PreparedStatement pstmt = conn.prepareStatement("EXPLAIN " + sql)) {
+					bind(pstmt, values);
+					try (ResultSet rs = pstmt.executeQuery()) {
+						ResultSetMetaData meta = rs.getMetaData();
+						int count = meta.getColumnCount();
+						while (rs.next()) {
+							for (int i = 1; i <= count; i++) {
+								if (i > 1) {
+									plan.append(", ");
+								}
+								String label = meta.getColumnLabel(i);
+								Object value = rs.getObject(i);
+								plan.append(label).append("=").append(value);
+								if ("type".equalsIgnoreCase(label) && "ALL".equals(String.valueOf(value))) {
+									fullScan = true;
+								}
+							}
+							plan.append("\n");
+						}
+					}
+				}
+			}
+		} catch (SQLException e) {
+			plan.append("EXPLAIN failed: ").append(e.getMessage());
+		}
+		query.setFullScan(fullScan);
+		query.setPlan(plan.toString());
+	}
+
+	private static void bind(PreparedStatement pstmt, List<Object> values) throws SQLException {
+		int i = 1;
+		for (Object value : values) {
+			pstmt.setObject(i++, value);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.monitor;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * SQL指纹: 字面量替换为?, 空白合并, IN (?,?,?) 和多行VALUES合并为 (?+)<br>
+ * 同一形状的SQL得到同一指纹, 按SQL文本缓存
+ *
+ * @author Sim
+ */
+public class SqlFingerprint {
+
+	private final static int MAX_CACHE = 4096;
+
+	private final static Pattern LIST = Pattern.compile("\\(\\s*\\?(\\s*,\\s*\\?)*\\s*\\)");
+	private final static Pattern ROWS = Pattern.compile("(\\(\\?\\+\\))(\\s*,\\s*\\(\\?\\+\\))+");
+
+	private final static Map<String, String> cache = new ConcurrentHashMap<String, String>();
+
+	public static String of(String sql) {
+		if (sql == null)
+			return "";
+		String fingerprint = cache.get(sql);
+		if (fingerprint != null)
+			return fingerprint;
+
+		fingerprint = normalize(sql);
+		if (cache.size() < MAX_CACHE) {
+			cache.put(sql, fingerprint);
+		}
+		return fingerprint;
+	}
+
+	private static String normalize(String sql) {
+		int length = sql.length();
+		StringBuilder sb = new StringBuilder(length);
+		boolean space = false;
+		int i = 0;
+		while (i < length) {
+			char c = sql.charAt(i);
+			if (Character.isWhitespace(c)) {
+				space = true;
+				i++;
+				continue;
+			}
+			if (space) {
+				if (sb.length() > 0) {
+					sb.append(' ');
+				}
+				space = false;
+			}
+			if (c == '\'') {
+				i++;
+				while (i < length) {
+					char ch = sql.charAt(i);
+					if (ch == '\\') {
+						i += 2;
+						continue;
+					}
+					i++;
+					if (ch == '\'') {
+						if (i < length && sql.charAt(i) == '\'') {
+							i++;
+							continue;
+						}
+						break;
+					}
+				}
+				sb.append('?');
+				continue;
+			}
+			if (Character.isDigit(c) && !isIdentifierPart(sb)) {
+				while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+					i++;
+				}
+				sb.append('?');
+				continue;
+			}
+			sb.append(c);
+			i++;
+		}
+		String str = LIST.matcher(sb).replaceAll("(?+)");
+		return ROWS.matcher(str).replaceAll("$1+");
+	}
+
+	private static boolean isIdentifierPart(StringBuilder sb) {
+		if (sb.length() == 0)
+			return false;
+		char c = sb.charAt(sb.length() - 1);
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '`' || c == '"';
+	}
+}
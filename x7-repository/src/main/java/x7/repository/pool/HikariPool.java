@@ -25,6 +25,7 @@ import com.zaxxer.hikari.HikariDataSource;
 
 import x7.core.config.Configs;
 import x7.core.util.StringUtil;
+import x7.repository.ConfigKey;
 import x7.repository.exception.PersistenceException;
 import x7.repository.sharding.ShardingPolicy;
 
@@ -41,13 +42,16 @@ x7.db.min=40<br>
 x7.db.address.w=127.0.0.1:4408,127.0.0.1:4409<br>
 x7.db.read=0<br>
 x7.db.address.r=127.0.0.1:3306<br>
+多个从库: x7.db.address.r=127.0.0.1:3306#2,127.0.0.1:3307#1 (#权重, 可省略), 由RoutingDataSource路由<br>
+多个从库时取连接的超时x7.db.read.connection.timeout(默认3000毫秒), 坏的从库尽快出错, 换别的从库<br>
+分片时逗号分隔每个分片, 分片内多个从库用|分隔: 127.0.0.1:3306|127.0.0.1:3307,127.0.0.1:4306<br>
  * @author Sim
  *
  */
 public class HikariPool implements DataSourcePool{
 
 	private HikariDataSource dsW;
-	private HikariDataSource dsR;
+	private DataSource dsR;
 	
 	private Map<String,DataSource> dsWMap = new ConcurrentHashMap<String,DataSource>();
 	private Map<String,DataSource> dsRMap = new ConcurrentHashMap<String,DataSource>();
@@ -93,6 +97,7 @@ public class HikariPool implements DataSourcePool{
 			dsW.setIdleTimeout(600000);
 			dsW.setMaxLifetime(1800000);
 			dsW.setMaximumPoolSize(Configs.getIntValue("x7.db.max"));
+			setPrepare(dsW, url);
 
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -134,6 +139,7 @@ public class HikariPool implements DataSourcePool{
 					dsW.setIdleTimeout(600000);
 					dsW.setMaxLifetime(1800000);
 					dsW.setMaximumPoolSize(Configs.getIntValue("x7.db.max"));
+					setPrepare(dsW, url);
 					dsWMap.put(shardingArr[i], dsW);
 				} catch (Exception e) {
 					e.printStackTrace();
@@ -157,32 +163,14 @@ public class HikariPool implements DataSourcePool{
 
 		System.out.println("\nx7.db.read=" + readNumber + "\n");
 
-		dsR = new HikariDataSource();
-//		dsR.setRegisterMbeans(true);
-
 		String shardingPolicy = Configs.getString("x7.db.sharding.policy");
 		if (StringUtil.isNullOrEmpty(shardingPolicy))
 			shardingPolicy = "NONE";
 
 		try {
-
-			String[] addressArr = Configs.getString("x7.db.address.r").split(",");
-			String address = addressArr[0];
-
-			String url = Configs.getString("x7.db.url");
-			url = url.replace("${address}", address)
-					.replace("${name}", Configs.getString("x7.db.name"));
-
-			System.err.println("x7.db.url: " + url);
-			dsR.setReadOnly(false);
-			dsR.setJdbcUrl(url);
-			dsR.setUsername(Configs.getString("x7.db.user"));
-			dsR.setPassword(Configs.getString("x7.db.password"));
-			dsR.setConnectionTimeout(300000);
-			dsR.setIdleTimeout(600000);
-			dsR.setMaxLifetime(1800000);
-			dsR.setMaximumPoolSize(Configs.getIntValue("x7.db.max"));
-
+			String replicas = Configs.getString("x7.db.address.r");
+			replicas = shardingPolicy.equals("NONE") ? replicas.replace(",", "|") : replicas.split(",")[0];
+			dsR = createR(replicas, Configs.getString("x7.db.name"));
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -204,21 +192,7 @@ public class HikariPool implements DataSourcePool{
 			for (int i=0; i<length; i++){
 
 				try {
-					String url = Configs.getString("x7.db.url");
-					url = url.replace("${address}", addressArr[i])
-							.replace("${name}", Configs.getString("x7.db.name") + "_" + shardingArr[i]);
-
-					System.err.println("x7.db.url: " + url);
-					HikariDataSource dsR = new HikariDataSource();
-//					dsW.setRegisterMbeans(true);
-					dsR.setReadOnly(false);
-					dsR.setJdbcUrl(url);
-					dsR.setUsername(Configs.getString("x7.db.user"));
-					dsR.setPassword(Configs.getString("x7.db.password"));
-					dsR.setConnectionTimeout(300000);
-					dsR.setIdleTimeout(600000);
-					dsR.setMaxLifetime(1800000);
-					dsR.setMaximumPoolSize(Configs.getIntValue("x7.db.max"));
+					DataSource dsR = createR(addressArr[i], Configs.getString("x7.db.name") + "_" + shardingArr[i]);
 					dsRMap.put(shardingArr[i], dsR);
 				} catch (Exception e) {
 					e.printStackTrace();
@@ -227,6 +201,58 @@ public class HikariPool implements DataSourcePool{
 		}
 
 	}
+
+	/**
+	 * replicas: address#weight|address#weight, 只有一个从库时直接返回它的连接池
+	 */
+	private DataSource createR(String replicas, String name) {
+		String[] replicaArr = replicas.split("\\|");
+		if (replicaArr.length == 1)
+			return createReplica(replicaArr[0].split("#")[0].trim(), name, 300000);
+
+		long connectionTimeout = Configs.getLongValue(ConfigKey.READ_CONNECTION_TIMEOUT, 3000);
+		RoutingDataSource routing = new RoutingDataSource();
+		for (String replica : replicaArr) {
+			String[] arr = replica.split("#");
+			String address = arr[0].trim();
+			int weight = arr.length > 1 ? Integer.valueOf(arr[1].trim()) : 1;
+			routing.add(address, createReplica(address, name, connectionTimeout), weight);
+		}
+		return routing;
+	}
+
+	private HikariDataSource createReplica(String address, String name, long connectionTimeout) {
+		String url = Configs.getString("x7.db.url");
+		url = url.replace("${address}", address)
+				.replace("${name}", name);
+
+		System.err.println("x7.db.url: " + url);
+		HikariDataSource dsR = new HikariDataSource();
+		dsR.setReadOnly(false);
+		dsR.setJdbcUrl(url);
+		dsR.setUsername(Configs.getString("x7.db.user"));
+		dsR.setPassword(Configs.getString("x7.db.password"));
+		dsR.setConnectionTimeout(connectionTimeout);
+		dsR.setIdleTimeout(600000);
+		dsR.setMaxLifetime(1800000);
+		dsR.setMaximumPoolSize(Configs.getIntValue("x7.db.max"));
+		setPrepare(dsR, url);
+		return dsR;
+	}
+
+	/**
+	 * MySQL服务端预编译, 配合StatementCache复用语句, 省去每次的SQL解析<br>
+	 * x7.db.prepare.server=true
+	 */
+	private void setPrepare(HikariDataSource ds, String url) {
+		if (!url.startsWith("jdbc:mysql") || !Configs.isTrue(ConfigKey.PREPARE_SERVER, false))
+			return;
+		ds.addDataSourceProperty("useServerPrepStmts", "true");
+		ds.addDataSourceProperty("cachePrepStmts", "true");
+		ds.addDataSourceProperty("prepStmtCacheSize", "256");
+		ds.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+	}
+
 	public DataSource get() {
 		return dsW;
 	}
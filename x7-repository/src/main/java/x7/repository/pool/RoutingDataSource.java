@@ -0,0 +1,337 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.pool;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import x7.core.config.Configs;
+import x7.repository.ConfigKey;
+
+/**
+ * 多个从库的读路由<br>
+ * 按 (outstanding + 1) * EWMA延迟 / weight 选分数最小的从库, 延迟以连接从取出到归还计<br>
+ * 连续出错x7.db.read.eject.errors次(默认3)的从库移出x7.db.read.eject.ms(默认30000)毫秒; 全部被移出时, 选最早恢复的<br>
+ * 统计: JdbcMetrics.getReplicas(), JMX x7:type=JdbcMetrics
+ *
+ * @author Sim
+ */
+public class RoutingDataSource implements DataSource {
+
+	private final static double ALPHA = 0.2;
+
+	private final List<Replica> replicaList = new ArrayList<Replica>();
+	private final int ejectErrors;
+	private final long ejectMillis;
+
+	public RoutingDataSource() {
+		this.ejectErrors = Configs.getIntValue(ConfigKey.READ_EJECT_ERRORS, 3);
+		this.ejectMillis = Configs.getLongValue(ConfigKey.READ_EJECT_MS, 30000);
+	}
+
+	public void add(String address, DataSource dataSource, int weight) {
+		replicaList.add(new Replica(address, dataSource, Math.max(1, weight)));
+	}
+
+	public int size() {
+		return replicaList.size();
+	}
+
+	public List<Replica> getStats() {
+		return new ArrayList<Replica>(replicaList);
+	}
+
+	private Replica choose(Replica excluded) {
+		long now = System.currentTimeMillis();
+		int size = replicaList.size();
+		int start = size > 1 ? ThreadLocalRandom.current().nextInt(size) : 0;
+		Replica best = null;
+		double bestScore = Double.MAX_VALUE;
+		Replica earliest = null;
+		for (int i = 0; i < size; i++) {
+			Replica replica = replicaList.get((start + i) % size);
+			if (replica == excluded)
+				continue;
+			if (replica.ejectedUntil > now) {
+				if (earliest == null || replica.ejectedUntil < earliest.ejectedUntil) {
+					earliest = replica;
+				}
+				continue;
+			}
+			double score = replica.score();
+			if (score < bestScore) {
+				bestScore = score;
+				best = replica;
+			}
+		}
+		return best != null ? best : earliest;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		Replica replica = choose(null);
+		try {
+			return replica.getConnection();
+		} catch (SQLException e) {
+			Replica other = choose(replica);
+			if (other == null)
+				throw e;
+			return other.getConnection();
+		}
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		throw new SQLFeatureNotSupportedException("RoutingDataSource.getConnection(username, password)");
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return replicaList.get(0).dataSource.getLogWriter();
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		for (Replica replica : replicaList) {
+			replica.dataSource.setLogWriter(out);
+		}
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		for (Replica replica : replicaList) {
+			replica.dataSource.setLoginTimeout(seconds);
+		}
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return replicaList.get(0).dataSource.getLoginTimeout();
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		return Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this))
+			return (T) this;
+		throw new SQLException("RoutingDataSource is not a wrapper for " + iface.getName());
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this);
+	}
+
+	@Override
+	public String toString() {
+		return "RoutingDataSource " + replicaList;
+	}
+
+	/**
+	 * 一个从库和它的统计
+	 */
+	public class Replica {
+
+		private final String address;
+		private final DataSource dataSource;
+		private final int weight;
+
+		private final AtomicInteger outstanding = new AtomicInteger();
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+		private final AtomicInteger consecutiveErrors = new AtomicInteger();
+		private volatile double ewmaMillis = 1;
+		private volatile long ejectedUntil;
+
+		private Replica(String address, DataSource dataSource, int weight) {
+			this.address = address;
+			this.dataSource = dataSource;
+			this.weight = weight;
+		}
+
+		private double score() {
+			return (outstanding.get() + 1) * ewmaMillis / weight;
+		}
+
+		private Connection getConnection() throws SQLException {
+			long startTime = System.nanoTime();
+			outstanding.incrementAndGet();
+			Connection conn;
+			try {
+				conn = dataSource.getConnection();
+			} catch (SQLException e) {
+				outstanding.decrementAndGet();
+				error();
+				throw e;
+			}
+			requests.incrementAndGet();
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, new Lease(this, conn, startTime));
+		}
+
+		private void done(long startTime, boolean isOk) {
+			outstanding.decrementAndGet();
+			double millis = (System.nanoTime() - startTime) / 1000000.0;
+			ewmaMillis = ALPHA * millis + (1 - ALPHA) * ewmaMillis;
+			if (isOk) {
+				consecutiveErrors.set(0);
+			}
+		}
+
+		private void error() {
+			errors.incrementAndGet();
+			if (consecutiveErrors.incrementAndGet() >= ejectErrors) {
+				consecutiveErrors.set(0);
+				ejectedUntil = System.currentTimeMillis() + ejectMillis;
+				System.out.println("Replica ejected: " + address + ", for " + ejectMillis + "ms");
+			}
+		}
+
+		public String getAddress() {
+			return address;
+		}
+
+		public int getWeight() {
+			return weight;
+		}
+
+		public int getOutstanding() {
+			return outstanding.get();
+		}
+
+		public long getRequests() {
+			return requests.get();
+		}
+
+		public long getErrors() {
+			return errors.get();
+		}
+
+		public double getEwmaMillis() {
+			return ewmaMillis;
+		}
+
+		public boolean isEjected() {
+			return ejectedUntil > System.currentTimeMillis();
+		}
+
+		@Override
+		public String toString() {
+			return "Replica [address=" + address + ", weight=" + weight + ", outstanding=" + getOutstanding()
+					+ ", requests=" + getRequests() + ", errors=" + getErrors() + ", ewmaMillis=" + ewmaMillis
+					+ ", ejected=" + isEjected() + "]";
+		}
+	}
+
+	/**
+	 * 借出的连接, close时记录延迟; 连接和它的Statement, ResultSet上的连接类错误(SQLState 08xxx)计入从库的错误
+	 */
+	private static class Lease implements InvocationHandler {
+
+		private final Replica replica;
+		private final Connection conn;
+		private final long startTime;
+		private boolean closed;
+		private boolean isOk = true;
+
+		private Lease(Replica replica, Connection conn, long startTime) {
+			this.replica = replica;
+			this.conn = conn;
+			this.startTime = startTime;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("close".equals(name)) {
+				if (!closed) {
+					closed = true;
+					replica.done(startTime, isOk);
+				}
+				conn.close();
+				return null;
+			}
+			if ("equals".equals(name))
+				return proxy == args[0];
+			if ("hashCode".equals(name))
+				return System.identityHashCode(proxy);
+			if ("toString".equals(name))
+				return "Lease[" + replica.address + "] " + conn;
+			return guard(conn, method, args);
+		}
+
+		private Object guard(Object target, Method method, Object[] args) throws Throwable {
+			Object result;
+			try {
+				result = method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				Throwable t = e.getTargetException();
+				if (t instanceof SQLException) {
+					String state = ((SQLException) t).getSQLState();
+					if (state != null && state.startsWith("08")) {
+						isOk = false;
+						replica.error();
+					}
+				}
+				throw t;
+			}
+			return wrap(result, method.getReturnType());
+		}
+
+		/**
+		 * Statement, ResultSet也包一层, executeQuery, next上的错误同样计入
+		 */
+		private Object wrap(Object result, Class<?> type) {
+			if (result == null)
+				return null;
+			if (type != Statement.class && type != PreparedStatement.class && type != CallableStatement.class
+					&& type != ResultSet.class)
+				return result;
+			return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+				String name = method.getName();
+				if ("equals".equals(name))
+					return proxy == args[0];
+				if ("hashCode".equals(name))
+					return System.identityHashCode(proxy);
+				return guard(result, method, args);
+			});
+		}
+	}
+}
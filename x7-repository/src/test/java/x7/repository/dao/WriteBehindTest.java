@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import x7.core.repository.X;
+import x7.repository.dao.WriteBehind.Op;
+import x7.repository.dao.WriteBehind.Write;
+
+/**
+ * 同一主键的写合并, refresh只带非默认值的属性
+ */
+public class WriteBehindTest {
+
+	public static class Cat {
+		@X.Key
+		private long id;
+		private String name;
+		private int age;
+		private String color;
+
+		public long getId() {
+			return id;
+		}
+
+		public void setId(long id) {
+			this.id = id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public int getAge() {
+			return age;
+		}
+
+		public void setAge(int age) {
+			this.age = age;
+		}
+
+		public String getColor() {
+			return color;
+		}
+
+		public void setColor(String color) {
+			this.color = color;
+		}
+	}
+
+	private static Cat cat(long id, String name, int age, String color) {
+		Cat cat = new Cat();
+		cat.setId(id);
+		cat.setName(name);
+		cat.setAge(age);
+		cat.setColor(color);
+		return cat;
+	}
+
+	@Test
+	public void createThenRefreshKeepsCreatedFields() {
+		Cat created = cat(1, "tom", 3, "black");
+		Cat patch = cat(1, null, 4, null);
+
+		Write w = WriteBehind.merge(new Write(1L, Op.CREATE, created, 7), new Write(1L, Op.REFRESH, patch, 8));
+
+		assertEquals(Op.CREATE, w.op);
+		assertEquals(7, w.seq);
+		Cat merged = (Cat) w.obj;
+		assertEquals(1, merged.getId());
+		assertEquals("tom", merged.getName());
+		assertEquals(4, merged.getAge());
+		assertEquals("black", merged.getColor());
+
+		assertEquals(3, created.getAge());
+		assertNull(patch.getName());
+	}
+
+	@Test
+	public void refreshThenRefreshUnionsColumns() {
+		Cat a = cat(1, "tom", 0, null);
+		Cat b = cat(1, null, 0, "white");
+
+		Write w = WriteBehind.merge(new Write(1L, Op.REFRESH, a, 1), new Write(1L, Op.REFRESH, b, 2));
+
+		assertEquals(Op.REFRESH, w.op);
+		Cat merged = (Cat) w.obj;
+		assertEquals("tom", merged.getName());
+		assertEquals("white", merged.getColor());
+		assertEquals(0, merged.getAge());
+	}
+
+	@Test
+	public void refreshOfSameObjectKeepsInstance() {
+		Cat a = cat(1, "tom", 3, null);
+
+		Write w = WriteBehind.merge(new Write(1L, Op.REFRESH, a, 1), new Write(1L, Op.REFRESH, a, 2));
+
+		assertSame(a, w.obj);
+	}
+
+	@Test
+	public void createThenRemoveCancels() {
+		Cat a = cat(1, "tom", 3, null);
+
+		assertNull(WriteBehind.merge(new Write(1L, Op.CREATE, a, 1), new Write(1L, Op.REMOVE, a, 2)));
+	}
+
+	@Test
+	public void removeThenRefreshStaysRemove() {
+		Cat a = cat(1, "tom", 3, null);
+		Cat b = cat(1, "jerry", 0, null);
+
+		Write w = WriteBehind.merge(new Write(1L, Op.REMOVE, a, 1), new Write(1L, Op.REFRESH, b, 2));
+
+		assertEquals(Op.REMOVE, w.op);
+		assertSame(a, w.obj);
+	}
+
+	@Test
+	public void removeThenCreateBecomesUpsert() {
+		Cat a = cat(1, "tom", 3, null);
+		Cat b = cat(1, "jerry", 2, "red");
+
+		Write w = WriteBehind.merge(new Write(1L, Op.REMOVE, a, 1), new Write(1L, Op.CREATE, b, 2));
+
+		assertEquals(Op.UPSERT, w.op);
+		assertSame(b, w.obj);
+	}
+}
@@ -0,0 +1,364 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import x7.core.repository.SqlFieldType;
+import x7.core.repository.X;
+
+/**
+ * 每种Kind的往返, 超过8个属性的null位图, schema不一致
+ */
+public class BeanCodecTest {
+
+	public enum Color {
+		RED, GREEN
+	}
+
+	/**
+	 * short, byte, java.sql.Date不在BeanUtilX的类型列表里, 不标type会当作JSON
+	 */
+	public static class Everything {
+		@X.Key
+		private long id;
+		private Long boxedLong;
+		private int count;
+		private Integer boxedInt;
+		@X(type = SqlFieldType.INT)
+		private short small;
+		@X(type = SqlFieldType.BYTE)
+		private byte tiny;
+		private boolean flag;
+		private Boolean boxedFlag;
+		private double ratio;
+		private float weight;
+		private String name;
+		private BigDecimal amount;
+		private Date created;
+		private Timestamp updated;
+		@X(type = SqlFieldType.DATE)
+		private java.sql.Date day;
+		private Color color;
+		private List<String> tags;
+
+		public long getId() {
+			return id;
+		}
+
+		public void setId(long id) {
+			this.id = id;
+		}
+
+		public Long getBoxedLong() {
+			return boxedLong;
+		}
+
+		public void setBoxedLong(Long boxedLong) {
+			this.boxedLong = boxedLong;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public void setCount(int count) {
+			this.count = count;
+		}
+
+		public Integer getBoxedInt() {
+			return boxedInt;
+		}
+
+		public void setBoxedInt(Integer boxedInt) {
+			this.boxedInt = boxedInt;
+		}
+
+		public short getSmall() {
+			return small;
+		}
+
+		public void setSmall(short small) {
+			this.small = small;
+		}
+
+		public byte getTiny() {
+			return tiny;
+		}
+
+		public void setTiny(byte tiny) {
+			this.tiny = tiny;
+		}
+
+		public boolean isFlag() {
+			return flag;
+		}
+
+		public void setFlag(boolean flag) {
+			this.flag = flag;
+		}
+
+		public Boolean getBoxedFlag() {
+			return boxedFlag;
+		}
+
+		public void setBoxedFlag(Boolean boxedFlag) {
+			this.boxedFlag = boxedFlag;
+		}
+
+		public double getRatio() {
+			return ratio;
+		}
+
+		public void setRatio(double ratio) {
+			this.ratio = ratio;
+		}
+
+		public float getWeight() {
+			return weight;
+		}
+
+		public void setWeight(float weight) {
+			this.weight = weight;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public BigDecimal getAmount() {
+			return amount;
+		}
+
+		public void setAmount(BigDecimal amount) {
+			this.amount = amount;
+		}
+
+		public Date getCreated() {
+			return created;
+		}
+
+		public void setCreated(Date created) {
+			this.created = created;
+		}
+
+		public Timestamp getUpdated() {
+			return updated;
+		}
+
+		public void setUpdated(Timestamp updated) {
+			this.updated = updated;
+		}
+
+		public java.sql.Date getDay() {
+			return day;
+		}
+
+		public void setDay(java.sql.Date day) {
+			this.day = day;
+		}
+
+		public Color getColor() {
+			return color;
+		}
+
+		public void setColor(Color color) {
+			this.color = color;
+		}
+
+		public List<String> getTags() {
+			return tags;
+		}
+
+		public void setTags(List<String> tags) {
+			this.tags = tags;
+		}
+	}
+
+	public static class Other {
+		@X.Key
+		private long id;
+		private String title;
+
+		public long getId() {
+			return id;
+		}
+
+		public void setId(long id) {
+			this.id = id;
+		}
+
+		public String getTitle() {
+			return title;
+		}
+
+		public void setTitle(String title) {
+			this.title = title;
+		}
+	}
+
+	private static Everything full() {
+		Everything e = new Everything();
+		e.setId(-123456789012L);
+		e.setBoxedLong(Long.MAX_VALUE);
+		e.setCount(Integer.MIN_VALUE);
+		e.setBoxedInt(42);
+		e.setSmall((short) -300);
+		e.setTiny((byte) -7);
+		e.setFlag(true);
+		e.setBoxedFlag(false);
+		e.setRatio(-0.125);
+		e.setWeight(3.5f);
+		e.setName("名字 name");
+		e.setAmount(new BigDecimal("12.50"));
+		e.setCreated(new Date(1500000000123L));
+		e.setUpdated(new Timestamp(-86400000L));
+		e.setDay(new java.sql.Date(1600000000000L));
+		e.setColor(Color.GREEN);
+		e.setTags(Arrays.asList("a", "b"));
+		return e;
+	}
+
+	private static Everything roundTrip(Everything e) throws Exception {
+		BeanCodec codec = BeanCodec.get(Everything.class);
+		byte[] bytes = codec.encode(e);
+		assertEquals(BeanCodec.MAGIC, bytes[0]);
+		Everything d = codec.decode(bytes);
+		assertNotNull(d);
+		return d;
+	}
+
+	@Test
+	public void coversEveryKind() throws Exception {
+		Field field = BeanCodec.class.getDeclaredField("kinds");
+		field.setAccessible(true);
+		Object[] kinds = (Object[]) field.get(BeanCodec.get(Everything.class));
+		assertEquals(17, kinds.length);
+		Set<String> set = new HashSet<String>();
+		for (Object kind : kinds) {
+			set.add(kind.toString());
+		}
+		Set<String> all = new HashSet<String>();
+		for (Object kind : kinds[0].getClass().getEnumConstants()) {
+			all.add(kind.toString());
+		}
+		assertEquals(all, set);
+	}
+
+	@Test
+	public void everyKind() throws Exception {
+		Everything e = full();
+		Everything d = roundTrip(e);
+		assertEquals(e.getId(), d.getId());
+		assertEquals(e.getBoxedLong(), d.getBoxedLong());
+		assertEquals(e.getCount(), d.getCount());
+		assertEquals(e.getBoxedInt(), d.getBoxedInt());
+		assertEquals(e.getSmall(), d.getSmall());
+		assertEquals(e.getTiny(), d.getTiny());
+		assertEquals(e.isFlag(), d.isFlag());
+		assertEquals(e.getBoxedFlag(), d.getBoxedFlag());
+		assertEquals(e.getRatio(), d.getRatio(), 0);
+		assertEquals(e.getWeight(), d.getWeight(), 0);
+		assertEquals(e.getName(), d.getName());
+		assertEquals(e.getAmount(), d.getAmount());
+		assertEquals(e.getCreated(), d.getCreated());
+		assertEquals(e.getUpdated(), d.getUpdated());
+		assertEquals(Timestamp.class, d.getUpdated().getClass());
+		assertEquals(e.getDay(), d.getDay());
+		assertEquals(java.sql.Date.class, d.getDay().getClass());
+		assertEquals(e.getColor(), d.getColor());
+		assertEquals(e.getTags(), d.getTags());
+	}
+
+	/**
+	 * 17个属性, 位图3个字节; 引用类型的属性全为null, 以及隔一个为null
+	 */
+	@Test
+	public void nullBitmapOverEightProperties() throws Exception {
+		Everything e = new Everything();
+		e.setId(9);
+		e.setCount(-1);
+		e.setSmall((short) 1);
+		e.setTiny((byte) 1);
+		e.setFlag(true);
+		e.setRatio(1.5);
+		e.setWeight(2.5f);
+		Everything d = roundTrip(e);
+		assertEquals(9, d.getId());
+		assertEquals(-1, d.getCount());
+		assertEquals(2.5f, d.getWeight(), 0);
+		assertNull(d.getBoxedLong());
+		assertNull(d.getBoxedInt());
+		assertNull(d.getBoxedFlag());
+		assertNull(d.getName());
+		assertNull(d.getAmount());
+		assertNull(d.getCreated());
+		assertNull(d.getUpdated());
+		assertNull(d.getDay());
+		assertNull(d.getColor());
+		assertNull(d.getTags());
+
+		e = full();
+		e.setBoxedInt(null);
+		e.setName(null);
+		e.setCreated(null);
+		e.setDay(null);
+		e.setTags(null);
+		d = roundTrip(e);
+		assertEquals(e.getBoxedLong(), d.getBoxedLong());
+		assertNull(d.getBoxedInt());
+		assertEquals(e.getBoxedFlag(), d.getBoxedFlag());
+		assertNull(d.getName());
+		assertEquals(e.getAmount(), d.getAmount());
+		assertNull(d.getCreated());
+		assertEquals(e.getUpdated(), d.getUpdated());
+		assertNull(d.getDay());
+		assertEquals(e.getColor(), d.getColor());
+		assertNull(d.getTags());
+	}
+
+	@Test
+	public void schemaMismatch() throws Exception {
+		byte[] bytes = BeanCodec.get(Everything.class).encode(full());
+		assertNull(BeanCodec.get(Other.class).decode(bytes));
+
+		Other other = new Other();
+		other.setId(1);
+		other.setTitle("t");
+		assertNull(BeanCodec.get(Everything.class).decode(BeanCodec.get(Other.class).encode(other)));
+
+		bytes[0] = 0;
+		assertNull(BeanCodec.get(Everything.class).decode(bytes));
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package x7.repository.redis;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import x7.core.repository.X;
+
+/**
+ * 压缩头, 以及头或数据不对时原样返回
+ */
+public class CacheCompressorTest {
+
+	@X.Compress
+	public static class Doc {
+		@X.Key
+		private long id;
+		private String body;
+
+		public long getId() {
+			return id;
+		}
+
+		public void setId(long id) {
+			this.id = id;
+		}
+
+		public String getBody() {
+			return body;
+		}
+
+		public void setBody(String body) {
+			this.body = body;
+		}
+	}
+
+	public static class Plain {
+		@X.Key
+		private long id;
+
+		public long getId() {
+			return id;
+		}
+
+		public void setId(long id) {
+			this.id = id;
+		}
+	}
+
+	private static byte[] json(int repeat) {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < repeat; i++) {
+			sb.append("{\"id\":").append(i).append(",\"body\":\"hello world\"},");
+		}
+		return sb.append("]").toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void roundTrip() {
+		byte[] raw = json(200);
+		byte[] compressed = CacheCompressor.compress(Doc.class, raw);
+		assertEquals(CacheCompressor.MAGIC, compressed[0]);
+		assertTrue(compressed.length < raw.length);
+		assertArrayEquals(raw, CacheCompressor.decompress(Doc.class, compressed));
+	}
+
+	@Test
+	public void notCompressed() {
+		byte[] small = json(1);
+		assertSame(small, CacheCompressor.compress(Doc.class, small));
+
+		byte[] raw = json(200);
+		assertSame(raw, CacheCompressor.compress(Plain.class, raw));
+		assertSame(raw, CacheCompressor.decompress(Doc.class, raw));
+
+		assertNull(CacheCompressor.decompress(Doc.class, null));
+	}
+
+	@Test
+	public void corruptHeader() {
+		byte m = CacheCompressor.MAGIC;
+		byte[][] corruptArr = {
+				{ m, (byte) 0x80 },
+				{ m, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 1 },
+				{ m, 0, 0, 'a' },
+				{ m, 5, 0 },
+				{ m, 3, 2, 'a', 'b', 'c', 'd' },
+				{ m, 6, 0x20, 2 } };
+		for (byte[] corrupt : corruptArr) {
+			assertSame(corrupt, CacheCompressor.decompress(Doc.class, corrupt));
+		}
+	}
+
+	@Test
+	public void truncated() {
+		byte[] compressed = CacheCompressor.compress(Doc.class, json(200));
+		for (int len = 2; len < compressed.length; len += 7) {
+			byte[] part = Arrays.copyOf(compressed, len);
+			assertSame(part, CacheCompressor.decompress(Doc.class, part));
+		}
+	}
+}